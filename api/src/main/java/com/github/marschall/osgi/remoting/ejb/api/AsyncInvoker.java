@@ -0,0 +1,63 @@
+package com.github.marschall.osgi.remoting.ejb.api;
+
+/**
+ * Calls remote services asynchronously.
+ *
+ * <p>
+ * Registered by osgi-remoting-ejb-client. Works like the OSGi Asynchronous
+ * Service: a call on a mediator returned by {@link #mediate(Object, Class)}
+ * is only recorded, {@link #call(Object)} then runs it on a bounded thread
+ * pool.
+ * </p>
+ *
+ * <pre>
+ * CustomerService mediator = asyncInvoker.mediate(customerService, CustomerService.class);
+ * CallFuture&lt;Customer&gt; customer = asyncInvoker.call(mediator.findCustomer(id));
+ * CallFuture&lt;List&lt;Order&gt;&gt; orders = asyncInvoker.call(mediator.findOrders(id));
+ * </pre>
+ *
+ * <p>
+ * The context class loader of the thread calling {@link #call(Object)} is set
+ * during the call. Services registered by osgi-remoting-ejb-client set their
+ * own context class loader anyway.
+ * </p>
+ */
+public interface AsyncInvoker {
+
+  /**
+   * Creates a mediator that records calls to a service.
+   *
+   * @param service the service to call, usually a remote service
+   * @param serviceInterface the interface of the service to mediate
+   * @param <T> the type of the service
+   * @return the mediator, calls on it only record the call and return
+   *  {@code null}, {@code 0} or {@code false}
+   */
+  public <T> T mediate(T service, Class<T> serviceInterface);
+
+  /**
+   * Runs the last call recorded by a mediator on the current thread.
+   *
+   * @param result the return value of the call on the mediator, ignored
+   * @param <R> the return type of the method
+   * @return the future result of the call
+   * @throws IllegalStateException if no call was recorded on the current
+   *  thread
+   * @throws java.util.concurrent.RejectedExecutionException if the queue of
+   *  the thread pool is full and the rejection policy is {@code abort}
+   */
+  public <R> CallFuture<R> call(R result);
+
+  /**
+   * Runs the last call recorded by a mediator on the current thread,
+   * intended for {@code void} methods.
+   *
+   * @return the future result of the call
+   * @throws IllegalStateException if no call was recorded on the current
+   *  thread
+   * @throws java.util.concurrent.RejectedExecutionException if the queue of
+   *  the thread pool is full and the rejection policy is {@code abort}
+   */
+  public CallFuture<Object> call();
+
+}
@@ -0,0 +1,26 @@
+package com.github.marschall.osgi.remoting.ejb.api;
+
+import java.util.concurrent.Future;
+
+/**
+ * The result of an asynchronous call to which listeners can be added.
+ *
+ * @param <T> the type of the result
+ */
+public interface CallFuture<T> extends Future<T> {
+
+  /**
+   * Adds a listener that is notified once the call completes.
+   *
+   * <p>
+   * The listener is called on the thread that completes the call or on the
+   * current thread if the call already completed. Cancelled calls are
+   * reported as failed with a
+   * {@link java.util.concurrent.CancellationException}.
+   * </p>
+   *
+   * @param listener the listener to add, not {@code null}
+   */
+  public void addListener(CallListener<? super T> listener);
+
+}
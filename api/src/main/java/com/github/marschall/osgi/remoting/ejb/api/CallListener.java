@@ -0,0 +1,26 @@
+package com.github.marschall.osgi.remoting.ejb.api;
+
+/**
+ * Notified when a {@link CallFuture} completes.
+ *
+ * @param <T> the type of the result
+ */
+public interface CallListener<T> {
+
+  /**
+   * Called when the call completed normally.
+   *
+   * @param result the result of the call, {@code null} for {@code void}
+   *  methods
+   */
+  public void completed(T result);
+
+  /**
+   * Called when the call failed or was cancelled.
+   *
+   * @param failure the exception thrown by the service, not wrapped in an
+   *  {@link java.util.concurrent.ExecutionException}
+   */
+  public void failed(Throwable failure);
+
+}
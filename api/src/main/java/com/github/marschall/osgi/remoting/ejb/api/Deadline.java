@@ -0,0 +1,130 @@
+package com.github.marschall.osgi.remoting.ejb.api;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which all calls to remote services have to be finished.
+ *
+ * <p>
+ * A deadline applies to all calls made by the current thread while its scope
+ * is entered, including calls made by nested code. Calls that can not finish
+ * before the deadline fail instead of blocking the caller.
+ * </p>
+ *
+ * <pre><code>
+ * Deadline.Scope scope = Deadline.after(2L, TimeUnit.SECONDS).enter();
+ * try {
+ *   customerService.findCustomer(id);
+ *   orderService.findOrders(id);
+ * } finally {
+ *   scope.exit();
+ * }
+ * </code></pre>
+ *
+ * <p>
+ * Client bridges can read {@link #current()} to pass the deadline on to the
+ * EJB client library, remote calls are made on the calling thread.
+ * </p>
+ */
+public final class Deadline {
+
+  private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<Deadline>();
+
+  /**
+   * In {@link System#nanoTime()}.
+   */
+  private final long expiresAt;
+
+  private Deadline(long expiresAt) {
+    this.expiresAt = expiresAt;
+  }
+
+  /**
+   * Creates a deadline relative to now.
+   *
+   * @param duration the time from now until the deadline
+   * @param unit the unit of {@code duration}, not {@code null}
+   * @return the new deadline, not yet entered
+   */
+  public static Deadline after(long duration, TimeUnit unit) {
+    return new Deadline(System.nanoTime() + unit.toNanos(duration));
+  }
+
+  /**
+   * Returns the deadline of the current thread.
+   *
+   * @return the deadline of the innermost entered scope, {@code null} if
+   *  there is none
+   */
+  public static Deadline current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Returns the time remaining until the deadline.
+   *
+   * @param unit the unit of the result, not {@code null}
+   * @return the remaining time, zero or negative if the deadline has passed
+   */
+  public long getRemaining(TimeUnit unit) {
+    return unit.convert(this.expiresAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Checks whether the deadline has passed.
+   *
+   * @return whether the deadline has passed
+   */
+  public boolean isExpired() {
+    return this.expiresAt - System.nanoTime() <= 0L;
+  }
+
+  /**
+   * Makes this the deadline of the current thread until
+   * {@link Scope#exit()} is called.
+   *
+   * <p>
+   * If an enclosing scope has an earlier deadline the earlier deadline stays
+   * in effect, a nested scope can only shorten the deadline.
+   * </p>
+   *
+   * @return the entered scope, has to be exited in a {@code finally} block
+   */
+  public Scope enter() {
+    Deadline previous = CURRENT.get();
+    if (previous == null || previous.expiresAt - this.expiresAt > 0L) {
+      CURRENT.set(this);
+    }
+    return new Scope(previous);
+  }
+
+  @Override
+  public String toString() {
+    return "Deadline in " + this.getRemaining(TimeUnit.MILLISECONDS) + " ms";
+  }
+
+  /**
+   * The part of the code during which a deadline is in effect.
+   */
+  public static final class Scope {
+
+    private final Deadline previous;
+
+    Scope(Deadline previous) {
+      this.previous = previous;
+    }
+
+    /**
+     * Restores the deadline that was in effect before the scope was entered.
+     */
+    public void exit() {
+      if (this.previous == null) {
+        CURRENT.remove();
+      } else {
+        CURRENT.set(this.previous);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,72 @@
+package com.github.marschall.osgi.remoting.ejb.api;
+
+/**
+ * Gets notified about look ups, calls and flushes of remote services, eg. to
+ * emit profiling events.
+ *
+ * <p>
+ * Can be registered as an OSGi service at any time. Only one listener is
+ * used, if several are registered the first one is used until it is
+ * unregistered. If no listener is registered no notifications are created at
+ * all.
+ * </p>
+ *
+ * <p>
+ * Implementations are called on the calling thread and have to be fast, they
+ * must not throw exceptions.
+ * </p>
+ */
+public interface InvocationListener {
+
+  /**
+   * The kinds of operations a listener gets notified about.
+   */
+  public enum Operation {
+
+    /**
+     * The initial JNDI look up of an EJB client proxy.
+     */
+    LOOK_UP,
+
+    /**
+     * A method call on a remote service.
+     */
+    INVOCATION,
+
+    /**
+     * A new JNDI look up of a single EJB client proxy.
+     */
+    FLUSH_PROXY,
+
+    /**
+     * Creation of a new naming context and JNDI look up of all EJB client
+     * proxies of a client bundle.
+     */
+    FLUSH_PROXIES
+
+  }
+
+  /**
+   * Called before an operation starts.
+   *
+   * @param operation the kind of the operation
+   * @param name the JNDI name of the remote service, for
+   *  {@link Operation#FLUSH_PROXIES} the symbolic name of the client bundle
+   * @param methodName the name of the method including parameter types for
+   *  {@link Operation#INVOCATION}, {@code null} otherwise
+   * @return an object that is passed to {@link #finished(Object, Throwable)},
+   *  may be {@code null}
+   */
+  public Object started(Operation operation, String name, String methodName);
+
+  /**
+   * Called after an operation finished.
+   *
+   * @param context the object returned by
+   *  {@link #started(Operation, String, String)}
+   * @param failure the exception thrown by the operation, {@code null} if the
+   *  operation was successful
+   */
+  public void finished(Object context, Throwable failure);
+
+}
@@ -0,0 +1,41 @@
+package com.github.marschall.osgi.remoting.ejb.api;
+
+import java.util.List;
+
+/**
+ * Gives access to the statistics of the calls made through the remote
+ * services.
+ *
+ * <p>
+ * Registered by osgi-remoting-ejb-client once the
+ * {@link InitialContextService} is available. Statistics are kept per JNDI
+ * name and method and survive {@link ProxyFlusher#flushProxies()}. Calls
+ * through stubs generated by the annotation processor are included.
+ * </p>
+ *
+ * <p>
+ * Only calls that were made count, calls rejected by a circuit breaker,
+ * bulkhead, rate limit or adaptive limit are not included. Latencies don't
+ * include the time spent waiting for a bulkhead or rate limit.
+ * </p>
+ */
+public interface InvocationMetrics {
+
+  /**
+   * Returns the statistics of all methods that have been called at least once.
+   *
+   * @return a snapshot of the statistics, never {@code null}
+   */
+  public List<InvocationStatistics> getStatistics();
+
+  /**
+   * Returns the statistics of all methods of a remote service that have been
+   * called at least once.
+   *
+   * @param jndiName the JNDI name of the remote service
+   * @return a snapshot of the statistics, empty if the service is not known,
+   *  never {@code null}
+   */
+  public List<InvocationStatistics> getStatistics(String jndiName);
+
+}
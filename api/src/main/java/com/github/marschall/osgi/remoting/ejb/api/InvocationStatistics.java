@@ -0,0 +1,134 @@
+package com.github.marschall.osgi.remoting.ejb.api;
+
+import java.io.Serializable;
+
+/**
+ * Snapshot of the statistics of a single method of a remote service.
+ *
+ * <p>
+ * Latencies are in nanoseconds and are taken from a histogram so they are
+ * only approximate.
+ * </p>
+ */
+public final class InvocationStatistics implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String jndiName;
+  private final String methodName;
+  private final long invocationCount;
+  private final long errorCount;
+  private final int inFlight;
+  private final long p50;
+  private final long p99;
+  private final long p999;
+  private final long max;
+
+  public InvocationStatistics(String jndiName, String methodName, long invocationCount, long errorCount, int inFlight,
+      long p50, long p99, long p999, long max) {
+    this.jndiName = jndiName;
+    this.methodName = methodName;
+    this.invocationCount = invocationCount;
+    this.errorCount = errorCount;
+    this.inFlight = inFlight;
+    this.p50 = p50;
+    this.p99 = p99;
+    this.p999 = p999;
+    this.max = max;
+  }
+
+  /**
+   * Returns the JNDI name of the remote service.
+   *
+   * @return the JNDI name of the remote service
+   */
+  public String getJndiName() {
+    return this.jndiName;
+  }
+
+  /**
+   * Returns the name of the method including the parameter types, eg.
+   * {@code findCustomer(long)}.
+   *
+   * @return the name of the method
+   */
+  public String getMethodName() {
+    return this.methodName;
+  }
+
+  /**
+   * Returns the number of finished calls, including failed ones.
+   *
+   * @return the number of finished calls
+   */
+  public long getInvocationCount() {
+    return this.invocationCount;
+  }
+
+  /**
+   * Returns the number of calls that threw an exception.
+   *
+   * @return the number of failed calls
+   */
+  public long getErrorCount() {
+    return this.errorCount;
+  }
+
+  /**
+   * Returns the number of calls currently in progress.
+   *
+   * @return the number of calls currently in progress
+   */
+  public int getInFlight() {
+    return this.inFlight;
+  }
+
+  /**
+   * Returns the median latency.
+   *
+   * @return the median latency in nanoseconds
+   */
+  public long getP50() {
+    return this.p50;
+  }
+
+  /**
+   * Returns the 99th percentile latency.
+   *
+   * @return the 99th percentile latency in nanoseconds
+   */
+  public long getP99() {
+    return this.p99;
+  }
+
+  /**
+   * Returns the 99.9th percentile latency.
+   *
+   * @return the 99.9th percentile latency in nanoseconds
+   */
+  public long getP999() {
+    return this.p999;
+  }
+
+  /**
+   * Returns the highest latency seen.
+   *
+   * @return the highest latency in nanoseconds
+   */
+  public long getMax() {
+    return this.max;
+  }
+
+  @Override
+  public String toString() {
+    return this.jndiName + '#' + this.methodName
+        + " [invocations=" + this.invocationCount
+        + ", errors=" + this.errorCount
+        + ", inFlight=" + this.inFlight
+        + ", p50=" + this.p50
+        + ", p99=" + this.p99
+        + ", p999=" + this.p999
+        + ", max=" + this.max + ']';
+  }
+
+}
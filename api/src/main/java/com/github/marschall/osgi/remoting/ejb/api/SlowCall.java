@@ -0,0 +1,106 @@
+package com.github.marschall.osgi.remoting.ejb.api;
+
+import java.io.Serializable;
+
+/**
+ * A single call recorded by {@link SlowCallLog}.
+ */
+public final class SlowCall implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final long timestamp;
+  private final String jndiName;
+  private final String methodName;
+  private final long duration;
+  private final String threadName;
+  private final String outcome;
+  private final StackTraceElement[] stackTrace;
+
+  public SlowCall(long timestamp, String jndiName, String methodName, long duration, String threadName,
+      String outcome, StackTraceElement[] stackTrace) {
+    this.timestamp = timestamp;
+    this.jndiName = jndiName;
+    this.methodName = methodName;
+    this.duration = duration;
+    this.threadName = threadName;
+    this.outcome = outcome;
+    this.stackTrace = stackTrace;
+  }
+
+  /**
+   * Returns the time the call finished.
+   *
+   * @return the time the call finished in milliseconds since the epoch
+   */
+  public long getTimestamp() {
+    return this.timestamp;
+  }
+
+  /**
+   * Returns the JNDI name of the remote service.
+   *
+   * @return the JNDI name of the remote service
+   */
+  public String getJndiName() {
+    return this.jndiName;
+  }
+
+  /**
+   * Returns the name of the method including the parameter types.
+   *
+   * @return the name of the method
+   */
+  public String getMethodName() {
+    return this.methodName;
+  }
+
+  /**
+   * Returns the duration of the call.
+   *
+   * @return the duration of the call in nanoseconds
+   */
+  public long getDuration() {
+    return this.duration;
+  }
+
+  /**
+   * Returns the name of the thread that made the call.
+   *
+   * @return the name of the calling thread
+   */
+  public String getThreadName() {
+    return this.threadName;
+  }
+
+  /**
+   * Returns the outcome of the call.
+   *
+   * @return {@code SUCCESS} or the class name of the exception
+   */
+  public String getOutcome() {
+    return this.outcome;
+  }
+
+  /**
+   * Returns the stack of the caller.
+   *
+   * <p>
+   * Stacks are only captured for a sample of the slow calls.
+   * </p>
+   *
+   * @return the stack of the caller, {@code null} if not captured
+   */
+  public StackTraceElement[] getStackTrace() {
+    return this.stackTrace == null ? null : this.stackTrace.clone();
+  }
+
+  @Override
+  public String toString() {
+    return this.jndiName + '#' + this.methodName
+        + " [duration=" + this.duration
+        + ", thread=" + this.threadName
+        + ", outcome=" + this.outcome + ']';
+  }
+
+}
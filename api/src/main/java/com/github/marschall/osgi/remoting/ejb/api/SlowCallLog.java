@@ -0,0 +1,31 @@
+package com.github.marschall.osgi.remoting.ejb.api;
+
+import java.util.List;
+
+/**
+ * Gives access to the most recent calls that took longer than the configured
+ * threshold.
+ *
+ * <p>
+ * Registered by osgi-remoting-ejb-client. Calls are only recorded when the
+ * framework property
+ * {@code com.github.marschall.osgi.remoting.ejb.slowCallThreshold} (in
+ * milliseconds) is set or the threshold is set over JMX. Only a fixed number
+ * of calls is kept, older calls are overwritten.
+ * </p>
+ */
+public interface SlowCallLog {
+
+  /**
+   * Returns the recorded slow calls.
+   *
+   * @return the recorded slow calls, oldest first, never {@code null}
+   */
+  public List<SlowCall> getSlowCalls();
+
+  /**
+   * Removes all recorded slow calls.
+   */
+  public void clear();
+
+}
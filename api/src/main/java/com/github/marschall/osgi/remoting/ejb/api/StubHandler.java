@@ -0,0 +1,48 @@
+package com.github.marschall.osgi.remoting.ejb.api;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+
+/**
+ * Makes the calls of a stub generated by the annotation processor.
+ *
+ * <p>
+ * Implemented by osgi-remoting-ejb-client and passed to the constructor of
+ * the stub together with the class loader to set as TCCL, not meant to be
+ * used by client code.
+ * </p>
+ *
+ * <p>
+ * Before every call a stub asks {@link #startCall(Method)} for the EJB
+ * client proxy. If it gets one it calls the EJB client proxy directly,
+ * without reflection and boxing, and then reports the outcome to
+ * {@link #finishCall(Method, long, Throwable)}. Otherwise the call goes
+ * through {@link #invoke(Object, Method, Object[])} like the call of a
+ * {@link java.lang.reflect.Proxy}, eg. because timeouts, retries or limits
+ * apply to the method.
+ * </p>
+ */
+public interface StubHandler extends InvocationHandler {
+
+  /**
+   * Starts a call the stub makes directly on the EJB client proxy.
+   *
+   * @param method the interface method that is called
+   * @return the EJB client proxy to call, {@code null} if the call has to
+   *  go through {@link #invoke(Object, Method, Object[])}
+   */
+  public Object startCall(Method method);
+
+  /**
+   * Finishes a call for which {@link #startCall(Method)} returned the EJB
+   * client proxy, has to be called exactly once for every such call.
+   *
+   * @param method the interface method that was called
+   * @param start the value of {@link System#nanoTime()} before the call
+   * @param failure what the call threw, {@code null} if it returned
+   * @return the exception the stub has to throw instead of the failure,
+   *  {@code null} if the failure is {@code null}
+   */
+  public Throwable finishCall(Method method, long start, Throwable failure);
+
+}
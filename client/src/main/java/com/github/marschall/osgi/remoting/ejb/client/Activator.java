@@ -1,33 +1,100 @@
 package com.github.marschall.osgi.remoting.ejb.client;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Dictionary;
+import java.util.Hashtable;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.util.tracker.ServiceTracker;
 import org.osgi.util.tracker.ServiceTrackerCustomizer;
 
+import com.github.marschall.osgi.remoting.ejb.api.AsyncInvoker;
 import com.github.marschall.osgi.remoting.ejb.api.InitialContextService;
+import com.github.marschall.osgi.remoting.ejb.api.SlowCallLog;
 
 public class Activator implements BundleActivator {
 
   private volatile ProxyService proxyService;
   private volatile LoggerBridge logger;
   private volatile ServiceTracker<InitialContextService, InitialContextService> initialContextServiceTracker;
-  private volatile ExecutorService executor;
+  private volatile LookUpExecutor lookUpExecutor;
+  private volatile ManagementRegistry managementRegistry;
+  private volatile InvocationListenerTracker listeners;
+  private volatile SlowCallRecorder slowCalls;
+  private volatile ServiceRegistration<SlowCallLog> slowCallLogRegistration;
+  private volatile ServiceRegistration<SlowCallCommand> slowCallCommandRegistration;
+  private volatile AsyncInvokerService asyncInvoker;
+  private volatile CallWatchdog watchdog;
+  private volatile ServiceRegistration<AsyncInvoker> asyncInvokerRegistration;
   private volatile BundleContext context;
 
   @Override
   public void start(BundleContext context) throws Exception {
     this.context = context;
     this.logger = new LoggerBridge(context);
-    this.executor = Executors.newSingleThreadExecutor(new LookUpThreadFactory());
+    ClientConfiguration configuration = new ClientConfiguration(context, this.logger);
+    this.logger.setErrorLogInterval(configuration.getLong("errorLogInterval", LoggerBridge.DEFAULT_ERROR_LOG_INTERVAL));
+    ThreadFactory lookUpThreadFactory = null;
+    ThreadFactory asyncThreadFactory = null;
+    if (configuration.getBoolean("virtualThreads", false)) {
+      // changes the whole JVM, only on request
+      if (configuration.getBoolean("tracePinnedThreads", false)) {
+        VirtualThreads.tracePinnedThreads();
+      }
+      lookUpThreadFactory = VirtualThreads.newThreadFactory("osgi-remoting-ejb-proxy-lookup-");
+      asyncThreadFactory = VirtualThreads.newThreadFactory("osgi-remoting-ejb-async-");
+      if (lookUpThreadFactory == null) {
+        this.logger.warning("virtual threads are not supported, using platform threads");
+      }
+    }
+    if (lookUpThreadFactory == null) {
+      lookUpThreadFactory = new LookUpThreadFactory();
+    }
+    // also delays repeated look ups
+    this.watchdog = new CallWatchdog();
+    this.logger.startSummaries(this.watchdog);
+    this.lookUpExecutor = new LookUpExecutor(
+        configuration.getInt("lookUpThreads", Runtime.getRuntime().availableProcessors()), lookUpThreadFactory,
+        LookUpExecutor.parsePriorityBundles(configuration.getString("lookUpPriorityBundles", null)), this.watchdog);
+    this.managementRegistry = new ManagementRegistry(this.logger);
+    this.managementRegistry.registerLookUpExecutor(this.lookUpExecutor);
     
-    this.proxyService = new ProxyService(context, this.logger, this.executor);
+    this.listeners = new InvocationListenerTracker(context);
+    this.listeners.open();
+    
+    this.slowCalls = new SlowCallRecorder(configuration.getInt("slowCallBufferSize", 100),
+        configuration.getLong("slowCallThreshold", -1L),
+        configuration.getInt("slowCallStackSampleRate", 0));
+    this.managementRegistry.registerSlowCallRecorder(this.slowCalls);
+    this.registerSlowCallLog(context);
+
+    ThreadPoolExecutor asyncExecutor;
+    if (asyncThreadFactory != null) {
+      asyncExecutor = AsyncInvokerService.newVirtualExecutor(asyncThreadFactory);
+    } else {
+      asyncExecutor = AsyncInvokerService.newExecutor(configuration.getInt("asyncThreads", 4),
+          configuration.getInt("asyncQueueSize", 64),
+          configuration.getString("asyncRejectionPolicy", "abort"), this.logger);
+    }
+    this.asyncInvoker = new AsyncInvokerService(asyncExecutor, this.logger);
+    this.asyncInvokerRegistration = context.registerService(AsyncInvoker.class, this.asyncInvoker, new Hashtable<String, Object>());
+
+    ExceptionTranslator exceptions = new ExceptionTranslator(configuration.getBoolean("unwrapExceptions", false),
+        configuration.getBoolean("serviceExceptionStackTraces", true));
+
+    CallerSupport callerSupport = new CallerSupport(this.logger, this.listeners, this.slowCalls, exceptions,
+        this.asyncInvoker.getExecutor(),
+        TimeUnit.MILLISECONDS.toNanos(configuration.getLong("asyncResultTimeout", 0L)), this.watchdog);
+
+    this.proxyService = new ProxyService(context, this.logger, this.lookUpExecutor, this.managementRegistry, callerSupport,
+        configuration);
     
     // this will trigger the loading of the InitialContextService service implementation
     // however loading can only start once this bundle has been activated
@@ -36,6 +103,16 @@ public class Activator implements BundleActivator {
     this.initialContextServiceTracker.open(true);
   }
   
+  private void registerSlowCallLog(BundleContext context) {
+    this.slowCallLogRegistration = context.registerService(SlowCallLog.class, this.slowCalls, new Hashtable<String, Object>());
+    // picked up by the Apache Felix Gogo shell if present
+    Dictionary<String, Object> commandProperties = new Hashtable<String, Object>();
+    commandProperties.put("osgi.command.scope", SlowCallCommand.SCOPE);
+    commandProperties.put("osgi.command.function", SlowCallCommand.FUNCTIONS);
+    this.slowCallCommandRegistration = context.registerService(SlowCallCommand.class,
+        new SlowCallCommand(this.slowCalls), commandProperties);
+  }
+
   final class WaitForInitialContextService implements ServiceTrackerCustomizer<InitialContextService, InitialContextService> {
 
     @Override
@@ -61,20 +138,38 @@ public class Activator implements BundleActivator {
   public void stop(BundleContext context) throws Exception {
     this.proxyService.stop();
     this.logger.stop();
+    this.listeners.stop();
     this.initialContextServiceTracker.close();
-    this.executor.shutdownNow();
+    this.asyncInvokerRegistration.unregister();
+    this.asyncInvoker.getExecutor().shutdownNow();
+    this.watchdog.stop();
+    this.slowCallCommandRegistration.unregister();
+    this.slowCallLogRegistration.unregister();
+    this.managementRegistry.unregisterSlowCallRecorder();
+    this.managementRegistry.unregisterLookUpExecutor();
+    this.lookUpExecutor.shutdownNow();
 
     this.proxyService = null;
     this.logger = null;
     this.initialContextServiceTracker = null;
-    this.executor = null;
+    this.lookUpExecutor = null;
+    this.managementRegistry = null;
+    this.listeners = null;
+    this.slowCalls = null;
+    this.slowCallLogRegistration = null;
+    this.slowCallCommandRegistration = null;
+    this.asyncInvoker = null;
+    this.asyncInvokerRegistration = null;
+    this.watchdog = null;
   }
   
   static final class LookUpThreadFactory implements ThreadFactory {
 
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
     @Override
     public Thread newThread(Runnable r) {
-      return new Thread(r, "osgi-remoting-ejb-proxy-lookup");
+      return new Thread(r, "osgi-remoting-ejb-proxy-lookup-" + this.threadNumber.incrementAndGet());
     }
     
   }
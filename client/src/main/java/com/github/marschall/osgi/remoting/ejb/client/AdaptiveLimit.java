@@ -0,0 +1,159 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of concurrent calls to a limit derived from the observed
+ * latency, similar to the gradient algorithm of Netflix concurrency-limits.
+ *
+ * <p>
+ * The limit is adjusted after every successful call by comparing a long term
+ * average of the latency to the latency of the call. While the latency
+ * stays at the long term average the limit grows by about
+ * {@code sqrt(limit)}, when latency grows because requests queue up on the
+ * server the limit shrinks. Failed calls are ignored since their latency says
+ * nothing about the load of the server.
+ * </p>
+ *
+ * <p>
+ * Acquiring a permit is a lock-free compare and set. Updates of the limit
+ * are done under a lock, samples arriving while another thread holds the
+ * lock are dropped.
+ * </p>
+ */
+final class AdaptiveLimit implements CallGuard {
+
+  /**
+   * How much the latency of a call may exceed the long term average before
+   * the limit shrinks.
+   */
+  private static final double TOLERANCE = 1.5d;
+
+  /**
+   * Weight of a new sample in the long term average latency.
+   */
+  private static final double LONG_TERM_WEIGHT = 2.0d / (600.0d + 1.0d);
+
+  /**
+   * Weight of the new limit, dampens oscillation.
+   */
+  private static final double SMOOTHING = 0.2d;
+
+  private final String name;
+
+  private final int minLimit;
+
+  private final int maxLimit;
+
+  private final AtomicInteger inFlight;
+
+  private final AtomicLong rejectionCount;
+
+  private final ReentrantLock updateLock;
+
+  /**
+   * Guarded by {@link #updateLock}.
+   */
+  private double estimatedLimit;
+
+  /**
+   * Long term average latency in nanoseconds, guarded by
+   * {@link #updateLock}.
+   */
+  private double longTermLatency;
+
+  private volatile int limit;
+
+  AdaptiveLimit(String name, int initialLimit, int minLimit, int maxLimit) {
+    this.name = name;
+    this.minLimit = Math.max(minLimit, 1);
+    this.maxLimit = Math.max(maxLimit, this.minLimit);
+    this.limit = clamp(initialLimit, this.minLimit, this.maxLimit);
+    this.estimatedLimit = this.limit;
+    this.inFlight = new AtomicInteger();
+    this.rejectionCount = new AtomicLong();
+    this.updateLock = new ReentrantLock();
+  }
+
+  private static int clamp(int value, int min, int max) {
+    return Math.min(Math.max(value, min), max);
+  }
+
+  @Override
+  public long acquire() {
+    while (true) {
+      int current = this.inFlight.get();
+      if (current >= this.limit) {
+        this.rejectionCount.incrementAndGet();
+        throw new CallRejectedException("adaptive limit of: " + this.name + " reached, current limit: " + this.limit);
+      }
+      if (this.inFlight.compareAndSet(current, current + 1)) {
+        return 0L;
+      }
+    }
+  }
+
+  @Override
+  public void release(long permit, long duration, boolean failed) {
+    int current = this.inFlight.getAndDecrement();
+    if (!failed && duration > 0L) {
+      this.sample(duration, current);
+    }
+  }
+
+  @Override
+  public void cancel(long permit) {
+    this.inFlight.decrementAndGet();
+  }
+
+  /**
+   * Updates the limit.
+   *
+   * @param latency the latency of a successful call in nanoseconds
+   * @param inFlight the number of calls in progress including this one
+   */
+  void sample(long latency, int inFlight) {
+    if (!this.updateLock.tryLock()) {
+      return;
+    }
+    try {
+      if (this.longTermLatency == 0.0d) {
+        this.longTermLatency = latency;
+        return;
+      }
+      this.longTermLatency = this.longTermLatency * (1.0d - LONG_TERM_WEIGHT) + latency * LONG_TERM_WEIGHT;
+      if (this.longTermLatency > latency * 2.0d) {
+        // the latency dropped for good, eg. after a spike, recover faster
+        this.longTermLatency *= 0.95d;
+      }
+      if (inFlight < this.estimatedLimit / 2.0d) {
+        // the limit isn't what restricts the calls, we learn nothing about it
+        return;
+      }
+      double gradient = Math.max(0.5d, Math.min(1.0d, TOLERANCE * this.longTermLatency / latency));
+      double queueSize = Math.sqrt(this.estimatedLimit);
+      double newLimit = this.estimatedLimit * gradient + queueSize;
+      newLimit = this.estimatedLimit * (1.0d - SMOOTHING) + newLimit * SMOOTHING;
+      newLimit = Math.max(this.minLimit, Math.min(this.maxLimit, newLimit));
+      this.estimatedLimit = newLimit;
+      this.limit = (int) newLimit;
+    } finally {
+      this.updateLock.unlock();
+    }
+  }
+
+  int getLimit() {
+    return this.limit;
+  }
+
+  int getInFlight() {
+    return this.inFlight.get();
+  }
+
+  long getRejectionCount() {
+    return this.rejectionCount.get();
+  }
+
+}
@@ -0,0 +1,227 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.marschall.osgi.remoting.ejb.api.AsyncInvoker;
+import com.github.marschall.osgi.remoting.ejb.api.CallFuture;
+
+/**
+ * Runs calls recorded by mediators on a bounded thread pool.
+ */
+final class AsyncInvokerService implements AsyncInvoker {
+
+  private final ThreadPoolExecutor executor;
+
+  private final LoggerBridge logger;
+
+  /**
+   * The last call recorded by a mediator on the current thread.
+   */
+  private final ThreadLocal<RecordedCall> recordedCall;
+
+  AsyncInvokerService(ThreadPoolExecutor executor, LoggerBridge logger) {
+    this.executor = executor;
+    this.logger = logger;
+    this.recordedCall = new ThreadLocal<RecordedCall>();
+  }
+
+  /**
+   * Creates the thread pool for asynchronous calls.
+   *
+   * @param threads the maximum number of threads
+   * @param queueSize the maximum number of queued calls
+   * @param rejectionPolicy {@code abort} to throw an exception if the queue is
+   *  full, {@code callerRuns} to run the call on the calling thread
+   * @param logger the logger for invalid values
+   * @return the thread pool
+   */
+  static ThreadPoolExecutor newExecutor(int threads, int queueSize, String rejectionPolicy, LoggerBridge logger) {
+    RejectedExecutionHandler handler;
+    if ("callerRuns".equals(rejectionPolicy)) {
+      handler = new ThreadPoolExecutor.CallerRunsPolicy();
+    } else {
+      if (!"abort".equals(rejectionPolicy)) {
+        logger.warning("invalid rejection policy: " + rejectionPolicy + ", using: abort");
+      }
+      handler = new ThreadPoolExecutor.AbortPolicy();
+    }
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(queueSize), new AsyncThreadFactory(), handler);
+    // don't keep idle threads around
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Creates an executor that runs every call on a new thread.
+   *
+   * @param threadFactory the factory for virtual threads
+   * @return the executor
+   */
+  static ThreadPoolExecutor newVirtualExecutor(ThreadFactory threadFactory) {
+    // virtual threads are cheap, don't pool or queue
+    return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0L, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(), threadFactory);
+  }
+
+  ThreadPoolExecutor getExecutor() {
+    return this.executor;
+  }
+
+  @Override
+  public <T> T mediate(T service, Class<T> serviceInterface) {
+    if (service == null) {
+      throw new NullPointerException("service");
+    }
+    if (!serviceInterface.isInterface()) {
+      throw new IllegalArgumentException(serviceInterface + " is not an interface");
+    }
+    Object mediator = Proxy.newProxyInstance(serviceInterface.getClassLoader(),
+        new Class[]{serviceInterface}, new Mediator(service));
+    return serviceInterface.cast(mediator);
+  }
+
+  @Override
+  public <R> CallFuture<R> call(R result) {
+    RecordedCall call = this.recordedCall.get();
+    if (call == null) {
+      throw new IllegalStateException("no call recorded on a mediator");
+    }
+    this.recordedCall.remove();
+    ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+    CallFutureTask<R> task = new CallFutureTask<R>(new AsyncCall<R>(call, contextClassLoader), this.logger);
+    this.executor.execute(task);
+    return task;
+  }
+
+  @Override
+  public CallFuture<Object> call() {
+    return this.call(null);
+  }
+
+  final class Mediator implements InvocationHandler {
+
+    private final Object service;
+
+    Mediator(Object service) {
+      this.service = service;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      if (method.getDeclaringClass() == Object.class) {
+        // mediators are only equal to themselves
+        String name = method.getName();
+        if (name.equals("equals")) {
+          return proxy == args[0];
+        } else if (name.equals("hashCode")) {
+          return System.identityHashCode(proxy);
+        } else {
+          return "mediator for " + this.service;
+        }
+      }
+      recordedCall.set(new RecordedCall(this.service, method, args));
+      return defaultValue(method.getReturnType());
+    }
+
+  }
+
+  static Object defaultValue(Class<?> type) {
+    if (!type.isPrimitive() || type == void.class) {
+      return null;
+    } else if (type == boolean.class) {
+      return Boolean.FALSE;
+    } else if (type == char.class) {
+      return Character.valueOf((char) 0);
+    } else if (type == byte.class) {
+      return Byte.valueOf((byte) 0);
+    } else if (type == short.class) {
+      return Short.valueOf((short) 0);
+    } else if (type == int.class) {
+      return Integer.valueOf(0);
+    } else if (type == long.class) {
+      return Long.valueOf(0L);
+    } else if (type == float.class) {
+      return Float.valueOf(0.0f);
+    } else {
+      return Double.valueOf(0.0d);
+    }
+  }
+
+  static final class RecordedCall {
+
+    final Object service;
+
+    final Method method;
+
+    final Object[] args;
+
+    RecordedCall(Object service, Method method, Object[] args) {
+      this.service = service;
+      this.method = method;
+      this.args = args;
+    }
+
+  }
+
+  static final class AsyncCall<R> implements Callable<R> {
+
+    private final RecordedCall call;
+
+    private final ClassLoader contextClassLoader;
+
+    AsyncCall(RecordedCall call, ClassLoader contextClassLoader) {
+      this.call = call;
+      this.contextClassLoader = contextClassLoader;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public R call() throws Exception {
+      Thread currentThread = Thread.currentThread();
+      ClassLoader oldContextClassLoader = currentThread.getContextClassLoader();
+      currentThread.setContextClassLoader(this.contextClassLoader);
+      try {
+        return (R) this.call.method.invoke(this.call.service, this.call.args);
+      } catch (InvocationTargetException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception) {
+          throw (Exception) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        } else {
+          throw e;
+        }
+      } finally {
+        currentThread.setContextClassLoader(oldContextClassLoader);
+      }
+    }
+
+  }
+
+  static final class AsyncThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "osgi-remoting-ejb-async-" + this.threadNumber.incrementAndGet());
+      // don't prevent the VM from shutting down
+      thread.setDaemon(true);
+      return thread;
+    }
+
+  }
+
+}
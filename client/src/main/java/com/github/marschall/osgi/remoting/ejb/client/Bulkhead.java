@@ -0,0 +1,107 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of concurrent calls.
+ *
+ * <p>
+ * Backed by a non-fair {@link Semaphore} whose {@link Semaphore#tryAcquire()}
+ * is a lock-free compare and set. Only calls that have to wait park.
+ * </p>
+ */
+final class Bulkhead implements CallGuard {
+
+  private final String name;
+
+  private final int maxConcurrentCalls;
+
+  private final Semaphore permits;
+
+  /**
+   * The maximum time in nanoseconds to wait for a permit, {@code 0} to fail
+   * fast.
+   */
+  private final long maxWait;
+
+  private final AtomicLong rejectionCount;
+
+  private final AtomicLong waitCount;
+
+  private final AtomicLong waitTime;
+
+  Bulkhead(String name, int maxConcurrentCalls, long maxWait, TimeUnit unit) {
+    this.name = name;
+    this.maxConcurrentCalls = maxConcurrentCalls;
+    this.permits = new Semaphore(maxConcurrentCalls, false);
+    this.maxWait = unit.toNanos(maxWait);
+    this.rejectionCount = new AtomicLong();
+    this.waitCount = new AtomicLong();
+    this.waitTime = new AtomicLong();
+  }
+
+  @Override
+  public long acquire() {
+    if (this.permits.tryAcquire()) {
+      return 0L;
+    }
+    if (this.maxWait > 0L) {
+      long start = System.nanoTime();
+      boolean acquired;
+      try {
+        acquired = this.permits.tryAcquire(this.maxWait, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        this.rejectionCount.incrementAndGet();
+        throw new CallRejectedException("interrupted while waiting for bulkhead of: " + this.name, e);
+      } finally {
+        this.waitCount.incrementAndGet();
+        this.waitTime.addAndGet(System.nanoTime() - start);
+      }
+      if (acquired) {
+        return 0L;
+      }
+    }
+    this.rejectionCount.incrementAndGet();
+    throw new CallRejectedException("bulkhead of: " + this.name + " full, maximum concurrent calls: "
+        + this.maxConcurrentCalls);
+  }
+
+  @Override
+  public void release(long permit, long duration, boolean failed) {
+    this.permits.release();
+  }
+
+  @Override
+  public void cancel(long permit) {
+    this.permits.release();
+  }
+
+  int getMaxConcurrentCalls() {
+    return this.maxConcurrentCalls;
+  }
+
+  int getAvailablePermits() {
+    return this.permits.availablePermits();
+  }
+
+  long getRejectionCount() {
+    return this.rejectionCount.get();
+  }
+
+  long getWaitCount() {
+    return this.waitCount.get();
+  }
+
+  /**
+   * Returns the total time spent waiting for a permit.
+   *
+   * @return the total wait time in nanoseconds
+   */
+  long getWaitTime() {
+    return this.waitTime.get();
+  }
+
+}
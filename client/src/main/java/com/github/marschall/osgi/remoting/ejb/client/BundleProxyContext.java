@@ -9,21 +9,22 @@
  */
 package com.github.marschall.osgi.remoting.ejb.client;
 
+import static com.github.marschall.osgi.remoting.ejb.api.InvocationListener.Operation.FLUSH_PROXIES;
+
 import java.util.Collection;
-import java.util.Hashtable;
 
 import javax.naming.Context;
-import javax.naming.InitialContext;
 import javax.naming.NamingException;
 
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
 
-import com.github.marschall.osgi.remoting.ejb.api.InitialContextService;
+import com.github.marschall.osgi.remoting.ejb.api.InvocationListener;
 
-final class BundleProxyContext {
+final class BundleProxyContext implements ProxyContextMXBean {
 
-  private volatile Context namingContext;
+  private final NamingContextHolder namingContext;
 
   private final Collection<ServiceCaller> callers;
 
@@ -31,12 +32,58 @@ final class BundleProxyContext {
 
   private final ClassLoader classLoader;
 
-  BundleProxyContext(Context namingContext, Collection<ServiceCaller> callers,
-      Collection<ServiceRegistration<?>> registrations, ClassLoader classLoader) {
+  private final Bundle bundle;
+
+  private final InvocationListenerTracker listeners;
+
+  BundleProxyContext(NamingContextHolder namingContext, Collection<ServiceCaller> callers,
+      Collection<ServiceRegistration<?>> registrations, ClassLoader classLoader,
+      Bundle bundle, InvocationListenerTracker listeners) {
     this.namingContext = namingContext;
     this.callers = callers;
     this.registrations = registrations;
     this.classLoader = classLoader;
+    this.bundle = bundle;
+    this.listeners = listeners;
+  }
+
+  Collection<ServiceCaller> getCallers() {
+    return this.callers;
+  }
+
+  @Override
+  public String getBundleSymbolicName() {
+    return this.bundle.getSymbolicName();
+  }
+
+  @Override
+  public long getBundleId() {
+    return this.bundle.getBundleId();
+  }
+
+  @Override
+  public long getNamingContextAge() {
+    long created = this.namingContext.getCreated();
+    if (created == 0L) {
+      // look ups are lazy and none was made yet
+      return -1L;
+    }
+    return System.currentTimeMillis() - created;
+  }
+
+  @Override
+  public int getCallerCount() {
+    return this.callers.size();
+  }
+
+  @Override
+  public String[] getJndiNames() {
+    String[] jndiNames = new String[this.callers.size()];
+    int i = 0;
+    for (ServiceCaller caller : this.callers) {
+      jndiNames[i++] = caller.getJndiName();
+    }
+    return jndiNames;
   }
 
   void release(BundleContext bundleContext) throws NamingException {
@@ -55,23 +102,61 @@ final class BundleProxyContext {
     }
   }
 
-  void flushProxies(InitialContextService initialContextService) throws NamingException {
+  @Override
+  public void flushProxies() throws NamingException {
+    InvocationListener listener = this.listeners.get();
+    Object listenerContext = listener != null ? listener.started(FLUSH_PROXIES, this.getBundleSymbolicName(), null) : null;
+    Throwable failure = null;
     Thread currentThread = Thread.currentThread();
     ClassLoader oldClassLoader = currentThread.getContextClassLoader();
     currentThread.setContextClassLoader(this.classLoader);
 
     try {
-      this.namingContext.close();
-      Hashtable<?,?> environment = initialContextService.getEnvironment();
-      if (environment != null) {
-        this.namingContext = new InitialContext(environment);
-      } else {
-        this.namingContext = new InitialContext();
+      if (this.namingContext.getCreated() != 0L) {
+        Context newContext = this.namingContext.recreate();
+        for (ServiceCaller caller : this.callers) {
+          if (caller.isLookUpStarted()) {
+            // TODO catch NamingException (collect causes for SE 7)
+            caller.flushProxy(newContext);
+          }
+        }
+      }
+      // else lazy look ups that were not made yet, nothing to flush
+    } catch (NamingException e) {
+      failure = e;
+      throw e;
+    } catch (RuntimeException e) {
+      failure = e;
+      throw e;
+    } finally{
+      currentThread.setContextClassLoader(oldClassLoader);
+      if (listener != null) {
+        listener.finished(listenerContext, failure);
       }
-      for (ServiceCaller caller : this.callers) {
-        // TODO catch NamingException (collect causes for SE 7)
-        caller.flushProxy(this.namingContext);
+    }
+  }
+
+  @Override
+  public void flushProxy(String jndiName) throws NamingException {
+    for (ServiceCaller caller : this.callers) {
+      if (caller.getJndiName().equals(jndiName)) {
+        this.flushProxy(caller);
+        return;
       }
+    }
+    throw new IllegalArgumentException("unknown JNDI name: " + jndiName);
+  }
+
+  /**
+   * Looks up the EJB client proxy of a single service again using the
+   * current naming context.
+   */
+  void flushProxy(ServiceCaller caller) throws NamingException {
+    Thread currentThread = Thread.currentThread();
+    ClassLoader oldClassLoader = currentThread.getContextClassLoader();
+    currentThread.setContextClassLoader(this.classLoader);
+    try {
+      caller.flushProxy(this.namingContext.get());
     } finally{
       currentThread.setContextClassLoader(oldClassLoader);
     }
@@ -83,4 +168,4 @@ final class BundleProxyContext {
     }
   }
 
-}
\ No newline at end of file
+}
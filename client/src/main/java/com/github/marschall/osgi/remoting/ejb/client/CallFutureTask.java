@@ -0,0 +1,87 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.github.marschall.osgi.remoting.ejb.api.CallFuture;
+import com.github.marschall.osgi.remoting.ejb.api.CallListener;
+
+/**
+ * A {@link FutureTask} that notifies {@link CallListener}s once it is done.
+ *
+ * @param <T> the type of the result
+ */
+final class CallFutureTask<T> extends FutureTask<T> implements CallFuture<T> {
+
+  private final LoggerBridge logger;
+
+  private final Object lock;
+
+  /**
+   * {@code null} once the listeners have been notified.
+   */
+  private List<CallListener<? super T>> listeners;
+
+  CallFutureTask(Callable<T> callable, LoggerBridge logger) {
+    super(callable);
+    this.logger = logger;
+    this.lock = new Object();
+    this.listeners = new ArrayList<CallListener<? super T>>(1);
+  }
+
+  @Override
+  public void addListener(CallListener<? super T> listener) {
+    if (listener == null) {
+      throw new NullPointerException("listener");
+    }
+    synchronized (this.lock) {
+      if (this.listeners != null) {
+        this.listeners.add(listener);
+        return;
+      }
+    }
+    // already done
+    this.notifyListener(listener);
+  }
+
+  @Override
+  protected void done() {
+    List<CallListener<? super T>> toNotify;
+    synchronized (this.lock) {
+      toNotify = this.listeners;
+      this.listeners = null;
+    }
+    for (CallListener<? super T> listener : toNotify) {
+      this.notifyListener(listener);
+    }
+  }
+
+  private void notifyListener(CallListener<? super T> listener) {
+    try {
+      T result;
+      try {
+        result = this.get();
+      } catch (ExecutionException e) {
+        listener.failed(e.getCause());
+        return;
+      } catch (CancellationException e) {
+        listener.failed(e);
+        return;
+      } catch (InterruptedException e) {
+        // can't happen, we're done
+        Thread.currentThread().interrupt();
+        listener.failed(e);
+        return;
+      }
+      listener.completed(result);
+    } catch (RuntimeException e) {
+      // don't let a listener break the thread completing the call
+      this.logger.warning("call listener failed: " + listener, e);
+    }
+  }
+
+}
@@ -0,0 +1,42 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+/**
+ * Decides whether a remote call may proceed, eg. to limit the number of
+ * concurrent calls.
+ *
+ * <p>
+ * Every successful {@link #acquire()} is followed by exactly one
+ * {@link #release(long, long, boolean)} or, if the server wasn't called,
+ * {@link #cancel(long)}.
+ * </p>
+ */
+interface CallGuard {
+
+  /**
+   * Called before the remote call.
+   *
+   * @return the permit to pass to {@link #release(long, long, boolean)} or
+   *  {@link #cancel(long)}
+   * @throws CallRejectedException if the call must not proceed
+   */
+  long acquire();
+
+  /**
+   * Called after the remote call.
+   *
+   * @param permit the value returned by {@link #acquire()}
+   * @param duration the duration of the call in nanoseconds
+   * @param failed whether the call failed
+   */
+  void release(long permit, long duration, boolean failed);
+
+  /**
+   * Called instead of {@link #release(long, long, boolean)} if the server
+   * wasn't called, eg. because a later guard rejected the call. No outcome
+   * is recorded.
+   *
+   * @param permit the value returned by {@link #acquire()}
+   */
+  void cancel(long permit);
+
+}
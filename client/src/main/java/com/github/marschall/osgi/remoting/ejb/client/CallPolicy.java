@@ -0,0 +1,478 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the {@link CallGuard}s of the methods of a single remote service
+ * from its {@link ServiceConfiguration}.
+ *
+ * <p>
+ * Guards configured for the service are shared by all methods. A method with
+ * its own configuration gets its own guard, it is shared by all overloads of
+ * the method.
+ * </p>
+ */
+final class CallPolicy {
+
+  static final CallGuard[] NO_GUARDS = new CallGuard[0];
+
+  private static final String MAX_CONCURRENT_CALLS = "maxConcurrentCalls";
+
+  private static final String BULKHEAD_WAIT = "bulkheadWait";
+
+  private static final String RATE_LIMIT = "rateLimit";
+
+  private static final String RATE_LIMIT_BURST = "rateLimitBurst";
+
+  private static final String RATE_LIMIT_WAIT = "rateLimitWait";
+
+  private static final String ADAPTIVE_LIMIT = "adaptiveLimit";
+
+  private static final String ADAPTIVE_LIMIT_INITIAL = "adaptiveLimitInitial";
+
+  private static final String ADAPTIVE_LIMIT_MIN = "adaptiveLimitMin";
+
+  private static final String ADAPTIVE_LIMIT_MAX = "adaptiveLimitMax";
+
+  private static final String CIRCUIT_BREAKER = "circuitBreaker";
+
+  private static final String CIRCUIT_BREAKER_WINDOW = "circuitBreakerWindow";
+
+  private static final String CIRCUIT_BREAKER_MINIMUM_CALLS = "circuitBreakerMinimumCalls";
+
+  private static final String CIRCUIT_BREAKER_FAILURE_RATE = "circuitBreakerFailureRate";
+
+  private static final String CIRCUIT_BREAKER_OPEN_DURATION = "circuitBreakerOpenDuration";
+
+  private static final String CIRCUIT_BREAKER_TRIAL_CALLS = "circuitBreakerTrialCalls";
+
+  private static final String CALL_TIMEOUT = "callTimeout";
+
+  private static final String PROXY_POOL_SIZE = "proxyPoolSize";
+
+  private static final String PROXY_POOL_STRATEGY = "proxyPoolStrategy";
+
+  private static final String CACHE_SIZE = "cacheSize";
+
+  private static final String CACHE_MAX_WEIGHT = "cacheMaxWeight";
+
+  private static final String CACHE_TIME_TO_LIVE = "cacheTimeToLive";
+
+  private static final String IDEMPOTENT = "idempotent";
+
+  private static final String COALESCE = "coalesce";
+
+  private static final String HEDGE = "hedge";
+
+  private static final String HEDGE_DELAY = "hedgeDelay";
+
+  private static final String HEDGE_BUDGET = "hedgeBudget";
+
+  private static final String BATCH = "batch";
+
+  private static final String BATCH_SIZE = "batchSize";
+
+  private static final String BATCH_WINDOW = "batchWindow";
+
+  private static final String MAX_RETRIES = "maxRetries";
+
+  private static final String RETRY_BACKOFF = "retryBackoff";
+
+  private static final String RETRY_MAX_BACKOFF = "retryMaxBackoff";
+
+  private static final String RETRY_BUDGET = "retryBudget";
+
+  private static final String RETRY_ON = "retryOn";
+
+  private final String jndiName;
+
+  private final ServiceConfiguration configuration;
+
+  /**
+   * {@code null} if the service has no circuit breaker, there are no method
+   * specific circuit breakers.
+   */
+  private final CircuitBreaker circuitBreaker;
+
+  /**
+   * {@code null} if calls of the service are not retried.
+   */
+  private final RetryPolicy retryPolicy;
+
+  /**
+   * {@code null} if the rate of calls to the service isn't limited.
+   */
+  private final RateLimiter serviceRateLimiter;
+
+  /**
+   * {@code null} if the number of concurrent calls to the service isn't
+   * limited.
+   */
+  private final Bulkhead serviceBulkhead;
+
+  /**
+   * {@code null} if the service has no adaptive limit.
+   */
+  private final AdaptiveLimit serviceAdaptiveLimit;
+
+  /**
+   * The guards of methods with their own configuration, the key is the
+   * property name followed by {@code #} and the method name.
+   */
+  private final ConcurrentMap<String, CallGuard> methodGuards;
+
+  CallPolicy(String jndiName, ServiceConfiguration configuration) {
+    this.jndiName = jndiName;
+    this.configuration = configuration;
+    this.methodGuards = new ConcurrentHashMap<String, CallGuard>(4);
+    this.circuitBreaker = this.newCircuitBreaker();
+    this.retryPolicy = this.newRetryPolicy();
+    this.serviceRateLimiter = (RateLimiter) this.newGuard(RATE_LIMIT, null);
+    this.serviceBulkhead = (Bulkhead) this.newGuard(MAX_CONCURRENT_CALLS, null);
+    this.serviceAdaptiveLimit = (AdaptiveLimit) this.newGuard(ADAPTIVE_LIMIT, null);
+  }
+
+  /**
+   * Creates the guards for a remote method.
+   *
+   * @param method the interface method
+   * @return the guards, to be acquired in order
+   */
+  CallGuard[] guardsFor(Method method) {
+    String methodName = method.getName();
+    List<CallGuard> guards = new ArrayList<CallGuard>(4);
+    // fail fast without waiting for any limit
+    if (this.circuitBreaker != null) {
+      guards.add(this.circuitBreaker);
+    }
+    // don't hold a permit of a limit while waiting for the rate limiter
+    this.addGuard(RATE_LIMIT, methodName, this.serviceRateLimiter, guards);
+    this.addGuard(MAX_CONCURRENT_CALLS, methodName, this.serviceBulkhead, guards);
+    this.addGuard(ADAPTIVE_LIMIT, methodName, this.serviceAdaptiveLimit, guards);
+    if (guards.isEmpty()) {
+      return NO_GUARDS;
+    }
+    return guards.toArray(new CallGuard[guards.size()]);
+  }
+
+  private void addGuard(String property, String methodName, CallGuard serviceGuard, List<CallGuard> guards) {
+    CallGuard guard;
+    if (this.configuration.hasMethodValue(property, methodName)) {
+      guard = this.methodGuard(property, methodName);
+    } else {
+      guard = serviceGuard;
+    }
+    if (guard != null) {
+      guards.add(guard);
+    }
+  }
+
+  private CallGuard methodGuard(String property, String methodName) {
+    String key = property + '#' + methodName;
+    CallGuard guard = this.methodGuards.get(key);
+    if (guard == null) {
+      guard = this.newGuard(property, methodName);
+      if (guard == null) {
+        // disabled for this method
+        return null;
+      }
+      CallGuard previous = this.methodGuards.putIfAbsent(key, guard);
+      if (previous != null) {
+        guard = previous;
+      }
+    }
+    return guard;
+  }
+
+  private CallGuard newGuard(String property, String methodName) {
+    String name = methodName == null ? this.jndiName : this.jndiName + '#' + methodName;
+    if (property.equals(RATE_LIMIT)) {
+      double rate = this.configuration.getDouble(RATE_LIMIT, methodName, 0.0d);
+      if (rate <= 0.0d) {
+        return null;
+      }
+      int burst = this.configuration.getInt(RATE_LIMIT_BURST, methodName, 1);
+      long maxWait = this.configuration.getLong(RATE_LIMIT_WAIT, methodName, 0L);
+      return new RateLimiter(name, rate, burst, maxWait, TimeUnit.MILLISECONDS);
+    } else if (property.equals(MAX_CONCURRENT_CALLS)) {
+      int maxConcurrentCalls = this.configuration.getInt(MAX_CONCURRENT_CALLS, methodName, 0);
+      if (maxConcurrentCalls <= 0) {
+        return null;
+      }
+      long maxWait = this.configuration.getLong(BULKHEAD_WAIT, methodName, 0L);
+      return new Bulkhead(name, maxConcurrentCalls, maxWait, TimeUnit.MILLISECONDS);
+    } else if (property.equals(ADAPTIVE_LIMIT)) {
+      if (!this.configuration.getBoolean(ADAPTIVE_LIMIT, methodName, false)) {
+        return null;
+      }
+      int initialLimit = this.configuration.getInt(ADAPTIVE_LIMIT_INITIAL, methodName, 20);
+      int minLimit = this.configuration.getInt(ADAPTIVE_LIMIT_MIN, methodName, 1);
+      int maxLimit = this.configuration.getInt(ADAPTIVE_LIMIT_MAX, methodName, 200);
+      return new AdaptiveLimit(name, initialLimit, minLimit, maxLimit);
+    } else {
+      throw new IllegalArgumentException("unknown property: " + property);
+    }
+  }
+
+  /**
+   * Returns the timeout of a remote method.
+   *
+   * @param methodName the name of the method, {@code null} for the timeout
+   *  of the service
+   * @return the timeout in nanoseconds, {@code 0} if the calls don't time out
+   */
+  long timeoutFor(String methodName) {
+    long timeout = this.configuration.getLong(CALL_TIMEOUT, methodName, 0L);
+    return timeout > 0L ? TimeUnit.MILLISECONDS.toNanos(timeout) : 0L;
+  }
+
+  /**
+   * Creates the result cache of a remote method.
+   *
+   * <p>
+   * Unlike guards caches are never shared, every overload gets its own.
+   * </p>
+   *
+   * @param methodName the name of the method
+   * @return the new cache, {@code null} if the results of the method are not
+   *  cached
+   */
+  ResultCache cacheFor(String methodName) {
+    int cacheSize = this.configuration.getInt(CACHE_SIZE, methodName, 0);
+    if (cacheSize <= 0) {
+      return null;
+    }
+    long maxWeight = this.configuration.getLong(CACHE_MAX_WEIGHT, methodName, 0L);
+    long timeToLive = this.configuration.getLong(CACHE_TIME_TO_LIVE, methodName, 0L);
+    return new ResultCache(cacheSize, maxWeight, timeToLive, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns the number of EJB client proxies to look up.
+   *
+   * @return the size of the proxy pool, {@code 1} for no pool
+   */
+  int getProxyPoolSize() {
+    return Math.max(this.configuration.getInt(PROXY_POOL_SIZE, null, 1), 1);
+  }
+
+  ProxyPool.Strategy getProxyPoolStrategy() {
+    return ProxyPool.Strategy.parse(this.configuration.getString(PROXY_POOL_STRATEGY, null, null));
+  }
+
+  /**
+   * Returns the retry policy of a remote method.
+   *
+   * @param methodName the name of the method
+   * @return the retry policy of the service, {@code null} if the method isn't
+   *  idempotent or retries are disabled
+   */
+  RetryPolicy retryPolicyFor(String methodName) {
+    if (this.retryPolicy == null || !this.configuration.getBoolean(IDEMPOTENT, methodName, false)) {
+      return null;
+    }
+    return this.retryPolicy;
+  }
+
+  /**
+   * Creates the single flight of a remote method, only idempotent methods can
+   * be coalesced.
+   *
+   * @param methodName the name of the method
+   * @return the new single flight, {@code null} if concurrent calls of the
+   *  method are not coalesced
+   */
+  SingleFlight singleFlightFor(String methodName) {
+    if (!this.configuration.getBoolean(IDEMPOTENT, methodName, false)
+        || !this.configuration.getBoolean(COALESCE, methodName, false)) {
+      return null;
+    }
+    return new SingleFlight();
+  }
+
+  /**
+   * Creates the hedger of a remote method, only idempotent methods can be
+   * hedged.
+   *
+   * @param methodName the name of the method
+   * @param metrics the metrics of the method, provide the observed latency
+   * @return the new hedger, {@code null} if calls of the method are not
+   *  hedged
+   */
+  Hedger hedgerFor(String methodName, MethodMetrics metrics) {
+    if (!this.configuration.getBoolean(IDEMPOTENT, methodName, false)
+        || !this.configuration.getBoolean(HEDGE, methodName, false)) {
+      return null;
+    }
+    long delay = this.configuration.getLong(HEDGE_DELAY, methodName, 0L);
+    int budget = this.configuration.getInt(HEDGE_BUDGET, methodName, 10);
+    return new Hedger(metrics, delay, budget, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Creates the batcher of a single item method, only methods with their
+   * own {@code batch#<method>} property are batched.
+   *
+   * @param method the single item method
+   * @return the new batcher, {@code null} if calls of the method are not
+   *  batched
+   */
+  MicroBatcher batcherFor(Method method) {
+    String methodName = method.getName();
+    if (!this.configuration.hasMethodValue(BATCH, methodName)) {
+      return null;
+    }
+    String batchMethodName = this.configuration.getString(BATCH, methodName, null);
+    Method batchMethod = MicroBatcher.findBatchMethod(method, batchMethodName);
+    if (batchMethod == null) {
+      this.configuration.warning("no batch method: " + batchMethodName + " for: " + method
+          + " found, calls are not batched");
+      return null;
+    }
+    int batchSize = this.configuration.getInt(BATCH_SIZE, methodName, 100);
+    long batchWindow = this.configuration.getLong(BATCH_WINDOW, methodName, 5L);
+    return new MicroBatcher(batchMethod, batchSize, batchWindow, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns the retry policy of the service.
+   *
+   * @return the retry policy, {@code null} if retries are disabled
+   */
+  RetryPolicy getRetryPolicy() {
+    return this.retryPolicy;
+  }
+
+  private RetryPolicy newRetryPolicy() {
+    int maxRetries = this.configuration.getInt(MAX_RETRIES, null, 2);
+    if (maxRetries <= 0) {
+      return null;
+    }
+    long backoff = this.configuration.getLong(RETRY_BACKOFF, null, 100L);
+    long maxBackoff = this.configuration.getLong(RETRY_MAX_BACKOFF, null, 2000L);
+    int budget = this.configuration.getInt(RETRY_BUDGET, null, 20);
+    String retryOn = this.configuration.getString(RETRY_ON, null, RetryPolicy.DEFAULT_RETRY_ON);
+    return new RetryPolicy(maxRetries, backoff, maxBackoff, budget, retryOn, TimeUnit.MILLISECONDS);
+  }
+
+  private CircuitBreaker newCircuitBreaker() {
+    if (!this.configuration.getBoolean(CIRCUIT_BREAKER, null, false)) {
+      return null;
+    }
+    int windowSize = this.configuration.getInt(CIRCUIT_BREAKER_WINDOW, null, 20);
+    int minimumCalls = this.configuration.getInt(CIRCUIT_BREAKER_MINIMUM_CALLS, null, 10);
+    int failureRate = this.configuration.getInt(CIRCUIT_BREAKER_FAILURE_RATE, null, 50);
+    long openDuration = this.configuration.getLong(CIRCUIT_BREAKER_OPEN_DURATION, null, 30000L);
+    int trialCalls = this.configuration.getInt(CIRCUIT_BREAKER_TRIAL_CALLS, null, 3);
+    return new CircuitBreaker(this.jndiName, windowSize, minimumCalls, failureRate, openDuration, trialCalls,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns the circuit breaker of the service.
+   *
+   * @return the circuit breaker, {@code null} if the service has none
+   */
+  CircuitBreaker getCircuitBreaker() {
+    return this.circuitBreaker;
+  }
+
+  /**
+   * Returns the rate limiter of the service.
+   *
+   * @return the rate limiter, {@code null} if the service has none
+   */
+  RateLimiter getServiceRateLimiter() {
+    return this.serviceRateLimiter;
+  }
+
+  /**
+   * Returns the current adaptive limit of the service.
+   *
+   * @return the current limit, {@code -1} if the service has no adaptive limit
+   */
+  int getAdaptiveLimit() {
+    AdaptiveLimit adaptiveLimit = this.serviceAdaptiveLimit;
+    return adaptiveLimit != null ? adaptiveLimit.getLimit() : -1;
+  }
+
+  private Collection<CallGuard> getGuards() {
+    List<CallGuard> guards = new ArrayList<CallGuard>(this.methodGuards.values());
+    if (this.circuitBreaker != null) {
+      guards.add(this.circuitBreaker);
+    }
+    if (this.serviceRateLimiter != null) {
+      guards.add(this.serviceRateLimiter);
+    }
+    if (this.serviceBulkhead != null) {
+      guards.add(this.serviceBulkhead);
+    }
+    if (this.serviceAdaptiveLimit != null) {
+      guards.add(this.serviceAdaptiveLimit);
+    }
+    return guards;
+  }
+
+  long getRejectionCount() {
+    long rejectionCount = 0L;
+    for (CallGuard guard : this.getGuards()) {
+      if (guard instanceof RateLimiter) {
+        rejectionCount += ((RateLimiter) guard).getRejectionCount();
+      } else if (guard instanceof Bulkhead) {
+        rejectionCount += ((Bulkhead) guard).getRejectionCount();
+      } else if (guard instanceof AdaptiveLimit) {
+        rejectionCount += ((AdaptiveLimit) guard).getRejectionCount();
+      } else if (guard instanceof CircuitBreaker) {
+        rejectionCount += ((CircuitBreaker) guard).getRejectionCount();
+      }
+    }
+    return rejectionCount;
+  }
+
+  long getRateLimitWaitCount() {
+    long waitCount = 0L;
+    for (CallGuard guard : this.getGuards()) {
+      if (guard instanceof RateLimiter) {
+        waitCount += ((RateLimiter) guard).getWaitCount();
+      }
+    }
+    return waitCount;
+  }
+
+  long getRateLimitWaitTime() {
+    long waitTime = 0L;
+    for (CallGuard guard : this.getGuards()) {
+      if (guard instanceof RateLimiter) {
+        waitTime += ((RateLimiter) guard).getWaitTime();
+      }
+    }
+    return waitTime;
+  }
+
+  long getBulkheadWaitCount() {
+    long waitCount = 0L;
+    for (CallGuard guard : this.getGuards()) {
+      if (guard instanceof Bulkhead) {
+        waitCount += ((Bulkhead) guard).getWaitCount();
+      }
+    }
+    return waitCount;
+  }
+
+  long getBulkheadWaitTime() {
+    long waitTime = 0L;
+    for (CallGuard guard : this.getGuards()) {
+      if (guard instanceof Bulkhead) {
+        waitTime += ((Bulkhead) guard).getWaitTime();
+      }
+    }
+    return waitTime;
+  }
+
+}
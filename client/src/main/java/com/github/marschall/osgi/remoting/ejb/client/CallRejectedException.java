@@ -0,0 +1,36 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import org.osgi.framework.ServiceException;
+
+/**
+ * Thrown when a call to a remote service is rejected without calling the
+ * server, eg. because too many calls are in progress.
+ *
+ * <p>
+ * Rejected calls are not logged, they are expected under overload.
+ * </p>
+ */
+public class CallRejectedException extends ServiceException {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Creates a new exception.
+   *
+   * @param message the detail message
+   */
+  public CallRejectedException(String message) {
+    super(message, SUBCLASSED);
+  }
+
+  /**
+   * Creates a new exception.
+   *
+   * @param message the detail message
+   * @param cause the cause, eg. an {@link InterruptedException}
+   */
+  public CallRejectedException(String message, Throwable cause) {
+    super(message, SUBCLASSED, cause);
+  }
+
+}
@@ -0,0 +1,38 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import org.osgi.framework.ServiceException;
+
+/**
+ * Thrown when a call to a remote service did not finish before its timeout
+ * or the {@link com.github.marschall.osgi.remoting.ejb.api.Deadline} of the
+ * caller.
+ *
+ * <p>
+ * The call may or may not have been executed by the server.
+ * </p>
+ */
+public class CallTimeoutException extends ServiceException {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Creates a new exception.
+   *
+   * @param message the detail message
+   */
+  public CallTimeoutException(String message) {
+    super(message, SUBCLASSED);
+  }
+
+  /**
+   * Creates a new exception.
+   *
+   * @param message the detail message
+   * @param cause the cause, eg. the exception the EJB client library threw
+   *  when it was interrupted
+   */
+  public CallTimeoutException(String message, Throwable cause) {
+    super(message, SUBCLASSED, cause);
+  }
+
+}
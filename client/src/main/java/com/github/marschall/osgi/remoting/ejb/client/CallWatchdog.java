@@ -0,0 +1,211 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Interrupts threads whose remote calls take longer than their deadline.
+ *
+ * <p>
+ * Calls run on the calling thread so the thread local state of the EJB
+ * client library (eg. the security context) stays intact. A single daemon
+ * thread, started on first use, sleeps until the earliest deadline and
+ * interrupts the calling threads whose deadline passed. Whether this aborts
+ * the call depends on the EJB client library reacting to interrupts.
+ * </p>
+ *
+ * <p>
+ * The same thread also runs short actions that are cancelled when a call
+ * finishes in time, eg. starting a hedged call.
+ * </p>
+ */
+final class CallWatchdog implements Runnable {
+
+  /**
+   * The longest time the watchdog thread sleeps.
+   */
+  private static final long IDLE = TimeUnit.SECONDS.toNanos(1L);
+
+  /**
+   * Set while the watchdog thread checks the deadlines, any new watch wakes
+   * it up again.
+   */
+  private static final long SCANNING = Long.MIN_VALUE;
+
+  private final Set<Watch> watches;
+
+  private final AtomicBoolean started;
+
+  private volatile Thread thread;
+
+  private volatile boolean stopped;
+
+  /**
+   * In {@link System#nanoTime()}, {@link #SCANNING} while the deadlines are
+   * checked.
+   */
+  private volatile long nextWakeUp;
+
+  CallWatchdog() {
+    this.watches = Collections.newSetFromMap(new ConcurrentHashMap<Watch, Boolean>());
+    this.started = new AtomicBoolean();
+    this.nextWakeUp = SCANNING;
+  }
+
+  /**
+   * Starts watching a call on the current thread.
+   *
+   * @param expiresAt the deadline of the call in {@link System#nanoTime()}
+   * @return the watch, {@link Watch#finish()} has to be called once the call
+   *  finished
+   */
+  Watch watch(long expiresAt) {
+    return this.add(new Watch(Thread.currentThread(), null, expiresAt));
+  }
+
+  /**
+   * Runs an action unless the call on the current thread finished before.
+   *
+   * <p>
+   * The action runs on the watchdog thread and therefore has to be short,
+   * eg. hand off work to an executor.
+   * </p>
+   *
+   * @param runAt when to run the action in {@link System#nanoTime()}
+   * @param action the action to run instead of interrupting the thread
+   * @return the watch, {@link Watch#finish()} has to be called once the call
+   *  finished
+   */
+  Watch schedule(long runAt, Runnable action) {
+    return this.add(new Watch(null, action, runAt));
+  }
+
+  private Watch add(Watch watch) {
+    long expiresAt = watch.expiresAt;
+    this.watches.add(watch);
+    if (!this.started.get() && this.started.compareAndSet(false, true)) {
+      this.start();
+    } else {
+      long wakeUp = this.nextWakeUp;
+      if (wakeUp == SCANNING || expiresAt - wakeUp < 0L) {
+        LockSupport.unpark(this.thread);
+      }
+    }
+    return watch;
+  }
+
+  private void start() {
+    Thread watchdog = new Thread(this, "osgi-remoting-ejb-call-watchdog");
+    watchdog.setDaemon(true);
+    // started by the first call, don't keep the class loader of its bundle
+    // alive for as long as the shared thread runs
+    watchdog.setContextClassLoader(null);
+    this.thread = watchdog;
+    watchdog.start();
+  }
+
+  void stop() {
+    this.stopped = true;
+    Thread watchdog = this.thread;
+    if (watchdog != null) {
+      LockSupport.unpark(watchdog);
+    }
+  }
+
+  int getWatchCount() {
+    return this.watches.size();
+  }
+
+  @Override
+  public void run() {
+    while (!this.stopped) {
+      this.nextWakeUp = SCANNING;
+      long now = System.nanoTime();
+      long next = now + IDLE;
+      for (Watch watch : this.watches) {
+        if (watch.expiresAt - now <= 0L) {
+          this.watches.remove(watch);
+          watch.expire();
+        } else if (watch.expiresAt - next < 0L) {
+          next = watch.expiresAt;
+        }
+      }
+      this.nextWakeUp = next;
+      LockSupport.parkNanos(this, next - now);
+    }
+    this.watches.clear();
+  }
+
+  /**
+   * A single call being watched.
+   */
+  final class Watch {
+
+    private static final int RUNNING = 0;
+    private static final int DONE = 1;
+    private static final int EXPIRING = 2;
+    private static final int EXPIRED = 3;
+
+    /**
+     * {@code null} if {@link #action} is run instead of interrupting.
+     */
+    private final Thread caller;
+
+    private final Runnable action;
+
+    final long expiresAt;
+
+    private final AtomicInteger state;
+
+    Watch(Thread caller, Runnable action, long expiresAt) {
+      this.caller = caller;
+      this.action = action;
+      this.expiresAt = expiresAt;
+      this.state = new AtomicInteger(RUNNING);
+    }
+
+    void expire() {
+      if (this.state.compareAndSet(RUNNING, EXPIRING)) {
+        try {
+          if (this.action != null) {
+            this.action.run();
+          } else {
+            this.caller.interrupt();
+          }
+        } catch (RuntimeException e) {
+          // don't kill the watchdog thread
+        } finally {
+          this.state.set(EXPIRED);
+        }
+      }
+    }
+
+    /**
+     * Stops watching the call, has to be called on the calling thread.
+     *
+     * @return whether the deadline passed and the calling thread was
+     *  interrupted or the action was run, the interrupt is cleared
+     */
+    boolean finish() {
+      if (this.state.compareAndSet(RUNNING, DONE)) {
+        watches.remove(this);
+        return false;
+      }
+      while (this.state.get() == EXPIRING) {
+        // the interrupt has to be delivered before it can be cleared
+        Thread.yield();
+      }
+      if (this.caller != null) {
+        Thread.interrupted();
+      }
+      return true;
+    }
+
+  }
+
+}
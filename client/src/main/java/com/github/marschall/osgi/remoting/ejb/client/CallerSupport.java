@@ -0,0 +1,45 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The collaborators shared by all {@link ServiceCaller}s.
+ */
+final class CallerSupport {
+
+  final LoggerBridge logger;
+
+  final InvocationListenerTracker listeners;
+
+  final SlowCallRecorder slowCalls;
+
+  final ExceptionTranslator exceptions;
+
+  /**
+   * Runs the listeners of {@link RemoteFuture}s.
+   */
+  final Executor asyncExecutor;
+
+  /**
+   * The maximum time in nanoseconds {@link RemoteFuture#get()} waits,
+   * {@code 0} to wait forever.
+   */
+  final long asyncResultTimeout;
+
+  /**
+   * Interrupts calls that take longer than their deadline.
+   */
+  final CallWatchdog watchdog;
+
+  CallerSupport(LoggerBridge logger, InvocationListenerTracker listeners, SlowCallRecorder slowCalls,
+      ExceptionTranslator exceptions, Executor asyncExecutor, long asyncResultTimeout, CallWatchdog watchdog) {
+    this.logger = logger;
+    this.listeners = listeners;
+    this.slowCalls = slowCalls;
+    this.exceptions = exceptions;
+    this.asyncExecutor = asyncExecutor;
+    this.asyncResultTimeout = asyncResultTimeout;
+    this.watchdog = watchdog;
+  }
+
+}
@@ -0,0 +1,281 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fails calls fast while a remote service is known to fail.
+ *
+ * <p>
+ * While closed the outcome of the last calls is kept in a sliding window.
+ * Once enough calls failed the breaker opens and rejects all calls with a
+ * {@link CircuitOpenException}. After the open duration a limited number of
+ * trial calls is let through (half-open). If they all succeed the breaker
+ * closes again, if one fails it opens again.
+ * </p>
+ *
+ * <p>
+ * The outcome of a call only counts in the state the call started in, calls
+ * that started before the last state change are ignored.
+ * </p>
+ *
+ * <p>
+ * While closed {@link #acquire()} only reads a volatile field.
+ * </p>
+ */
+final class CircuitBreaker implements CallGuard {
+
+  enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  /**
+   * Notified when the state of the breaker changes.
+   */
+  interface Listener {
+
+    void stateChanged(State state);
+
+  }
+
+  private final String name;
+
+  private final int minimumCalls;
+
+  private final int failureRateThreshold;
+
+  private final long openDuration;
+
+  private final int trialCalls;
+
+  private final AtomicReference<Phase> phase;
+
+  private final Object windowLock;
+
+  /**
+   * Whether a call in the window failed, guarded by {@link #windowLock}.
+   */
+  private final boolean[] window;
+
+  /**
+   * Guarded by {@link #windowLock}.
+   */
+  private int windowIndex;
+
+  /**
+   * Guarded by {@link #windowLock}.
+   */
+  private int windowCount;
+
+  /**
+   * Guarded by {@link #windowLock}.
+   */
+  private int windowFailures;
+
+  private final AtomicLong rejectionCount;
+
+  private volatile Listener listener;
+
+  /**
+   * Creates a new circuit breaker.
+   *
+   * @param name the name used in exception messages
+   * @param windowSize the number of calls in the sliding window
+   * @param minimumCalls the number of calls in the window required before
+   *  the breaker can open
+   * @param failureRateThreshold the percentage of failed calls in the
+   *  window that opens the breaker
+   * @param openDuration how long the breaker stays open before trial calls
+   *  are made
+   * @param trialCalls the number of successful trial calls required to close
+   *  the breaker
+   * @param unit the unit of {@code openDuration}
+   */
+  CircuitBreaker(String name, int windowSize, int minimumCalls, int failureRateThreshold, long openDuration,
+      int trialCalls, TimeUnit unit) {
+    this.name = name;
+    this.window = new boolean[Math.max(windowSize, 1)];
+    this.minimumCalls = Math.min(Math.max(minimumCalls, 1), this.window.length);
+    this.failureRateThreshold = failureRateThreshold;
+    this.openDuration = unit.toNanos(openDuration);
+    this.trialCalls = Math.max(trialCalls, 1);
+    this.phase = new AtomicReference<Phase>(new Phase(State.CLOSED, 0L, 0L, 0));
+    this.windowLock = new Object();
+    this.rejectionCount = new AtomicLong();
+  }
+
+  void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  State getState() {
+    return this.phase.get().state;
+  }
+
+  long getRejectionCount() {
+    return this.rejectionCount.get();
+  }
+
+  @Override
+  public long acquire() {
+    Phase current = this.phase.get();
+    if (current.state == State.CLOSED) {
+      return current.epoch;
+    }
+    if (current.state == State.OPEN) {
+      if (System.nanoTime() - current.openedAt < this.openDuration) {
+        throw this.openException();
+      }
+      // only the thread that wins the transition sets up the trial calls
+      if (this.phase.compareAndSet(current, new Phase(State.HALF_OPEN, current.epoch + 1L, 0L, this.trialCalls))) {
+        this.notifyListener(State.HALF_OPEN);
+      }
+      current = this.phase.get();
+      if (current.state == State.CLOSED) {
+        return current.epoch;
+      } else if (current.state == State.OPEN) {
+        throw this.openException();
+      }
+    }
+    AtomicInteger trialPermits = current.trialPermits;
+    while (true) {
+      int permits = trialPermits.get();
+      if (permits <= 0) {
+        throw this.openException();
+      }
+      if (trialPermits.compareAndSet(permits, permits - 1)) {
+        return current.epoch;
+      }
+    }
+  }
+
+  private CircuitOpenException openException() {
+    this.rejectionCount.incrementAndGet();
+    return new CircuitOpenException("circuit breaker of: " + this.name + " is open");
+  }
+
+  @Override
+  public void release(long permit, long duration, boolean failed) {
+    Phase current = this.phase.get();
+    if (current.epoch != permit) {
+      // the call started in a previous state
+      return;
+    }
+    if (current.state == State.HALF_OPEN) {
+      if (failed) {
+        this.open(current);
+      } else if (current.trialSuccesses.incrementAndGet() >= this.trialCalls) {
+        this.close(current);
+      }
+    } else if (current.state == State.CLOSED) {
+      if (this.record(failed)) {
+        this.open(current);
+      }
+    }
+  }
+
+  @Override
+  public void cancel(long permit) {
+    Phase current = this.phase.get();
+    if (current.epoch == permit && current.state == State.HALF_OPEN) {
+      // the server wasn't called, an other call can be the trial call
+      current.trialPermits.incrementAndGet();
+    }
+  }
+
+  /**
+   * Records the outcome of a call in the sliding window.
+   *
+   * @return whether the breaker should open
+   */
+  private boolean record(boolean failed) {
+    synchronized (this.windowLock) {
+      if (this.windowCount == this.window.length) {
+        // evict the oldest outcome
+        if (this.window[this.windowIndex]) {
+          this.windowFailures -= 1;
+        }
+      } else {
+        this.windowCount += 1;
+      }
+      this.window[this.windowIndex] = failed;
+      if (failed) {
+        this.windowFailures += 1;
+      }
+      this.windowIndex = (this.windowIndex + 1) % this.window.length;
+      return failed && this.windowCount >= this.minimumCalls
+          && this.windowFailures * 100 >= this.failureRateThreshold * this.windowCount;
+    }
+  }
+
+  private void resetWindow() {
+    synchronized (this.windowLock) {
+      this.windowIndex = 0;
+      this.windowCount = 0;
+      this.windowFailures = 0;
+    }
+  }
+
+  private void open(Phase from) {
+    if (this.phase.compareAndSet(from, new Phase(State.OPEN, from.epoch + 1L, System.nanoTime(), 0))) {
+      this.notifyListener(State.OPEN);
+    }
+  }
+
+  private void close(Phase from) {
+    // no call of the previous closed state is recorded any more
+    this.resetWindow();
+    if (this.phase.compareAndSet(from, new Phase(State.CLOSED, from.epoch + 1L, 0L, 0))) {
+      this.notifyListener(State.CLOSED);
+    }
+  }
+
+  private void notifyListener(State newState) {
+    Listener currentListener = this.listener;
+    if (currentListener != null) {
+      currentListener.stateChanged(newState);
+    }
+  }
+
+  /**
+   * A state of the breaker, replaced on every state change.
+   */
+  static final class Phase {
+
+    final State state;
+
+    /**
+     * Increases with every state change, the permit of the calls started in
+     * this state.
+     */
+    final long epoch;
+
+    /**
+     * When the breaker opened in {@link System#nanoTime()}, only used while
+     * open.
+     */
+    final long openedAt;
+
+    /**
+     * Only used while half-open.
+     */
+    final AtomicInteger trialPermits;
+
+    /**
+     * Only used while half-open.
+     */
+    final AtomicInteger trialSuccesses;
+
+    Phase(State state, long epoch, long openedAt, int trialPermits) {
+      this.state = state;
+      this.epoch = epoch;
+      this.openedAt = openedAt;
+      this.trialPermits = new AtomicInteger(trialPermits);
+      this.trialSuccesses = new AtomicInteger();
+    }
+
+  }
+
+}
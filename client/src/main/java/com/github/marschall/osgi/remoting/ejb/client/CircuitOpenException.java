@@ -0,0 +1,20 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+/**
+ * Thrown when a call is rejected because the circuit breaker of the remote
+ * service is open, the server failed too often recently.
+ */
+public class CircuitOpenException extends CallRejectedException {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Creates a new exception.
+   *
+   * @param message the detail message
+   */
+  public CircuitOpenException(String message) {
+    super(message);
+  }
+
+}
@@ -0,0 +1,89 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import org.osgi.framework.BundleContext;
+
+/**
+ * Reads the configuration of this bundle from the framework properties
+ * (eg. system properties).
+ *
+ * <p>
+ * All property names are prefixed with {@value #PREFIX}. Invalid values are
+ * logged and the default is used instead.
+ * </p>
+ */
+final class ClientConfiguration {
+
+  static final String PREFIX = "com.github.marschall.osgi.remoting.ejb.";
+
+  private final BundleContext bundleContext;
+
+  private final LoggerBridge logger;
+
+  ClientConfiguration(BundleContext bundleContext, LoggerBridge logger) {
+    this.bundleContext = bundleContext;
+    this.logger = logger;
+  }
+
+  String getString(String name, String defaultValue) {
+    String value = this.bundleContext.getProperty(PREFIX + name);
+    if (value == null) {
+      return defaultValue;
+    }
+    value = value.trim();
+    return value.isEmpty() ? defaultValue : value;
+  }
+
+  long getLong(String name, long defaultValue) {
+    return this.parseLong(PREFIX + name, this.getString(name, null), defaultValue);
+  }
+
+  int getInt(String name, int defaultValue) {
+    return this.parseInt(PREFIX + name, this.getString(name, null), defaultValue);
+  }
+
+  boolean getBoolean(String name, boolean defaultValue) {
+    String value = this.getString(name, null);
+    if (value == null) {
+      return defaultValue;
+    }
+    return Boolean.parseBoolean(value);
+  }
+
+  void warning(String message) {
+    this.logger.warning(message);
+  }
+
+  long parseLong(String propertyName, String value, long defaultValue) {
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      this.logger.warning("invalid value: " + value + " for: " + propertyName + ", using: " + defaultValue);
+      return defaultValue;
+    }
+  }
+
+  double parseDouble(String propertyName, String value, double defaultValue) {
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Double.parseDouble(value.trim());
+    } catch (NumberFormatException e) {
+      this.logger.warning("invalid value: " + value + " for: " + propertyName + ", using: " + defaultValue);
+      return defaultValue;
+    }
+  }
+
+  int parseInt(String propertyName, String value, int defaultValue) {
+    long parsed = this.parseLong(propertyName, value, defaultValue);
+    if (parsed < Integer.MIN_VALUE || parsed > Integer.MAX_VALUE) {
+      this.logger.warning("invalid value: " + value + " for: " + propertyName + ", using: " + defaultValue);
+      return defaultValue;
+    }
+    return (int) parsed;
+  }
+
+}
@@ -0,0 +1,178 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which errors are logged when the same error is reported over and
+ * over again, eg. when a server is down.
+ *
+ * <p>
+ * Errors are grouped by name (the JNDI name) and exception type. The first
+ * error of a group is logged, further errors of the same group are only
+ * counted until the interval has passed. The count is then reported with the
+ * next logged error or in a summary.
+ * </p>
+ *
+ * <p>
+ * All times are from {@link System#nanoTime()}.
+ * </p>
+ */
+final class ErrorLogThrottle {
+
+  /**
+   * Returned by {@link #acquire(String, Class, long)} if the error should not
+   * be logged.
+   */
+  static final long SUPPRESSED = -1L;
+
+  private final ConcurrentMap<Key, Window> windows;
+
+  private final AtomicLong nextSummary;
+
+  private volatile long interval;
+
+  ErrorLogThrottle(long interval, TimeUnit unit) {
+    this.windows = new ConcurrentHashMap<Key, Window>();
+    this.interval = unit.toNanos(interval);
+    this.nextSummary = new AtomicLong(System.nanoTime() + this.interval);
+  }
+
+  void setInterval(long interval, TimeUnit unit) {
+    this.interval = unit.toNanos(interval);
+  }
+
+  long getInterval(TimeUnit unit) {
+    return unit.convert(this.interval, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Checks whether an error should be logged.
+   *
+   * @param name the name of the group, usually the JNDI name
+   * @param type the type of the error
+   * @param now the current time
+   * @return {@link #SUPPRESSED} if the error should not be logged, otherwise
+   *  the number of errors of the same group suppressed since the last logged
+   *  error
+   */
+  long acquire(String name, Class<?> type, long now) {
+    long currentInterval = this.interval;
+    if (currentInterval <= 0L) {
+      // throttling disabled
+      return 0L;
+    }
+    Key key = new Key(name, type);
+    Window window = this.windows.get(key);
+    if (window == null) {
+      window = new Window(now, currentInterval);
+      Window previous = this.windows.putIfAbsent(key, window);
+      if (previous == null) {
+        return 0L;
+      }
+      window = previous;
+    }
+    if (window.tryAdvance(now, currentInterval)) {
+      return window.suppressed.getAndSet(0L);
+    }
+    window.suppressed.incrementAndGet();
+    return SUPPRESSED;
+  }
+
+  /**
+   * Checks whether the summary of suppressed errors is due.
+   *
+   * @param now the current time
+   * @return whether the caller should call
+   *  {@link #collectSummaries(long, boolean, List)}, only one caller per
+   *  interval gets {@code true}
+   */
+  boolean isSummaryDue(long now) {
+    long currentInterval = this.interval;
+    if (currentInterval <= 0L) {
+      return false;
+    }
+    long next = this.nextSummary.get();
+    return now - next >= 0L && this.nextSummary.compareAndSet(next, now + currentInterval);
+  }
+
+  /**
+   * Collects the summaries of the groups that have suppressed errors.
+   *
+   * @param now the current time
+   * @param all whether to include groups whose interval hasn't passed yet
+   * @param summaries where to add the summaries
+   */
+  void collectSummaries(long now, boolean all, List<String> summaries) {
+    long currentInterval = this.interval;
+    for (Entry<Key, Window> entry : this.windows.entrySet()) {
+      Window window = entry.getValue();
+      if (window.suppressed.get() == 0L) {
+        continue;
+      }
+      if (all || window.tryAdvance(now, currentInterval)) {
+        long suppressed = window.suppressed.getAndSet(0L);
+        if (suppressed > 0L) {
+          Key key = entry.getKey();
+          summaries.add(suppressed + " errors of type: " + key.type.getName() + " suppressed for: " + key.name);
+        }
+      }
+    }
+  }
+
+  static final class Key {
+
+    final String name;
+
+    final Class<?> type;
+
+    Key(String name, Class<?> type) {
+      this.name = name;
+      this.type = type;
+    }
+
+    @Override
+    public int hashCode() {
+      return this.name.hashCode() * 31 + this.type.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return this.type == other.type && this.name.equals(other.name);
+    }
+
+  }
+
+  static final class Window {
+
+    private final AtomicLong end;
+
+    final AtomicLong suppressed;
+
+    Window(long now, long interval) {
+      this.end = new AtomicLong(now + interval);
+      this.suppressed = new AtomicLong();
+    }
+
+    /**
+     * Starts a new window if the current one has passed, only one caller wins.
+     */
+    boolean tryAdvance(long now, long interval) {
+      long currentEnd = this.end.get();
+      return now - currentEnd >= 0L && this.end.compareAndSet(currentEnd, now + interval);
+    }
+
+  }
+
+}
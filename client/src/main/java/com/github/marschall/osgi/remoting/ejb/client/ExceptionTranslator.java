@@ -0,0 +1,100 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.osgi.framework.ServiceException.REMOTE;
+
+import java.lang.reflect.InvocationTargetException;
+
+import org.osgi.framework.ServiceException;
+
+/**
+ * Translates the failure of a remote call into the exception thrown to the
+ * caller.
+ *
+ * <p>
+ * By default every failure, including the {@link InvocationTargetException},
+ * is wrapped in a {@link ServiceException}. When unwrapping is enabled
+ * exceptions declared by the interface method are thrown unchanged and only
+ * the remaining failures are wrapped, optionally without filling in the stack
+ * trace of the {@link ServiceException}.
+ * </p>
+ */
+final class ExceptionTranslator {
+
+  private final boolean unwrap;
+
+  private final boolean stackTraces;
+
+  ExceptionTranslator(boolean unwrap, boolean stackTraces) {
+    this.unwrap = unwrap;
+    this.stackTraces = stackTraces;
+  }
+
+  /**
+   * Returns the application exception to throw unchanged.
+   *
+   * @param invoker the invoker of the method called
+   * @param failure the failure of the call
+   * @return the exception to throw unchanged, {@code null} if the failure
+   *  isn't an application exception or unwrapping is disabled
+   */
+  Throwable applicationException(MethodInvoker invoker, Throwable failure) {
+    if (!this.unwrap) {
+      return null;
+    }
+    Throwable cause = unwrap(failure);
+    return invoker.isDeclared(cause) ? cause : null;
+  }
+
+  /**
+   * Wraps a failure that isn't an application exception.
+   *
+   * @param invoker the invoker of the method called
+   * @param failure the failure of the call
+   * @return the exception to throw
+   */
+  ServiceException serviceException(MethodInvoker invoker, Throwable failure) {
+    if (failure instanceof CallTimeoutException) {
+      // already says what went wrong
+      return (CallTimeoutException) failure;
+    }
+    if (!this.unwrap) {
+      return new ServiceException(invoker.failureMessage, REMOTE, failure);
+    }
+    Throwable cause = unwrap(failure);
+    if (this.stackTraces) {
+      return new ServiceException(invoker.failureMessage, REMOTE, cause);
+    } else {
+      return new StacklessServiceException(invoker.failureMessage, cause);
+    }
+  }
+
+  static Throwable unwrap(Throwable failure) {
+    if (failure instanceof InvocationTargetException) {
+      Throwable cause = failure.getCause();
+      if (cause != null) {
+        return cause;
+      }
+    }
+    return failure;
+  }
+
+  /**
+   * A {@link ServiceException} that doesn't capture the stack trace, the stack
+   * trace of the cause is usually more interesting anyway.
+   */
+  static final class StacklessServiceException extends ServiceException {
+
+    private static final long serialVersionUID = 1L;
+
+    StacklessServiceException(String message, Throwable cause) {
+      super(message, REMOTE, cause);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+
+  }
+
+}
@@ -0,0 +1,324 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when a second call of an idempotent method is made while the
+ * first one is still in progress.
+ *
+ * <p>
+ * If a call didn't finish after the hedge delay, either fixed or the
+ * observed 95th percentile latency of the method, the same call is made on
+ * an other thread. Usually this uses an other proxy of the pool. The first
+ * successful result wins, the calling thread is interrupted if the hedged
+ * call wins. Like timeouts this only shortens the call if the EJB client
+ * library reacts to interrupts. If the first call fails while the hedged
+ * call is running the calling thread waits for it. The result of the losing
+ * call is ignored.
+ * </p>
+ *
+ * <p>
+ * Hedged calls are limited by a budget, every call deposits a fraction of
+ * a hedged call, every hedged call withdraws a full one.
+ * </p>
+ */
+final class Hedger {
+
+  /**
+   * The number of calls needed before the observed latency is trusted.
+   */
+  private static final long MIN_CALLS = 100L;
+
+  /**
+   * How often the delay is derived from the observed latency.
+   */
+  private static final long UPDATE_INTERVAL = 100L;
+
+  /**
+   * A hedged call in the budget, the budget is kept in thousandths.
+   */
+  private static final long HEDGE = 1000L;
+
+  /**
+   * How many hedged calls the budget can save up, also the initial balance.
+   */
+  private static final long MAX_BALANCE = 10L * HEDGE;
+
+  private final MethodMetrics metrics;
+
+  /**
+   * In nanoseconds, {@code 0} to use the observed latency.
+   */
+  private final long fixedDelay;
+
+  /**
+   * Thousandths of a hedged call deposited by every call.
+   */
+  private final long deposit;
+
+  private final AtomicLong balance;
+
+  private final AtomicLong calls;
+
+  /**
+   * The delay derived from the observed latency, {@code -1} while there are
+   * not enough calls.
+   */
+  private volatile long observedDelay;
+
+  private final AtomicLong hedgeCount;
+
+  private final AtomicLong hedgeWinCount;
+
+  /**
+   * Creates a new hedger.
+   *
+   * @param metrics the metrics of the method
+   * @param delay the delay before the hedged call, {@code 0} to use the
+   *  observed 95th percentile
+   * @param budget the number of hedged calls allowed in percent of the calls
+   * @param unit the unit of {@code delay}
+   */
+  Hedger(MethodMetrics metrics, long delay, int budget, TimeUnit unit) {
+    this.metrics = metrics;
+    this.fixedDelay = Math.max(unit.toNanos(delay), 0L);
+    this.deposit = Math.max(budget, 0) * HEDGE / 100L;
+    this.balance = new AtomicLong(MAX_BALANCE);
+    this.calls = new AtomicLong();
+    this.observedDelay = -1L;
+    this.hedgeCount = new AtomicLong();
+    this.hedgeWinCount = new AtomicLong();
+  }
+
+  /**
+   * Returns the hedge delay of a new call and deposits into the budget.
+   *
+   * @return the delay in nanoseconds, negative if the call isn't hedged
+   */
+  long called() {
+    long current;
+    do {
+      current = this.balance.get();
+    } while (current < MAX_BALANCE
+        && !this.balance.compareAndSet(current, Math.min(current + this.deposit, MAX_BALANCE)));
+    if (this.fixedDelay > 0L) {
+      return this.fixedDelay;
+    }
+    long count = this.calls.incrementAndGet();
+    if (count % UPDATE_INTERVAL == 0L && this.metrics.getInvocationCount() >= MIN_CALLS) {
+      this.observedDelay = Math.max(this.metrics.getLatencyAt(0.95d), 1L);
+    }
+    return this.observedDelay;
+  }
+
+  /**
+   * Withdraws a hedged call from the budget.
+   *
+   * @return whether the budget allows another hedged call
+   */
+  private boolean withdraw() {
+    long current;
+    do {
+      current = this.balance.get();
+      if (current < HEDGE) {
+        return false;
+      }
+    } while (!this.balance.compareAndSet(current, current - HEDGE));
+    return true;
+  }
+
+  long getHedgeCount() {
+    return this.hedgeCount.get();
+  }
+
+  long getHedgeWinCount() {
+    return this.hedgeWinCount.get();
+  }
+
+  /**
+   * A call that may be hedged.
+   *
+   * <p>
+   * {@link #start(CallWatchdog, long)} has to be called before the first
+   * call is made on the calling thread, {@link #primaryFinished()} or
+   * {@link #primaryFailed()} after it finished.
+   * </p>
+   */
+  final class Call implements Runnable {
+
+    private static final int RUNNING = 0;
+    private static final int PRIMARY_WON = 1;
+    private static final int HEDGE_WINNING = 2;
+    private static final int HEDGE_WON = 3;
+
+    private static final int HEDGE_QUEUED = 0;
+    private static final int HEDGE_STARTED = 1;
+    private static final int HEDGE_SKIPPED = 2;
+
+    private final Callable<Object> hedge;
+
+    private final Executor executor;
+
+    private final Thread caller;
+
+    private final AtomicInteger state;
+
+    /**
+     * Whether the hedged call started, decides whether a failed first call
+     * waits for it.
+     */
+    private final AtomicInteger hedgeState;
+
+    /**
+     * Released once a started hedged call finished.
+     */
+    private final CountDownLatch hedgeFinished;
+
+    /**
+     * The watchdog thread while the hedged call is handed to the executor.
+     */
+    private volatile Thread submitter;
+
+    private CallWatchdog.Watch trigger;
+
+    /**
+     * Published by {@link #state}.
+     */
+    private Object hedgeResult;
+
+    /**
+     * Creates a new call.
+     *
+     * @param hedge makes the hedged call
+     * @param executor runs the hedged call
+     */
+    Call(Callable<Object> hedge, Executor executor) {
+      this.hedge = hedge;
+      this.executor = executor;
+      this.caller = Thread.currentThread();
+      this.state = new AtomicInteger(RUNNING);
+      this.hedgeState = new AtomicInteger(HEDGE_QUEUED);
+      this.hedgeFinished = new CountDownLatch(1);
+    }
+
+    void start(CallWatchdog watchdog, long hedgeAt) {
+      this.trigger = watchdog.schedule(hedgeAt, new Runnable() {
+
+        @Override
+        public void run() {
+          hedge();
+        }
+      });
+    }
+
+    /**
+     * Called on the watchdog thread after the hedge delay.
+     */
+    void hedge() {
+      if (this.state.get() != RUNNING || !withdraw()) {
+        return;
+      }
+      this.submitter = Thread.currentThread();
+      try {
+        this.executor.execute(this);
+        hedgeCount.incrementAndGet();
+      } catch (RejectedExecutionException e) {
+        // no thread available, keep waiting for the first call
+      } finally {
+        this.submitter = null;
+      }
+    }
+
+    @Override
+    public void run() {
+      if (Thread.currentThread() == this.submitter) {
+        // a caller runs policy, the hedged call must not block the watchdog
+        throw new RejectedExecutionException("hedged call rejected");
+      }
+      if (this.state.get() != RUNNING || !this.hedgeState.compareAndSet(HEDGE_QUEUED, HEDGE_STARTED)) {
+        // the first call finished while the hedged call was queued
+        return;
+      }
+      try {
+        Object result;
+        try {
+          result = this.hedge.call();
+        } catch (Exception e) {
+          // only a successful hedged call can win
+          return;
+        }
+        this.hedgeResult = result;
+        if (this.state.compareAndSet(RUNNING, HEDGE_WINNING)) {
+          hedgeWinCount.incrementAndGet();
+          this.caller.interrupt();
+          this.state.set(HEDGE_WON);
+        }
+      } finally {
+        this.hedgeFinished.countDown();
+      }
+    }
+
+    /**
+     * Has to be called on the calling thread after the first call finished.
+     *
+     * @return {@code true} if the first call won, {@code false} if the
+     *  hedged call won and {@link #getHedgeResult()} has to be returned
+     *  instead, the interrupt is cleared
+     */
+    boolean primaryFinished() {
+      this.trigger.finish();
+      if (this.state.compareAndSet(RUNNING, PRIMARY_WON)) {
+        // the result of a losing hedged call is ignored
+        return true;
+      }
+      while (this.state.get() == HEDGE_WINNING) {
+        // the interrupt has to be delivered before it can be cleared
+        Thread.yield();
+      }
+      Thread.interrupted();
+      return false;
+    }
+
+    /**
+     * Has to be called on the calling thread after the first call failed,
+     * waits for the hedged call if it is running.
+     *
+     * @return {@code true} if the failure of the first call has to be
+     *  thrown, {@code false} if the hedged call won and
+     *  {@link #getHedgeResult()} has to be returned instead, the interrupt is
+     *  cleared
+     */
+    boolean primaryFailed() {
+      this.trigger.finish();
+      if (!this.hedgeState.compareAndSet(HEDGE_QUEUED, HEDGE_SKIPPED)) {
+        // the hedged call is interrupted at the deadline of the caller
+        boolean interrupted = false;
+        while (true) {
+          try {
+            this.hedgeFinished.await();
+            break;
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+        if (interrupted && this.state.get() == RUNNING) {
+          // not from the hedged call, eg. the deadline of the first call
+          Thread.currentThread().interrupt();
+        }
+      }
+      return this.primaryFinished();
+    }
+
+    Object getHedgeResult() {
+      return this.hedgeResult;
+    }
+
+  }
+
+}
@@ -0,0 +1,72 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
+
+import com.github.marschall.osgi.remoting.ejb.api.InvocationListener;
+
+/**
+ * Tracks the {@link InvocationListener} service.
+ *
+ * <p>
+ * The current listener is cached in a volatile field so that the cost on the
+ * call path is a single read when no listener is registered.
+ * </p>
+ */
+final class InvocationListenerTracker implements ServiceTrackerCustomizer<InvocationListener, InvocationListener> {
+
+  private final BundleContext context;
+
+  private final ServiceTracker<InvocationListener, InvocationListener> serviceTracker;
+
+  private volatile InvocationListener listener;
+
+  InvocationListenerTracker(BundleContext context) {
+    this.context = context;
+    this.serviceTracker = new ServiceTracker<InvocationListener, InvocationListener>(context, InvocationListener.class, this);
+  }
+
+  void open() {
+    this.serviceTracker.open();
+  }
+
+  void stop() {
+    this.serviceTracker.close();
+    this.listener = null;
+  }
+
+  /**
+   * Returns the current listener.
+   *
+   * @return the current listener, {@code null} if none is registered
+   */
+  InvocationListener get() {
+    return this.listener;
+  }
+
+  @Override
+  public InvocationListener addingService(ServiceReference<InvocationListener> reference) {
+    InvocationListener service = this.context.getService(reference);
+    if (this.listener == null) {
+      this.listener = service;
+    }
+    return service;
+  }
+
+  @Override
+  public void modifiedService(ServiceReference<InvocationListener> reference, InvocationListener service) {
+    // nothing
+  }
+
+  @Override
+  public void removedService(ServiceReference<InvocationListener> reference, InvocationListener service) {
+    if (this.listener == service) {
+      // the removed service is no longer tracked, fall back to an other one if present
+      this.listener = this.serviceTracker.getService();
+    }
+    this.context.ungetService(reference);
+  }
+
+}
@@ -0,0 +1,42 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.github.marschall.osgi.remoting.ejb.api.InvocationMetrics;
+import com.github.marschall.osgi.remoting.ejb.api.InvocationStatistics;
+
+final class InvocationMetricsService implements InvocationMetrics {
+
+  private final Collection<BundleProxyContext> contexts;
+
+  InvocationMetricsService(Collection<BundleProxyContext> contexts) {
+    this.contexts = contexts;
+  }
+
+  @Override
+  public List<InvocationStatistics> getStatistics() {
+    List<InvocationStatistics> statistics = new ArrayList<InvocationStatistics>();
+    for (BundleProxyContext context : this.contexts) {
+      for (ServiceCaller caller : context.getCallers()) {
+        caller.collectStatistics(statistics);
+      }
+    }
+    return statistics;
+  }
+
+  @Override
+  public List<InvocationStatistics> getStatistics(String jndiName) {
+    List<InvocationStatistics> statistics = new ArrayList<InvocationStatistics>();
+    for (BundleProxyContext context : this.contexts) {
+      for (ServiceCaller caller : context.getCallers()) {
+        if (caller.getJndiName().equals(jndiName)) {
+          caller.collectStatistics(statistics);
+        }
+      }
+    }
+    return statistics;
+  }
+
+}
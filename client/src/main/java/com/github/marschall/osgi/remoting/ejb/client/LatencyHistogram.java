@@ -0,0 +1,112 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies in nanoseconds with fixed memory.
+ *
+ * <p>
+ * Buckets are log-linear, every power of two is split into
+ * {@value #SUB_BUCKET_COUNT} buckets, this gives a relative error of at most
+ * 12.5%. Values are never removed, the histogram covers the whole life time
+ * of a service.
+ * </p>
+ */
+final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+
+  static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+
+  // values up to Long.MAX_VALUE
+  private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray buckets;
+
+  private final AtomicLong max;
+
+  LatencyHistogram() {
+    this.buckets = new AtomicLongArray(BUCKET_COUNT);
+    this.max = new AtomicLong();
+  }
+
+  void record(long nanos) {
+    long value = Math.max(nanos, 0L);
+    this.buckets.incrementAndGet(bucketIndex(value));
+    this.updateMax(value);
+  }
+
+  private void updateMax(long value) {
+    long currentMax = this.max.get();
+    while (value > currentMax) {
+      if (this.max.compareAndSet(currentMax, value)) {
+        return;
+      }
+      currentMax = this.max.get();
+    }
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      // linear for small values
+      return (int) value;
+    }
+    int highestBit = 63 - Long.numberOfLeadingZeros(value);
+    int shift = highestBit - SUB_BUCKET_BITS;
+    int subBucket = (int) ((value >>> shift) & SUB_BUCKET_MASK);
+    return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /**
+   * Returns the highest value that falls into the bucket.
+   */
+  static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_COUNT - 1;
+    long subBucket = index & SUB_BUCKET_MASK;
+    long lowerBound = (SUB_BUCKET_COUNT | subBucket) << shift;
+    return lowerBound + (1L << shift) - 1L;
+  }
+
+  long getMax() {
+    return this.max.get();
+  }
+
+  /**
+   * Returns the values at the given quantiles.
+   *
+   * @param quantiles in ascending order, eg. {@code 0.5}
+   * @return the values at the given quantiles, {@code 0} if no value has been
+   *  recorded yet
+   */
+  long[] getValuesAt(double... quantiles) {
+    long[] counts = new long[BUCKET_COUNT];
+    long total = 0L;
+    for (int i = 0; i < counts.length; ++i) {
+      long count = this.buckets.get(i);
+      counts[i] = count;
+      total += count;
+    }
+    long[] values = new long[quantiles.length];
+    if (total == 0L) {
+      return values;
+    }
+    long max = this.max.get();
+    int quantileIndex = 0;
+    long seen = 0L;
+    for (int i = 0; i < counts.length && quantileIndex < quantiles.length; ++i) {
+      seen += counts[i];
+      while (quantileIndex < quantiles.length && seen >= (long) Math.ceil(quantiles[quantileIndex] * total)) {
+        values[quantileIndex] = Math.min(bucketUpperBound(i), max);
+        quantileIndex += 1;
+      }
+    }
+    return values;
+  }
+
+}
@@ -3,12 +3,18 @@ package com.github.marschall.osgi.remoting.ejb.client;
 import static org.osgi.service.log.LogService.LOG_ERROR;
 import static org.osgi.service.log.LogService.LOG_WARNING;
 
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import java.util.logging.Level;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
 import org.osgi.service.log.LogService;
 import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
 
 /**
  * A wrapper around OSGi log service that logs to JUL if none is present.
@@ -23,34 +29,164 @@ import org.osgi.util.tracker.ServiceTracker;
  * Log levels should be compile time constants and therefore be inlined so that
  * they don't trigger class loading.
  * </p>
+ *
+ * <p>
+ * The current log service is cached in a volatile field so that logging
+ * doesn't have to go through the service tracker. Errors of remote calls are
+ * throttled by an {@link ErrorLogThrottle} so that a failing server doesn't
+ * flood the log.
+ * </p>
  */
-final class LoggerBridge {
+final class LoggerBridge implements ServiceTrackerCustomizer<Object, Object> {
+
+  /**
+   * The default interval in which errors of the same remote service and type
+   * are only counted.
+   */
+  static final long DEFAULT_ERROR_LOG_INTERVAL = 60000L;
   
   private final Logger FALLBACK_LOGGER = Logger.getLogger(LoggerBridge.class.getName());
 
+  private final BundleContext bundleContext;
+
   private final ServiceTracker<?, ?> serviceTracker;
 
+  private final ErrorLogThrottle throttle;
+
+  private volatile Object logService;
+
+  /**
+   * {@code null} once stopped.
+   */
+  private volatile CallWatchdog watchdog;
+
+  private volatile CallWatchdog.Watch summaryWatch;
+
   LoggerBridge(BundleContext bundleContext) {
-    this.serviceTracker = new ServiceTracker(bundleContext, "org.osgi.service.log.LogService", null);
+    this.bundleContext = bundleContext;
+    this.throttle = new ErrorLogThrottle(DEFAULT_ERROR_LOG_INTERVAL, TimeUnit.MILLISECONDS);
+    this.serviceTracker = new ServiceTracker<Object, Object>(bundleContext, "org.osgi.service.log.LogService", this);
     this.serviceTracker.open();
   }
 
+  /**
+   * Logs the summaries of suppressed errors on the watchdog thread once they
+   * are due, otherwise they would only be logged with the next error.
+   *
+   * @param watchdog the watchdog to run the summaries on
+   */
+  void startSummaries(CallWatchdog watchdog) {
+    this.watchdog = watchdog;
+    this.scheduleSummaries(System.nanoTime());
+  }
+
+  private void scheduleSummaries(long now) {
+    long interval = this.throttle.getInterval(TimeUnit.NANOSECONDS);
+    CallWatchdog currentWatchdog = this.watchdog;
+    if (interval > 0L && currentWatchdog != null) {
+      this.summaryWatch = currentWatchdog.schedule(now + interval, new SummaryTask());
+    }
+  }
+
   void stop() {
+    this.watchdog = null;
+    CallWatchdog.Watch watch = this.summaryWatch;
+    if (watch != null) {
+      watch.finish();
+    }
+    this.logSummaries(System.nanoTime(), true);
     this.serviceTracker.close();
+    this.logService = null;
+  }
+
+  /**
+   * Sets the interval in which errors of the same remote service and type
+   * are only counted.
+   *
+   * @param interval the interval in milliseconds, {@code 0} to log every
+   *  error
+   */
+  void setErrorLogInterval(long interval) {
+    this.throttle.setInterval(interval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public Object addingService(ServiceReference<Object> reference) {
+    Object service = this.bundleContext.getService(reference);
+    if (this.logService == null) {
+      this.logService = service;
+    }
+    return service;
+  }
+
+  @Override
+  public void modifiedService(ServiceReference<Object> reference, Object service) {
+    // nothing
+  }
+
+  @Override
+  public void removedService(ServiceReference<Object> reference, Object service) {
+    if (this.logService == service) {
+      // the removed service is no longer tracked, fall back to an other one if present
+      this.logService = this.serviceTracker.getService();
+    }
+    this.bundleContext.ungetService(reference);
   }
 
   void error(String message, Throwable cause) {
     this.log(LOG_ERROR, message, cause);
   }
 
+  /**
+   * Logs the failure of a remote call.
+   *
+   * <p>
+   * Only the first failure of the same service and exception type within the
+   * error log interval is logged, the following ones are counted and reported
+   * later.
+   * </p>
+   *
+   * @param jndiName the JNDI name of the service
+   * @param message the message to log
+   * @param cause the failure
+   */
+  void error(String jndiName, String message, Throwable cause) {
+    long now = System.nanoTime();
+    Throwable reported = cause;
+    if (cause instanceof InvocationTargetException && cause.getCause() != null) {
+      reported = cause.getCause();
+    }
+    long suppressed = this.throttle.acquire(jndiName, reported.getClass(), now);
+    if (suppressed != ErrorLogThrottle.SUPPRESSED) {
+      if (suppressed > 0L) {
+        this.log(LOG_ERROR, message + " (" + suppressed + " similar errors suppressed)", cause);
+      } else {
+        this.log(LOG_ERROR, message, cause);
+      }
+    }
+    if (this.throttle.isSummaryDue(now)) {
+      this.logSummaries(now, false);
+    }
+  }
+
+  private void logSummaries(long now, boolean all) {
+    List<String> summaries = new ArrayList<String>(0);
+    this.throttle.collectSummaries(now, all, summaries);
+    for (String summary : summaries) {
+      this.log(LOG_WARNING, summary);
+    }
+  }
+
   void warning(String message, Throwable cause) {
     this.log(LOG_WARNING, message, cause);
   }
 
   private void log(int level, String message, Throwable cause) {
-    Object service = this.serviceTracker.getService();
+    Object service = this.logService;
     if (service != null) {
       this.doLog(service, level, message, cause);
+    } else {
+      FALLBACK_LOGGER.log(translate(level), message, cause);
     }
   }
 
@@ -66,7 +202,7 @@ final class LoggerBridge {
   }
 
   private void log(int level, String message) {
-    Object service = this.serviceTracker.getService();
+    Object service = this.logService;
     if (service != null) {
       this.doLog(service, level, message);
     } else {
@@ -91,5 +227,18 @@ final class LoggerBridge {
     logService.log(level, message);
   }
 
+  final class SummaryTask implements Runnable {
+
+    @Override
+    public void run() {
+      long now = System.nanoTime();
+      if (throttle.isSummaryDue(now)) {
+        logSummaries(now, false);
+      }
+      // one shot, schedule the next one
+      scheduleSummaries(now);
+    }
+
+  }
 
 }
@@ -0,0 +1,456 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs the look ups of the EJB client proxies of all bundles on a pool of
+ * threads.
+ *
+ * <p>
+ * Every bundle has its own queue. Threads take the look ups round robin from
+ * the queues of the bundles that have look ups waiting, so a bundle with
+ * many or slow look ups doesn't delay the look ups of other bundles. Look ups
+ * of priority bundles are always run before the ones of other bundles.
+ * Threads are started on demand up to the maximum and stop after being idle
+ * for a minute.
+ * </p>
+ */
+final class LookUpExecutor implements LookUpExecutorMXBean {
+
+  private static final long KEEP_ALIVE = TimeUnit.MINUTES.toNanos(1L);
+
+  private final int maxThreads;
+
+  private final ThreadFactory threadFactory;
+
+  private final Set<String> priorityBundles;
+
+  /**
+   * Delays repeated look ups.
+   */
+  private final CallWatchdog timer;
+
+  private final Lock lock;
+
+  private final Condition notEmpty;
+
+  /**
+   * The queues with look ups waiting by bundle symbolic name, guarded by
+   * {@link #lock}. A queue is removed once it drains so bundles that come
+   * and go don't leave queues behind.
+   */
+  private final Map<String, BundleQueue> queues;
+
+  /**
+   * The priority queues with look ups waiting, guarded by {@link #lock}.
+   */
+  private final LinkedList<BundleQueue> priorityReady;
+
+  /**
+   * The other queues with look ups waiting, guarded by {@link #lock}.
+   */
+  private final LinkedList<BundleQueue> ready;
+
+  /**
+   * Guarded by {@link #lock}.
+   */
+  private final List<Thread> threads;
+
+  /**
+   * Guarded by {@link #lock}.
+   */
+  private int queueDepth;
+
+  /**
+   * Guarded by {@link #lock}.
+   */
+  private int idleThreads;
+
+  /**
+   * Guarded by {@link #lock}.
+   */
+  private int activeLookUps;
+
+  /**
+   * Guarded by {@link #lock}.
+   */
+  private boolean shutdown;
+
+  private final AtomicLong completedLookUps;
+
+  private final LatencyHistogram lookUpTimes;
+
+  private final LatencyHistogram queueTimes;
+
+  /**
+   * Creates a new executor.
+   *
+   * @param maxThreads the maximum number of concurrent look ups
+   * @param threadFactory creates the look up threads
+   * @param priorityBundles the symbolic names of the bundles whose look ups
+   *  run first
+   * @param timer delays repeated look ups
+   */
+  LookUpExecutor(int maxThreads, ThreadFactory threadFactory, Set<String> priorityBundles, CallWatchdog timer) {
+    this.maxThreads = Math.max(maxThreads, 1);
+    this.threadFactory = threadFactory;
+    this.priorityBundles = priorityBundles;
+    this.timer = timer;
+    this.lock = new ReentrantLock();
+    this.notEmpty = this.lock.newCondition();
+    this.queues = new HashMap<String, BundleQueue>();
+    this.priorityReady = new LinkedList<BundleQueue>();
+    this.ready = new LinkedList<BundleQueue>();
+    this.threads = new ArrayList<Thread>(this.maxThreads);
+    this.completedLookUps = new AtomicLong();
+    this.lookUpTimes = new LatencyHistogram();
+    this.queueTimes = new LatencyHistogram();
+  }
+
+  /**
+   * Parses the symbolic names of the priority bundles.
+   *
+   * @param value the comma separated symbolic names, may be {@code null}
+   * @return the symbolic names
+   */
+  static Set<String> parsePriorityBundles(String value) {
+    Set<String> names = new HashSet<String>();
+    if (value != null) {
+      for (String name : value.split(",")) {
+        String trimmed = name.trim();
+        if (!trimmed.isEmpty()) {
+          names.add(trimmed);
+        }
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Returns the queue of a bundle.
+   *
+   * @param symbolicName the symbolic name of the bundle
+   * @return the queue of the bundle
+   */
+  BundleQueue queueFor(String symbolicName) {
+    this.lock.lock();
+    try {
+      BundleQueue queue = this.queues.get(symbolicName);
+      if (queue == null) {
+        // registered by the first look up
+        queue = new BundleQueue(symbolicName, this.priorityBundles.contains(symbolicName));
+      }
+      return queue;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void enqueue(BundleQueue bundleQueue, LookUpTask task) {
+    this.lock.lock();
+    try {
+      if (this.shutdown) {
+        throw new RejectedExecutionException("look up executor is shut down");
+      }
+      // the queue may have drained and been removed since it was handed out
+      BundleQueue queue = this.queues.get(bundleQueue.symbolicName);
+      if (queue == null) {
+        queue = bundleQueue;
+        this.queues.put(queue.symbolicName, queue);
+      }
+      task.queuedAt = System.nanoTime();
+      queue.tasks.addLast(task);
+      if (!queue.ready) {
+        queue.ready = true;
+        if (queue.priority) {
+          this.priorityReady.addLast(queue);
+        } else {
+          this.ready.addLast(queue);
+        }
+      }
+      this.queueDepth += 1;
+      if (this.idleThreads > 0) {
+        this.notEmpty.signal();
+      } else if (this.threads.size() < this.maxThreads) {
+        Thread thread = this.threadFactory.newThread(new Worker());
+        this.threads.add(thread);
+        thread.start();
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Takes the next look up, waits if there is none.
+   *
+   * @return the next look up, {@code null} if the thread should stop
+   */
+  private LookUpTask take() {
+    this.lock.lock();
+    try {
+      long keepAlive = KEEP_ALIVE;
+      while (!this.shutdown) {
+        LinkedList<BundleQueue> ring = this.priorityReady.isEmpty() ? this.ready : this.priorityReady;
+        BundleQueue queue = ring.pollFirst();
+        if (queue != null) {
+          LookUpTask task = queue.tasks.removeFirst();
+          if (queue.tasks.isEmpty()) {
+            queue.ready = false;
+            this.queues.remove(queue.symbolicName);
+          } else {
+            // the other bundles first
+            ring.addLast(queue);
+          }
+          this.queueDepth -= 1;
+          this.activeLookUps += 1;
+          return task;
+        }
+        if (keepAlive <= 0L) {
+          break;
+        }
+        this.idleThreads += 1;
+        try {
+          keepAlive = this.notEmpty.awaitNanos(keepAlive);
+        } catch (InterruptedException e) {
+          // shutting down
+          break;
+        } finally {
+          this.idleThreads -= 1;
+        }
+      }
+      this.threads.remove(Thread.currentThread());
+      return null;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void finished() {
+    this.lock.lock();
+    try {
+      this.activeLookUps -= 1;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Stops all threads, queued look ups are discarded.
+   */
+  void shutdownNow() {
+    this.lock.lock();
+    try {
+      this.shutdown = true;
+      for (BundleQueue queue : this.queues.values()) {
+        for (LookUpTask task : queue.tasks) {
+          task.cancel(false);
+        }
+        queue.tasks.clear();
+        queue.ready = false;
+      }
+      this.priorityReady.clear();
+      this.ready.clear();
+      this.queueDepth = 0;
+      for (Thread thread : this.threads) {
+        thread.interrupt();
+      }
+      this.threads.clear();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  int getBundleQueueCount() {
+    this.lock.lock();
+    try {
+      return this.queues.size();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  @Override
+  public int getQueueDepth() {
+    this.lock.lock();
+    try {
+      return this.queueDepth;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  @Override
+  public int getActiveLookUps() {
+    this.lock.lock();
+    try {
+      return this.activeLookUps;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  @Override
+  public long getCompletedLookUps() {
+    return this.completedLookUps.get();
+  }
+
+  @Override
+  public int getPoolSize() {
+    this.lock.lock();
+    try {
+      return this.threads.size();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  @Override
+  public int getMaxPoolSize() {
+    return this.maxThreads;
+  }
+
+  @Override
+  public long getLookUpTimeMedian() {
+    return TimeUnit.NANOSECONDS.toMillis(this.lookUpTimes.getValuesAt(0.5d)[0]);
+  }
+
+  @Override
+  public long getLookUpTime99thPercentile() {
+    return TimeUnit.NANOSECONDS.toMillis(this.lookUpTimes.getValuesAt(0.99d)[0]);
+  }
+
+  @Override
+  public long getLookUpTimeMax() {
+    return TimeUnit.NANOSECONDS.toMillis(this.lookUpTimes.getMax());
+  }
+
+  @Override
+  public long getQueueTime99thPercentile() {
+    return TimeUnit.NANOSECONDS.toMillis(this.queueTimes.getValuesAt(0.99d)[0]);
+  }
+
+  /**
+   * The look ups of a single bundle.
+   */
+  final class BundleQueue {
+
+    final String symbolicName;
+
+    final boolean priority;
+
+    /**
+     * Guarded by {@link LookUpExecutor#lock}.
+     */
+    final LinkedList<LookUpTask> tasks;
+
+    /**
+     * Whether the queue is in a ready ring, guarded by
+     * {@link LookUpExecutor#lock}.
+     */
+    boolean ready;
+
+    BundleQueue(String symbolicName, boolean priority) {
+      this.symbolicName = symbolicName;
+      this.priority = priority;
+      this.tasks = new LinkedList<LookUpTask>();
+    }
+
+    /**
+     * Queues a look up.
+     *
+     * @param lookUp the look up
+     * @return can be used to cancel the look up
+     * @throws RejectedExecutionException if the executor is shut down
+     */
+    Future<?> submit(Runnable lookUp) {
+      LookUpTask task = new LookUpTask(lookUp);
+      enqueue(this, task);
+      return task;
+    }
+
+    /**
+     * Queues a look up after a delay.
+     *
+     * @param lookUp the look up
+     * @param delay the time to wait before the look up is queued
+     * @param unit the unit of {@code delay}
+     * @return can be used to cancel the look up
+     * @throws RejectedExecutionException if the executor is shut down
+     */
+    Future<?> schedule(Runnable lookUp, long delay, TimeUnit unit) {
+      final LookUpTask task = new LookUpTask(lookUp);
+      lock.lock();
+      try {
+        if (shutdown) {
+          throw new RejectedExecutionException("look up executor is shut down");
+        }
+      } finally {
+        lock.unlock();
+      }
+      timer.schedule(System.nanoTime() + unit.toNanos(delay), new Runnable() {
+
+        @Override
+        public void run() {
+          if (!task.isCancelled()) {
+            enqueue(BundleQueue.this, task);
+          }
+        }
+      });
+      return task;
+    }
+
+  }
+
+  static final class LookUpTask extends FutureTask<Object> {
+
+    /**
+     * Guarded by {@link LookUpExecutor#lock}.
+     */
+    long queuedAt;
+
+    LookUpTask(Runnable lookUp) {
+      super(lookUp, null);
+    }
+
+  }
+
+  final class Worker implements Runnable {
+
+    @Override
+    public void run() {
+      LookUpTask task = take();
+      while (task != null) {
+        long start = System.nanoTime();
+        queueTimes.record(start - task.queuedAt);
+        try {
+          task.run();
+        } finally {
+          lookUpTimes.record(System.nanoTime() - start);
+          completedLookUps.incrementAndGet();
+          finished();
+          // a cancelled look up must not interrupt the next one
+          Thread.interrupted();
+        }
+        task = take();
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,71 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+/**
+ * Management interface of the executor that looks up the EJB client proxies.
+ */
+public interface LookUpExecutorMXBean {
+
+  /**
+   * Returns the number of look ups waiting to be executed.
+   *
+   * @return the number of queued look ups
+   */
+  int getQueueDepth();
+
+  /**
+   * Returns the number of look ups currently executing.
+   *
+   * @return the number of active look ups
+   */
+  int getActiveLookUps();
+
+  /**
+   * Returns the number of look ups that finished.
+   *
+   * @return the number of finished look ups
+   */
+  long getCompletedLookUps();
+
+  /**
+   * Returns the number of threads in the executor.
+   *
+   * @return the number of threads
+   */
+  int getPoolSize();
+
+  /**
+   * Returns the maximum number of threads and therefore concurrent look ups.
+   *
+   * @return the maximum number of threads
+   */
+  int getMaxPoolSize();
+
+  /**
+   * Returns the median duration of a look up.
+   *
+   * @return the median duration in milliseconds
+   */
+  long getLookUpTimeMedian();
+
+  /**
+   * Returns the 99th percentile duration of a look up.
+   *
+   * @return the 99th percentile duration in milliseconds
+   */
+  long getLookUpTime99thPercentile();
+
+  /**
+   * Returns the longest duration of a look up.
+   *
+   * @return the longest duration in milliseconds
+   */
+  long getLookUpTimeMax();
+
+  /**
+   * Returns the 99th percentile time look ups waited in the queue.
+   *
+   * @return the 99th percentile queue time in milliseconds
+   */
+  long getQueueTime99thPercentile();
+
+}
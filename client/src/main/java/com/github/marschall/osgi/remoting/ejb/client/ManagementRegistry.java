@@ -0,0 +1,100 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers the MBeans of this bundle in the platform MBean server.
+ *
+ * <p>
+ * JMX is only used for monitoring so failures are logged but never
+ * propagated.
+ * </p>
+ */
+final class ManagementRegistry {
+
+  private static final String DOMAIN = "com.github.marschall.osgi.remoting.ejb";
+
+  private final MBeanServer server;
+
+  private final LoggerBridge logger;
+
+  ManagementRegistry(LoggerBridge logger) {
+    this.logger = logger;
+    this.server = ManagementFactory.getPlatformMBeanServer();
+  }
+
+  void registerLookUpExecutor(LookUpExecutorMXBean executor) {
+    this.register(executor, lookUpExecutorName());
+  }
+
+  void unregisterLookUpExecutor() {
+    this.unregister(lookUpExecutorName());
+  }
+
+  void registerSlowCallRecorder(SlowCallRecorderMXBean recorder) {
+    this.register(recorder, slowCallRecorderName());
+  }
+
+  void unregisterSlowCallRecorder() {
+    this.unregister(slowCallRecorderName());
+  }
+
+  void registerProxyContext(BundleProxyContext context) {
+    this.register(context, proxyContextName(context));
+    for (ServiceCaller caller : context.getCallers()) {
+      this.register(caller, serviceCallerName(context, caller));
+    }
+  }
+
+  void unregisterProxyContext(BundleProxyContext context) {
+    for (ServiceCaller caller : context.getCallers()) {
+      this.unregister(serviceCallerName(context, caller));
+    }
+    this.unregister(proxyContextName(context));
+  }
+
+  private void register(Object mbean, String name) {
+    try {
+      this.server.registerMBean(mbean, new ObjectName(name));
+    } catch (InstanceAlreadyExistsException e) {
+      this.logger.warning("MBean already registered: " + name, e);
+    } catch (JMException e) {
+      this.logger.warning("could not register MBean: " + name, e);
+    }
+  }
+
+  private void unregister(String name) {
+    try {
+      this.server.unregisterMBean(new ObjectName(name));
+    } catch (InstanceNotFoundException e) {
+      // registration failed, already logged
+    } catch (JMException e) {
+      this.logger.warning("could not unregister MBean: " + name, e);
+    }
+  }
+
+  private static String lookUpExecutorName() {
+    return DOMAIN + ":type=LookUpExecutor";
+  }
+
+  private static String slowCallRecorderName() {
+    return DOMAIN + ":type=SlowCallRecorder";
+  }
+
+  private static String proxyContextName(BundleProxyContext context) {
+    return DOMAIN + ":type=ProxyContext,bundleId=" + context.getBundleId()
+        + ",bundle=" + ObjectName.quote(String.valueOf(context.getBundleSymbolicName()));
+  }
+
+  private static String serviceCallerName(BundleProxyContext context, ServiceCaller caller) {
+    return DOMAIN + ":type=ServiceCaller,bundleId=" + context.getBundleId()
+        + ",jndiName=" + ObjectName.quote(caller.getJndiName());
+  }
+
+}
@@ -0,0 +1,215 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Future;
+
+/**
+ * Dispatches calls of a single interface method to the EJB client proxy.
+ *
+ * <p>
+ * Everything that only depends on the method (kind of method, failure message)
+ * is computed once when the invoker is created so that the success path
+ * doesn't allocate.
+ * </p>
+ */
+final class MethodInvoker {
+
+  private static final int REMOTE = 0;
+  private static final int EQUALS = 1;
+  private static final int HASH_CODE = 2;
+  private static final int TO_STRING = 3;
+
+  final Method method;
+
+  final String failureMessage;
+
+  /**
+   * The method name including the parameter types.
+   */
+  final String methodName;
+
+  /**
+   * {@code null} for methods of {@link Object}.
+   */
+  final MethodMetrics metrics;
+
+  /**
+   * Whether the method returns a {@link Future}, eg. an EJB
+   * {@code @Asynchronous} method.
+   */
+  final boolean returnsFuture;
+
+  /**
+   * Acquired before and released after the remote call, empty for methods of
+   * {@link Object}.
+   */
+  final CallGuard[] guards;
+
+  /**
+   * The timeout of a call in nanoseconds, {@code 0} if calls don't time out.
+   */
+  final long timeout;
+
+  /**
+   * {@code null} if failed calls are not retried.
+   */
+  final RetryPolicy retryPolicy;
+
+  /**
+   * {@code null} if results are not cached.
+   */
+  final ResultCache cache;
+
+  /**
+   * {@code null} if concurrent calls are not coalesced.
+   */
+  final SingleFlight singleFlight;
+
+  /**
+   * {@code null} if calls are not batched.
+   */
+  final MicroBatcher batcher;
+
+  /**
+   * {@code null} if calls are not hedged.
+   */
+  final Hedger hedger;
+
+  /**
+   * Whether a stub may call the EJB client proxy directly, only if nothing
+   * but the metrics apply to the method.
+   */
+  final boolean direct;
+
+  private final int kind;
+
+  private final Class<?>[] exceptionTypes;
+
+  MethodInvoker(Method method) {
+    this(method, null);
+  }
+
+  MethodInvoker(Method method, CallPolicy policy) {
+    this.method = method;
+    this.kind = kindOf(method);
+    this.methodName = methodName(method);
+    this.returnsFuture = method.getReturnType() == Future.class;
+    // Method#getExceptionTypes() copies the array
+    this.exceptionTypes = method.getExceptionTypes();
+    this.failureMessage = "service call " + method.getDeclaringClass().getName() + "#" + method.getName() + "() failed";
+    if (this.kind == REMOTE) {
+      this.metrics = new MethodMetrics();
+      this.guards = policy != null ? policy.guardsFor(method) : CallPolicy.NO_GUARDS;
+      this.timeout = policy != null ? policy.timeoutFor(method.getName()) : 0L;
+      this.retryPolicy = policy != null ? policy.retryPolicyFor(method.getName()) : null;
+      // a future would be cached before it completed
+      this.cache = policy != null && !this.returnsFuture ? policy.cacheFor(method.getName()) : null;
+      this.singleFlight = policy != null && !this.returnsFuture ? policy.singleFlightFor(method.getName()) : null;
+      this.batcher = policy != null && !this.returnsFuture ? policy.batcherFor(method) : null;
+      this.hedger = policy != null && !this.returnsFuture ? policy.hedgerFor(method.getName(), this.metrics) : null;
+      this.direct = this.guards.length == 0 && this.timeout == 0L && this.retryPolicy == null && this.cache == null
+          && this.singleFlight == null && this.batcher == null && this.hedger == null && !this.returnsFuture;
+      try {
+        // skip the access check on every call
+        method.setAccessible(true);
+      } catch (SecurityException e) {
+        // ignore, no permissions
+      }
+    } else {
+      this.metrics = null;
+      this.guards = CallPolicy.NO_GUARDS;
+      this.timeout = 0L;
+      this.retryPolicy = null;
+      this.cache = null;
+      this.singleFlight = null;
+      this.batcher = null;
+      this.hedger = null;
+      this.direct = false;
+    }
+  }
+
+  private static String methodName(Method method) {
+    StringBuilder buffer = new StringBuilder();
+    buffer.append(method.getName()).append('(');
+    Class<?>[] parameterTypes = method.getParameterTypes();
+    for (int i = 0; i < parameterTypes.length; ++i) {
+      if (i > 0) {
+        buffer.append(',');
+      }
+      buffer.append(parameterTypes[i].getSimpleName());
+    }
+    return buffer.append(')').toString();
+  }
+
+  private static int kindOf(Method method) {
+    String name = method.getName();
+    Class<?>[] parameterTypes = method.getParameterTypes();
+    if (name.equals("equals") && parameterTypes.length == 1 && parameterTypes[0] == Object.class) {
+      return EQUALS;
+    } else if (name.equals("hashCode") && parameterTypes.length == 0) {
+      return HASH_CODE;
+    } else if (name.equals("toString") && parameterTypes.length == 0) {
+      return TO_STRING;
+    } else {
+      return REMOTE;
+    }
+  }
+
+  boolean isObjectMethod() {
+    return this.kind != REMOTE;
+  }
+
+  boolean isToString() {
+    return this.kind == TO_STRING;
+  }
+
+  /**
+   * Checks whether an exception is declared by the method.
+   *
+   * @param exception the exception to check
+   * @return whether the exception is an instance of a type in the
+   *  {@code throws} clause of the method
+   */
+  boolean isDeclared(Throwable exception) {
+    for (Class<?> exceptionType : this.exceptionTypes) {
+      if (exceptionType.isInstance(exception)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  Object invoke(Object target, Object[] args) throws Exception {
+    switch (this.kind) {
+      case EQUALS:
+        return target.equals(unwrap(args[0]));
+      case HASH_CODE:
+        return target.hashCode();
+      case TO_STRING:
+        return target.toString();
+      default:
+        return this.method.invoke(target, args);
+    }
+  }
+
+  /**
+   * If the argument is a service created by us compare against the EJB client
+   * proxy it delegates to, this way session object identity is preserved.
+   * Stubs pass the handler of the other stub instead of the stub.
+   */
+  private static Object unwrap(Object argument) throws Exception {
+    if (argument instanceof ServiceCaller) {
+      return ((ServiceCaller) argument).getTarget();
+    }
+    if (argument != null && Proxy.isProxyClass(argument.getClass())) {
+      InvocationHandler handler = Proxy.getInvocationHandler(argument);
+      if (handler instanceof ServiceCaller) {
+        return ((ServiceCaller) handler).getTarget();
+      }
+    }
+    return argument;
+  }
+
+}
@@ -0,0 +1,105 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.marschall.osgi.remoting.ejb.api.InvocationStatistics;
+
+/**
+ * Counters and latencies of a single method of a remote service.
+ */
+final class MethodMetrics {
+
+  private final AtomicLong invocationCount;
+
+  private final AtomicLong errorCount;
+
+  private final AtomicInteger inFlight;
+
+  private final LatencyHistogram latencies;
+
+  MethodMetrics() {
+    this.invocationCount = new AtomicLong();
+    this.errorCount = new AtomicLong();
+    this.inFlight = new AtomicInteger();
+    this.latencies = new LatencyHistogram();
+  }
+
+  /**
+   * Has to be called before the call.
+   *
+   * @return the start time to pass to {@link #stop(long, boolean)}
+   */
+  long start() {
+    this.enter();
+    return System.nanoTime();
+  }
+
+  /**
+   * Has to be called instead of {@link #start()} before a call whose start
+   * time is taken by the caller.
+   */
+  void enter() {
+    this.inFlight.incrementAndGet();
+  }
+
+  /**
+   * Has to be called after the call.
+   *
+   * @param start the value returned by {@link #start()}
+   * @param failed whether the call threw an exception
+   * @return the duration of the call in nanoseconds
+   */
+  long stop(long start, boolean failed) {
+    long duration = System.nanoTime() - start;
+    this.inFlight.decrementAndGet();
+    this.latencies.record(duration);
+    this.invocationCount.incrementAndGet();
+    if (failed) {
+      this.errorCount.incrementAndGet();
+    }
+    return duration;
+  }
+
+  /**
+   * Has to be called instead of {@link #stop(long, boolean)} if the call
+   * wasn't made, nothing is recorded.
+   */
+  void cancel() {
+    this.inFlight.decrementAndGet();
+  }
+
+  long getInvocationCount() {
+    return this.invocationCount.get();
+  }
+
+  long getErrorCount() {
+    return this.errorCount.get();
+  }
+
+  int getInFlight() {
+    return this.inFlight.get();
+  }
+
+  boolean hasInvocations() {
+    return this.invocationCount.get() > 0L || this.inFlight.get() > 0;
+  }
+
+  /**
+   * Returns the latency below which a fraction of the calls finished.
+   *
+   * @param quantile the fraction of the calls, eg. {@code 0.95d}
+   * @return the latency in nanoseconds
+   */
+  long getLatencyAt(double quantile) {
+    return this.latencies.getValuesAt(quantile)[0];
+  }
+
+  InvocationStatistics getStatistics(String jndiName, String methodName) {
+    long[] percentiles = this.latencies.getValuesAt(0.5d, 0.99d, 0.999d);
+    return new InvocationStatistics(jndiName, methodName,
+        this.invocationCount.get(), this.errorCount.get(), this.inFlight.get(),
+        percentiles[0], percentiles[1], percentiles[2], this.latencies.getMax());
+  }
+
+}
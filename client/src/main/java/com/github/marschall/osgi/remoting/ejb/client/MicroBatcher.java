@@ -0,0 +1,270 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.osgi.framework.ServiceException;
+
+/**
+ * Gathers calls of a single item method into calls of a batch method of
+ * the same bean.
+ *
+ * <p>
+ * The first caller of a batch becomes its leader. It waits until the batch
+ * window elapsed or the batch is full, then calls the batch method with the
+ * arguments of all callers and hands every caller its result. Calls stay on
+ * the calling threads, no additional thread is needed.
+ * </p>
+ *
+ * <p>
+ * The batch method takes a {@link List} of the arguments of the single item
+ * method and returns either a {@link List} with the results in the same
+ * order or a {@link Map} from argument to result.
+ * </p>
+ */
+final class MicroBatcher {
+
+  final Method batchMethod;
+
+  private final boolean returnsMap;
+
+  private final int maxSize;
+
+  /**
+   * In nanoseconds.
+   */
+  private final long window;
+
+  private final Lock lock;
+
+  private final Condition full;
+
+  /**
+   * The batch new calls are added to, guarded by {@link #lock}.
+   */
+  private Batch open;
+
+  private final AtomicLong batchCount;
+
+  private final AtomicLong batchedCallCount;
+
+  MicroBatcher(Method batchMethod, int maxSize, long window, TimeUnit unit) {
+    this.batchMethod = batchMethod;
+    this.returnsMap = Map.class.isAssignableFrom(batchMethod.getReturnType());
+    this.maxSize = Math.max(maxSize, 1);
+    this.window = Math.max(unit.toNanos(window), 0L);
+    this.lock = new ReentrantLock();
+    this.full = this.lock.newCondition();
+    this.batchCount = new AtomicLong();
+    this.batchedCallCount = new AtomicLong();
+  }
+
+  /**
+   * Finds the batch method of a single item method.
+   *
+   * @param method the single item method, has to have exactly one parameter
+   * @param batchMethodName the name of the batch method
+   * @return the batch method, {@code null} if there is no suitable one
+   */
+  static Method findBatchMethod(Method method, String batchMethodName) {
+    if (method.getParameterTypes().length != 1) {
+      return null;
+    }
+    for (Method candidate : method.getDeclaringClass().getMethods()) {
+      if (candidate.getName().equals(batchMethodName) && isBatchMethod(candidate)) {
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isBatchMethod(Method method) {
+    Class<?>[] parameterTypes = method.getParameterTypes();
+    if (parameterTypes.length != 1 || !parameterTypes[0].isAssignableFrom(ArrayList.class)) {
+      return false;
+    }
+    Class<?> returnType = method.getReturnType();
+    return List.class.isAssignableFrom(returnType) || Map.class.isAssignableFrom(returnType);
+  }
+
+  /**
+   * Adds a call to the open batch or opens a new one.
+   *
+   * @param argument the argument of the single item call
+   * @return the call, if it is the leader of its batch the caller has to
+   *  {@link #await(Item)} the batch, call the batch method and
+   *  {@link #complete(Batch, Object, Throwable)} the batch
+   */
+  Item add(Object argument) {
+    this.lock.lock();
+    try {
+      Batch batch = this.open;
+      boolean leader = batch == null;
+      if (leader) {
+        batch = new Batch(System.nanoTime() + this.window);
+        this.open = batch;
+      }
+      int index = batch.arguments.size();
+      batch.arguments.add(argument);
+      if (batch.arguments.size() >= this.maxSize) {
+        // later calls start a new batch
+        this.open = null;
+        this.full.signalAll();
+      }
+      return new Item(batch, index, leader);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Waits until the batch of a leader is full or its window elapsed and
+   * closes it.
+   *
+   * @param item the call of the leader
+   * @return the arguments of all calls of the batch
+   */
+  List<Object> await(Item item) {
+    Batch batch = item.batch;
+    boolean interrupted = false;
+    this.lock.lock();
+    try {
+      while (this.open == batch) {
+        long remaining = batch.closesAt - System.nanoTime();
+        if (remaining <= 0L) {
+          this.open = null;
+          break;
+        }
+        try {
+          this.full.awaitNanos(remaining);
+        } catch (InterruptedException e) {
+          // send what we have, the call will see the interrupt
+          interrupted = true;
+          this.open = null;
+        }
+      }
+      this.batchCount.incrementAndGet();
+      this.batchedCallCount.addAndGet(batch.arguments.size());
+      return batch.arguments;
+    } finally {
+      this.lock.unlock();
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Hands every call of a batch its result.
+   *
+   * @param batch the closed batch
+   * @param results the result of the batch method
+   * @param failure the exception thrown by the batch method, {@code null}
+   *  if it succeeded
+   */
+  void complete(Batch batch, Object results, Throwable failure) {
+    List<Object> arguments = batch.arguments;
+    Object[] values = new Object[arguments.size()];
+    if (failure == null) {
+      if (this.returnsMap) {
+        Map<?, ?> map = (Map<?, ?>) results;
+        for (int i = 0; i < values.length; ++i) {
+          values[i] = map != null ? map.get(arguments.get(i)) : null;
+        }
+      } else {
+        List<?> list = (List<?>) results;
+        int size = list != null ? list.size() : 0;
+        if (size == values.length) {
+          list.toArray(values);
+        } else {
+          failure = new ServiceException("batch method: " + this.batchMethod.getName() + " returned "
+              + size + " results for " + values.length + " arguments", ServiceException.REMOTE);
+        }
+      }
+    }
+    batch.values = values;
+    batch.failure = failure;
+    batch.done.countDown();
+  }
+
+  long getBatchCount() {
+    return this.batchCount.get();
+  }
+
+  long getBatchedCallCount() {
+    return this.batchedCallCount.get();
+  }
+
+  /**
+   * The calls sent to the server in a single batch call.
+   */
+  static final class Batch {
+
+    /**
+     * Only modified while the batch is open.
+     */
+    final List<Object> arguments;
+
+    final long closesAt;
+
+    final CountDownLatch done;
+
+    /**
+     * Published by {@link #done}.
+     */
+    Object[] values;
+
+    /**
+     * Published by {@link #done}.
+     */
+    Throwable failure;
+
+    Batch(long closesAt) {
+      this.arguments = new ArrayList<Object>();
+      this.closesAt = closesAt;
+      this.done = new CountDownLatch(1);
+    }
+
+  }
+
+  /**
+   * A single item call in a batch.
+   */
+  static final class Item {
+
+    final Batch batch;
+
+    final int index;
+
+    final boolean leader;
+
+    Item(Batch batch, int index, boolean leader) {
+      this.batch = batch;
+      this.index = index;
+      this.leader = leader;
+    }
+
+    /**
+     * Returns the result of the call once the batch completed.
+     *
+     * @return the result of the call
+     * @throws Throwable the exception thrown by the batch call
+     */
+    Object getResult() throws Throwable {
+      if (this.batch.failure != null) {
+        throw this.batch.failure;
+      }
+      return this.batch.values[this.index];
+    }
+
+  }
+
+}
@@ -0,0 +1,167 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.Hashtable;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+import com.github.marschall.osgi.remoting.ejb.api.InitialContextService;
+
+/**
+ * The naming context of a client bundle, created on first use.
+ *
+ * <p>
+ * The context is created with the thread context class loader of the
+ * caller, callers have to set it to the class loader of the client bundle.
+ * </p>
+ */
+final class NamingContextHolder {
+
+  private final InitialContextService initialContextService;
+
+  /**
+   * {@code null} until first used, guarded by {@code this}.
+   */
+  private Context namingContext;
+
+  /**
+   * Incremented by {@link #recreate()}, guarded by {@code this}.
+   */
+  private int generation;
+
+  /**
+   * Guarded by {@code this}.
+   */
+  private boolean closed;
+
+  /**
+   * In {@link System#currentTimeMillis()}, {@code 0} until the context is
+   * created.
+   */
+  private volatile long created;
+
+  NamingContextHolder(InitialContextService initialContextService) {
+    this.initialContextService = initialContextService;
+  }
+
+  /**
+   * Creates a holder of a naming context that was already created.
+   *
+   * @param initialContextService creates the context again after a flush
+   * @param namingContext the current naming context
+   */
+  NamingContextHolder(InitialContextService initialContextService, Context namingContext) {
+    this.initialContextService = initialContextService;
+    this.namingContext = namingContext;
+    this.created = System.currentTimeMillis();
+  }
+
+  /**
+   * Returns the naming context, creates it if necessary.
+   *
+   * <p>
+   * The context is created without holding the lock since this may need
+   * network I/O. If two threads create a context at the same time the one
+   * of the loser is closed again.
+   * </p>
+   *
+   * @return the naming context
+   * @throws NamingException if the context can't be created
+   * @throws IllegalStateException if the holder was closed
+   */
+  Context get() throws NamingException {
+    while (true) {
+      int expectedGeneration;
+      synchronized (this) {
+        this.checkNotClosed();
+        if (this.namingContext != null) {
+          return this.namingContext;
+        }
+        expectedGeneration = this.generation;
+      }
+      Context newContext = this.create();
+      synchronized (this) {
+        if (!this.closed && this.namingContext == null && this.generation == expectedGeneration) {
+          this.namingContext = newContext;
+          this.created = System.currentTimeMillis();
+          return newContext;
+        }
+      }
+      // closed, flushed or created by an other thread in the meantime
+      newContext.close();
+    }
+  }
+
+  /**
+   * Closes the current naming context and creates a new one.
+   *
+   * @return the new naming context
+   * @throws NamingException if the old context can't be closed or the new
+   *  one can't be created
+   * @throws IllegalStateException if the holder was closed
+   */
+  Context recreate() throws NamingException {
+    Context old;
+    synchronized (this) {
+      this.checkNotClosed();
+      old = this.namingContext;
+      this.namingContext = null;
+      this.created = 0L;
+      // contexts that are still being created are outdated
+      this.generation += 1;
+    }
+    if (old != null) {
+      old.close();
+    }
+    return this.get();
+  }
+
+  /**
+   * Closes the naming context if it was created, later calls of
+   * {@link #get()} and {@link #recreate()} fail.
+   *
+   * @throws NamingException if the context can't be closed
+   */
+  void close() throws NamingException {
+    Context current;
+    synchronized (this) {
+      this.closed = true;
+      current = this.namingContext;
+      this.namingContext = null;
+      this.created = 0L;
+    }
+    if (current != null) {
+      current.close();
+    }
+  }
+
+  /**
+   * Guarded by {@code this}.
+   */
+  private void checkNotClosed() {
+    if (this.closed) {
+      throw new IllegalStateException("naming context is closed");
+    }
+  }
+
+  private Context create() throws NamingException {
+    Hashtable<?, ?> environment = this.initialContextService.getEnvironment();
+    if (environment != null) {
+      return new InitialContext(environment);
+    } else {
+      return new InitialContext();
+    }
+  }
+
+  /**
+   * Returns when the naming context was created.
+   *
+   * @return the creation time in milliseconds since the epoch, {@code 0} if
+   *  the context wasn't created yet
+   */
+  long getCreated() {
+    return this.created;
+  }
+
+}
@@ -0,0 +1,60 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+/**
+ * Management interface of the remote services of a single client bundle.
+ */
+public interface ProxyContextMXBean {
+
+  /**
+   * Returns the symbolic name of the client bundle.
+   *
+   * @return the symbolic name of the client bundle
+   */
+  String getBundleSymbolicName();
+
+  /**
+   * Returns the id of the client bundle.
+   *
+   * @return the id of the client bundle
+   */
+  long getBundleId();
+
+  /**
+   * Returns the time since the naming context was created or last flushed.
+   *
+   * @return the age of the naming context in milliseconds, negative if
+   *  the naming context wasn't created yet
+   */
+  long getNamingContextAge();
+
+  /**
+   * Returns the number of remote services of the client bundle.
+   *
+   * @return the number of remote services of the client bundle
+   */
+  int getCallerCount();
+
+  /**
+   * Returns the JNDI names of the remote services of the client bundle.
+   *
+   * @return the JNDI names of the remote services
+   */
+  String[] getJndiNames();
+
+  /**
+   * Creates a new naming context and looks up all EJB client proxies of the
+   * client bundle again.
+   *
+   * @throws Exception if the look up fails
+   */
+  void flushProxies() throws Exception;
+
+  /**
+   * Looks up the EJB client proxy of a single remote service again.
+   *
+   * @param jndiName the JNDI name of the remote service
+   * @throws Exception if the look up fails or the service is not known
+   */
+  void flushProxy(String jndiName) throws Exception;
+
+}
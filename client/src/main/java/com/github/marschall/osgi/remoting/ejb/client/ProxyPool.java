@@ -0,0 +1,178 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+
+/**
+ * Several EJB client proxies of the same stateless bean among which calls
+ * are distributed.
+ *
+ * <p>
+ * Some EJB client libraries serialize calls on the state of a proxy or its
+ * connection, a pool avoids a single proxy becoming the bottleneck. The first
+ * proxy is the primary one, it is used for {@link Object} methods so that
+ * the identity of the service doesn't change.
+ * </p>
+ */
+final class ProxyPool {
+
+  /**
+   * How a proxy is selected for a call.
+   */
+  enum Strategy {
+
+    /**
+     * Every call uses the next proxy.
+     */
+    ROUND_ROBIN,
+
+    /**
+     * Every call uses the proxy with the fewest calls in progress.
+     */
+    LEAST_IN_FLIGHT,
+
+    /**
+     * All calls of a thread use the same proxy.
+     */
+    THREAD_AFFINITY;
+
+    /**
+     * Parses a strategy from a configuration value.
+     *
+     * @param value the value, eg. {@code leastInFlight}
+     * @return the strategy, {@link #ROUND_ROBIN} if the value is unknown
+     */
+    static Strategy parse(String value) {
+      if (value != null) {
+        // leastInFlight -> LEASTINFLIGHT
+        String normalized = value.replace("_", "").replace("-", "").toUpperCase(Locale.ROOT);
+        for (Strategy strategy : values()) {
+          if (strategy.name().replace("_", "").equals(normalized)) {
+            return strategy;
+          }
+        }
+      }
+      return ROUND_ROBIN;
+    }
+
+  }
+
+  private final Object[] proxies;
+
+  private final Strategy strategy;
+
+  private final AtomicInteger next;
+
+  private final AtomicIntegerArray inFlight;
+
+  ProxyPool(Object[] proxies, Strategy strategy) {
+    this.proxies = proxies;
+    this.strategy = strategy;
+    this.next = new AtomicInteger();
+    this.inFlight = new AtomicIntegerArray(proxies.length);
+  }
+
+  /**
+   * Looks up the proxies of a pool.
+   *
+   * @param namingContext the context to use for the look ups
+   * @param jndiName the JNDI name of the bean
+   * @param size the number of proxies to look up
+   * @param strategy how the proxies are selected
+   * @return the new pool
+   * @throws NamingException if a look up fails
+   */
+  static ProxyPool lookUp(Context namingContext, String jndiName, int size, Strategy strategy)
+      throws NamingException {
+    Object[] proxies = new Object[size];
+    for (int i = 0; i < size; ++i) {
+      proxies[i] = namingContext.lookup(jndiName);
+    }
+    return new ProxyPool(proxies, strategy);
+  }
+
+  Object getPrimary() {
+    return this.proxies[0];
+  }
+
+  Object get(int index) {
+    return this.proxies[index];
+  }
+
+  int size() {
+    return this.proxies.length;
+  }
+
+  /**
+   * Selects a proxy for a call, {@link #release(int)} has to be called once
+   * the call finished.
+   *
+   * @return the index of the proxy to use
+   */
+  int acquire() {
+    int index;
+    switch (this.strategy) {
+      case LEAST_IN_FLIGHT:
+        index = this.leastInFlight();
+        break;
+      case THREAD_AFFINITY:
+        index = this.threadAffinity();
+        break;
+      default:
+        index = this.roundRobin();
+        break;
+    }
+    this.inFlight.incrementAndGet(index);
+    return index;
+  }
+
+  void release(int index) {
+    this.inFlight.decrementAndGet(index);
+  }
+
+  private int roundRobin() {
+    return (this.next.getAndIncrement() & Integer.MAX_VALUE) % this.proxies.length;
+  }
+
+  private int leastInFlight() {
+    // start at a different proxy every time so ties are spread
+    int start = this.roundRobin();
+    int length = this.proxies.length;
+    int best = start;
+    int bestInFlight = this.inFlight.get(start);
+    for (int i = 1; i < length && bestInFlight > 0; ++i) {
+      int index = (start + i) % length;
+      int current = this.inFlight.get(index);
+      if (current < bestInFlight) {
+        best = index;
+        bestInFlight = current;
+      }
+    }
+    return best;
+  }
+
+  private int threadAffinity() {
+    long id = Thread.currentThread().getId();
+    // spread sequential thread ids
+    int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+    return (hash >>> 1) % this.proxies.length;
+  }
+
+  /**
+   * Returns the number of calls in progress of every proxy.
+   *
+   * @return the number of calls in progress indexed by proxy
+   */
+  int[] getInFlight() {
+    int[] result = new int[this.proxies.length];
+    for (int i = 0; i < result.length; ++i) {
+      result[i] = this.inFlight.get(i);
+    }
+    return result;
+  }
+
+}
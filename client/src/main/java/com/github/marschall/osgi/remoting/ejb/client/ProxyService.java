@@ -1,6 +1,10 @@
 package com.github.marschall.osgi.remoting.ejb.client;
 
+import static com.github.marschall.osgi.remoting.ejb.api.InvocationListener.Operation.LOOK_UP;
+
 import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Proxy;
 import java.net.URL;
 import java.util.ArrayList;
@@ -16,8 +20,9 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -31,13 +36,19 @@ import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleListener;
 import org.osgi.framework.ServiceException;
+import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceRegistration;
 
 import com.github.marschall.osgi.remoting.ejb.api.InitialContextService;
+import com.github.marschall.osgi.remoting.ejb.api.InvocationListener;
+import com.github.marschall.osgi.remoting.ejb.api.InvocationMetrics;
 import com.github.marschall.osgi.remoting.ejb.api.ProxyFlusher;
+import com.github.marschall.osgi.remoting.ejb.api.StubHandler;
 
 final class ProxyService implements BundleListener, ProxyFlusher {
 
+  static final String CIRCUIT_BREAKER_STATE = "com.github.marschall.osgi.remoting.ejb.circuitBreakerState";
+
   private final ConcurrentMap<Bundle, BundleProxyContext> contexts;
 
   private final ServiceXmlParser parser;
@@ -50,14 +61,29 @@ final class ProxyService implements BundleListener, ProxyFlusher {
 
   private volatile InitialContextService initialContextService;
 
-  private final ExecutorService executorService;
+  private final LookUpExecutor lookUpExecutor;
+
+  private final ManagementRegistry managementRegistry;
+
+  private final InvocationListenerTracker listeners;
+
+  private final CallerSupport callerSupport;
+
+  private final ClientConfiguration configuration;
 
   private volatile ServiceRegistration<ProxyFlusher> flusherRegisterService;
+
+  private volatile ServiceRegistration<InvocationMetrics> metricsRegisterService;
   
-  ProxyService(BundleContext bundleContext, LoggerBridge logger, ExecutorService executorService) {
+  ProxyService(BundleContext bundleContext, LoggerBridge logger, LookUpExecutor lookUpExecutor,
+      ManagementRegistry managementRegistry, CallerSupport callerSupport, ClientConfiguration configuration) {
     this.bundleContext = bundleContext;
     this.logger = logger;
-    this.executorService = executorService;
+    this.lookUpExecutor = lookUpExecutor;
+    this.managementRegistry = managementRegistry;
+    this.listeners = callerSupport.listeners;
+    this.callerSupport = callerSupport;
+    this.configuration = configuration;
     this.contexts = new ConcurrentHashMap<Bundle, BundleProxyContext>();
     this.parser = new ServiceXmlParser();
   }
@@ -74,6 +100,8 @@ final class ProxyService implements BundleListener, ProxyFlusher {
     this.initialBundles(bundles);
 
     this.flusherRegisterService = this.bundleContext.registerService(ProxyFlusher.class, this, new Hashtable<String, Object>());
+    InvocationMetrics metrics = new InvocationMetricsService(this.contexts.values());
+    this.metricsRegisterService = this.bundleContext.registerService(InvocationMetrics.class, metrics, new Hashtable<String, Object>());
   }
 
   private Bundle[] lookUpParentBundles() {
@@ -169,16 +197,23 @@ final class ProxyService implements BundleListener, ProxyFlusher {
     // switch TCCL only once for all the look ups
     currentThread.setContextClassLoader(classLoader);
 
+    LookUpExecutor.BundleQueue lookUpQueue = this.lookUpExecutor.queueFor(bundle.getSymbolicName());
     List<ServiceCaller> callers = new ArrayList<ServiceCaller>(result.size());
     List<ServiceRegistration<?>> registrations = new ArrayList<ServiceRegistration<?>>(result.size());
-    Context namingContext;
-    try {
-      namingContext = this.createNamingContext();
-    } catch (NamingException e) {
-      // there isn't really anything anybody can do
-      // but we shouldn't pump exception into the OSGi framework
-      this.logger.warning("could not register bundle: " + bundle, e);
-      return;
+    NamingContextHolder namingContext;
+    if (this.hasEagerLookUps(result)) {
+      try {
+        namingContext = new NamingContextHolder(this.initialContextService, this.createNamingContext());
+      } catch (NamingException e) {
+        // there isn't really anything anybody can do
+        // but we shouldn't pump exception into the OSGi framework
+        this.logger.warning("could not register bundle: " + bundle, e);
+        currentThread.setContextClassLoader(oldContextClassLoader);
+        return;
+      }
+    } else {
+      // created by the first look up
+      namingContext = new NamingContextHolder(this.initialContextService);
     }
 
     try {
@@ -191,9 +226,19 @@ final class ProxyService implements BundleListener, ProxyFlusher {
               + ", remote service will not be available", e);
           continue;
         }
-        Future<?> serviceProxy = this.lookUpServiceProxy(interfaceClass, info.jndiName, namingContext, classLoader);
-        ServiceCaller serviceCaller = new ServiceCaller(serviceProxy, classLoader, this.logger, info.jndiName);
-        Object service = Proxy.newProxyInstance(classLoader, new Class[]{interfaceClass}, serviceCaller);
+        ServiceConfiguration serviceConfiguration = new ServiceConfiguration(this.configuration, info.properties);
+        CallPolicy policy = new CallPolicy(info.jndiName, serviceConfiguration);
+        RetryingLookUp serviceProxy = this.lookUpServiceProxy(interfaceClass, info.jndiName, namingContext, classLoader,
+            serviceConfiguration, policy, lookUpQueue);
+        ServiceCaller serviceCaller = new ServiceCaller(serviceProxy, classLoader, this.callerSupport, policy,
+            info.jndiName);
+        Object service = this.createService(interfaceClass, info, serviceCaller, classLoader);
+        if (isLazyLookUp(serviceConfiguration)) {
+          // the look up starts when the first consumer gets the service
+          service = new LazyLookUpServiceFactory(service, serviceProxy);
+        } else {
+          serviceProxy.start();
+        }
         callers.add(serviceCaller);
         // TODO properties
         // TODO exported configs
@@ -201,23 +246,78 @@ final class ProxyService implements BundleListener, ProxyFlusher {
         Dictionary<String, Object> properties = new Hashtable<String, Object>();
         properties.put("service.imported", true);
         properties.put("com.github.marschall.osgi.remoting.ejb.jndiName", info.jndiName);
+        CircuitBreaker circuitBreaker = policy.getCircuitBreaker();
+        if (circuitBreaker != null) {
+          properties.put(CIRCUIT_BREAKER_STATE, circuitBreaker.getState().name());
+        }
         ServiceRegistration<?> serviceRegistration = this.bundleContext.registerService((Class<Object>) interfaceClass, service, properties);
+        if (circuitBreaker != null) {
+          circuitBreaker.setListener(new CircuitBreakerStateUpdater(serviceRegistration, properties, circuitBreaker,
+              lookUpQueue));
+        }
         registrations.add(serviceRegistration);
       }
     } finally {
       currentThread.setContextClassLoader(oldContextClassLoader);
     }
 
-    BundleProxyContext bundleProxyContext = new BundleProxyContext(namingContext, callers, registrations, classLoader);
+    BundleProxyContext bundleProxyContext = new BundleProxyContext(namingContext, callers, registrations, classLoader,
+        bundle, this.listeners);
+    for (ServiceCaller caller : callers) {
+      // allows to look up a single proxy again when its connection was lost
+      caller.setProxyContext(bundleProxyContext);
+    }
     registerBundleProxyContext(bundle, bundleProxyContext);
   }
 
+  private boolean hasEagerLookUps(ParseResult result) {
+    for (ServiceInfo info : result.services) {
+      if (!isLazyLookUp(new ServiceConfiguration(this.configuration, info.properties))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isLazyLookUp(ServiceConfiguration serviceConfiguration) {
+    return serviceConfiguration.getBoolean("lazyLookUp", null, false);
+  }
+
+  private Object createService(Class<?> interfaceClass, ServiceInfo info, ServiceCaller serviceCaller, ClassLoader classLoader) {
+    if (info.stubName != null) {
+      try {
+        Class<?> stubClass = classLoader.loadClass(info.stubName);
+        Constructor<?> constructor = stubClass.getConstructor(StubHandler.class, ClassLoader.class);
+        return interfaceClass.cast(constructor.newInstance(serviceCaller, classLoader));
+      } catch (ClassNotFoundException e) {
+        this.logger.warning("failed to load stub: " + info.stubName + ", falling back to proxy", e);
+      } catch (NoSuchMethodException e) {
+        this.logger.warning("failed to create stub: " + info.stubName + ", falling back to proxy", e);
+      } catch (InstantiationException e) {
+        this.logger.warning("failed to create stub: " + info.stubName + ", falling back to proxy", e);
+      } catch (IllegalAccessException e) {
+        this.logger.warning("failed to create stub: " + info.stubName + ", falling back to proxy", e);
+      } catch (InvocationTargetException e) {
+        this.logger.warning("failed to create stub: " + info.stubName + ", falling back to proxy", e);
+      } catch (ClassCastException e) {
+        this.logger.warning("stub: " + info.stubName + " does not implement: " + info.interfaceName
+            + ", falling back to proxy", e);
+      } catch (LinkageError e) {
+        // eg. generated against a different interface or the API is not visible
+        this.logger.warning("failed to link stub: " + info.stubName + ", falling back to proxy", e);
+      }
+    }
+    return Proxy.newProxyInstance(classLoader, new Class[]{interfaceClass}, serviceCaller);
+  }
+
   private void registerBundleProxyContext(Bundle bundle, BundleProxyContext bundleProxyContext) {
     // detect double registration is case of concurrent call by #bundleChanged and #initialBundles
     BundleProxyContext previous = this.contexts.putIfAbsent(bundle, bundleProxyContext);
     if (previous != null) {
       // undo registration
       bundleProxyContext.unregisterServices(this.bundleContext);
+    } else {
+      this.managementRegistry.registerProxyContext(bundleProxyContext);
     }
   }
 
@@ -225,9 +325,19 @@ final class ProxyService implements BundleListener, ProxyFlusher {
     return new BundleProxyClassLoader(bundle, this.parent);
   }
 
-  private Future<?> lookUpServiceProxy(Class<?> interfaceClazz, String jndiName, Context namingContext, ClassLoader classLoader) {
-    Callable<Object> lookUp = new ProxyLookUp(interfaceClazz, jndiName, namingContext, classLoader);
-    return this.executorService.submit(lookUp);
+  private RetryingLookUp lookUpServiceProxy(Class<?> interfaceClazz, String jndiName, NamingContextHolder namingContext,
+      ClassLoader classLoader, ServiceConfiguration serviceConfiguration, CallPolicy policy,
+      LookUpExecutor.BundleQueue lookUpQueue) {
+    Callable<Object> lookUp = new ProxyLookUp(interfaceClazz, jndiName, namingContext, classLoader, this.listeners,
+        policy.getProxyPoolSize(), policy.getProxyPoolStrategy());
+    RetryingLookUp retryingLookUp = new RetryingLookUp(jndiName, lookUp, lookUpQueue,
+        this.callerSupport.watchdog, this.logger,
+        serviceConfiguration.getLong("lookUpTimeout", null, 0L),
+        serviceConfiguration.getLong("lookUpRetryBackoff", null, 1000L),
+        serviceConfiguration.getLong("lookUpRetryMaxBackoff", null, 60000L),
+        serviceConfiguration.getLong("lookUpWait", null, 0L),
+        TimeUnit.MILLISECONDS);
+    return retryingLookUp;
   }
 
   private Context createNamingContext() throws NamingException {
@@ -243,6 +353,7 @@ final class ProxyService implements BundleListener, ProxyFlusher {
   void removePotentialBundle(Bundle bundle) {
     BundleProxyContext context = this.contexts.remove(bundle);
     if (context != null) {
+      this.managementRegistry.unregisterProxyContext(context);
       try {
         context.release(bundleContext);
       } catch (NamingException e) {
@@ -271,7 +382,7 @@ final class ProxyService implements BundleListener, ProxyFlusher {
     NamingException lastCause = null;
     for (BundleProxyContext proxyContext : contexts.values()) {
       try {
-        proxyContext.flushProxies(this.initialContextService);
+        proxyContext.flushProxies();
       } catch (NamingException e) {
         // TODO collect exceptions for SE 7
         this.logger.error("could not flush proxy", e);
@@ -287,7 +398,7 @@ final class ProxyService implements BundleListener, ProxyFlusher {
     NamingException lastCause = null;
     for (BundleProxyContext proxyContext : contexts.values()) {
       try {
-        proxyContext.flushProxies(this.initialContextService);
+        proxyContext.flushProxies();
       } catch (NamingException e) {
         // TODO collect exceptions for SE 7
         this.logger.error("could not flush proxy", e);
@@ -301,6 +412,7 @@ final class ProxyService implements BundleListener, ProxyFlusher {
 
   void stop() {
     for (BundleProxyContext context : this.contexts.values()) {
+      this.managementRegistry.unregisterProxyContext(context);
       try {
         context.release(bundleContext);
       } catch (NamingException e) {
@@ -312,6 +424,8 @@ final class ProxyService implements BundleListener, ProxyFlusher {
     }
     this.flusherRegisterService.unregister();
     this.flusherRegisterService = null;
+    this.metricsRegisterService.unregister();
+    this.metricsRegisterService = null;
 
     this.bundleContext.removeBundleListener(this);
   }
@@ -320,26 +434,155 @@ final class ProxyService implements BundleListener, ProxyFlusher {
 
     private final Class<?> interfaceClazz;
     private final String jndiName;
-    private final Context namingContext;
+    private final NamingContextHolder namingContext;
     private final ClassLoader classLoader;
+    private final InvocationListenerTracker listeners;
+    private final int poolSize;
+    private final ProxyPool.Strategy poolStrategy;
 
-    ProxyLookUp(Class<?> interfaceClazz, String jndiName, Context namingContext, ClassLoader classLoader) {
+    ProxyLookUp(Class<?> interfaceClazz, String jndiName, NamingContextHolder namingContext, ClassLoader classLoader,
+        InvocationListenerTracker listeners, int poolSize, ProxyPool.Strategy poolStrategy) {
       this.interfaceClazz = interfaceClazz;
       this.jndiName = jndiName;
       this.namingContext = namingContext;
       this.classLoader = classLoader;
+      this.listeners = listeners;
+      this.poolSize = poolSize;
+      this.poolStrategy = poolStrategy;
     }
 
     @Override
     public Object call() throws Exception {
+      InvocationListener listener = this.listeners.get();
+      Object listenerContext = listener != null ? listener.started(LOOK_UP, this.jndiName, null) : null;
+      Throwable failure = null;
       Thread currentThread = Thread.currentThread();
       ClassLoader oldContextClassLoader = currentThread.getContextClassLoader();
       try {
         currentThread.setContextClassLoader(this.classLoader);
-        Object proxy = namingContext.lookup(jndiName);
+        // created here for lazy look ups, needs the TCCL
+        Context context = this.namingContext.get();
+        if (this.poolSize > 1) {
+          ProxyPool pool = ProxyPool.lookUp(context, this.jndiName, this.poolSize, this.poolStrategy);
+          // fail early if the proxies are of the wrong type
+          this.interfaceClazz.cast(pool.getPrimary());
+          return pool;
+        }
+        Object proxy = context.lookup(this.jndiName);
         return this.interfaceClazz.cast(proxy);
+      } catch (Exception e) {
+        failure = e;
+        throw e;
       } finally {
         currentThread.setContextClassLoader(oldContextClassLoader);
+        if (listener != null) {
+          listener.finished(listenerContext, failure);
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Registered instead of the service of a lazy look up, starts the look up
+   * when the first consumer gets the service.
+   */
+  static final class LazyLookUpServiceFactory implements ServiceFactory<Object> {
+
+    private final Object service;
+
+    private final RetryingLookUp lookUp;
+
+    LazyLookUpServiceFactory(Object service, RetryingLookUp lookUp) {
+      this.service = service;
+      this.lookUp = lookUp;
+    }
+
+    @Override
+    public Object getService(Bundle bundle, ServiceRegistration<Object> registration) {
+      this.lookUp.start();
+      return this.service;
+    }
+
+    @Override
+    public void ungetService(Bundle bundle, ServiceRegistration<Object> registration, Object service) {
+      // the proxy is shared by all consumers
+    }
+
+  }
+
+  /**
+   * Publishes the state of a circuit breaker as service property so that
+   * consumers can filter on it.
+   *
+   * <p>
+   * Service listeners are called synchronously, so the properties are
+   * updated on the look up executor instead of the calling thread. The
+   * current state of the breaker is published rather than the state of the
+   * notification, so updates that overtake each other can't leave a stale
+   * state behind.
+   * </p>
+   */
+  static final class CircuitBreakerStateUpdater implements CircuitBreaker.Listener, Runnable {
+
+    private final ServiceRegistration<?> registration;
+
+    /**
+     * Guarded by itself.
+     */
+    private final Dictionary<String, Object> properties;
+
+    private final CircuitBreaker circuitBreaker;
+
+    private final LookUpExecutor.BundleQueue executor;
+
+    /**
+     * Whether an update is queued, later changes are published by it.
+     */
+    private final AtomicBoolean pending;
+
+    CircuitBreakerStateUpdater(ServiceRegistration<?> registration, Dictionary<String, Object> properties,
+        CircuitBreaker circuitBreaker, LookUpExecutor.BundleQueue executor) {
+      this.registration = registration;
+      this.properties = properties;
+      this.circuitBreaker = circuitBreaker;
+      this.executor = executor;
+      this.pending = new AtomicBoolean();
+    }
+
+    @Override
+    public void stateChanged(CircuitBreaker.State state) {
+      if (this.pending.compareAndSet(false, true)) {
+        try {
+          this.executor.submit(this);
+        } catch (RejectedExecutionException e) {
+          // shutting down, the service is about to be unregistered
+          this.pending.set(false);
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      // changes after this point queue a new update
+      this.pending.set(false);
+      synchronized (this.properties) {
+        String state = this.circuitBreaker.getState().name();
+        if (state.equals(this.properties.get(CIRCUIT_BREAKER_STATE))) {
+          return;
+        }
+        this.properties.put(CIRCUIT_BREAKER_STATE, state);
+        Dictionary<String, Object> updated = new Hashtable<String, Object>();
+        Enumeration<String> keys = this.properties.keys();
+        while (keys.hasMoreElements()) {
+          String key = keys.nextElement();
+          updated.put(key, this.properties.get(key));
+        }
+        try {
+          this.registration.setProperties(updated);
+        } catch (IllegalStateException e) {
+          // service already unregistered
+        }
       }
     }
 
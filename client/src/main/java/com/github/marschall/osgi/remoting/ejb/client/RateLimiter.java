@@ -0,0 +1,181 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Limits the rate of calls with a token bucket.
+ *
+ * <p>
+ * Implemented as generic cell rate algorithm: instead of counting tokens the
+ * theoretical arrival time of the next call is kept in an {@link AtomicLong}
+ * and updated with compare and set. A call is allowed if it arrives no more
+ * than the burst tolerance before the theoretical arrival time. Calls that
+ * may wait reserve their slot first and then park until it is due.
+ * </p>
+ *
+ * <p>
+ * The rate and burst can be changed at any time, a rate of {@code 0}
+ * disables the limit.
+ * </p>
+ */
+final class RateLimiter implements CallGuard {
+
+  private final String name;
+
+  /**
+   * The maximum time in nanoseconds to wait for a slot, {@code 0} to fail
+   * fast.
+   */
+  private final long maxWait;
+
+  /**
+   * Theoretical arrival time of the next call in {@link System#nanoTime()}.
+   */
+  private final AtomicLong theoreticalArrival;
+
+  private final AtomicLong rejectionCount;
+
+  private final AtomicLong waitCount;
+
+  private final AtomicLong waitTime;
+
+  private volatile Limits limits;
+
+  RateLimiter(String name, double rate, int burst, long maxWait, TimeUnit unit) {
+    this.name = name;
+    this.maxWait = unit.toNanos(maxWait);
+    this.theoreticalArrival = new AtomicLong(System.nanoTime());
+    this.rejectionCount = new AtomicLong();
+    this.waitCount = new AtomicLong();
+    this.waitTime = new AtomicLong();
+    this.setLimits(rate, burst);
+  }
+
+  void setLimits(double rate, int burst) {
+    this.limits = new Limits(rate, burst);
+  }
+
+  double getRate() {
+    return this.limits.rate;
+  }
+
+  int getBurst() {
+    return this.limits.burst;
+  }
+
+  @Override
+  public long acquire() {
+    Limits current = this.limits;
+    if (current.interval == 0L) {
+      // unlimited
+      return 0L;
+    }
+    long wait = this.reserve(current, System.nanoTime());
+    if (wait == 0L) {
+      return 0L;
+    }
+    if (wait < 0L) {
+      this.rejectionCount.incrementAndGet();
+      throw new CallRejectedException("rate limit of: " + this.name + " exceeded, maximum calls per second: "
+          + current.rate);
+    }
+    this.waitCount.incrementAndGet();
+    this.waitTime.addAndGet(wait);
+    long deadline = System.nanoTime() + wait;
+    long remaining = wait;
+    while (remaining > 0L) {
+      LockSupport.parkNanos(this, remaining);
+      if (Thread.interrupted()) {
+        // the slot is lost, it is not worth to give it back
+        Thread.currentThread().interrupt();
+        this.rejectionCount.incrementAndGet();
+        throw new CallRejectedException("interrupted while waiting for rate limit of: " + this.name);
+      }
+      remaining = deadline - System.nanoTime();
+    }
+    return 0L;
+  }
+
+  /**
+   * Reserves the slot for a call.
+   *
+   * @return {@code 0} if the call may proceed immediately, the time in
+   *  nanoseconds to wait or {@code -1} if the call is rejected
+   */
+  long reserve(Limits current, long now) {
+    while (true) {
+      long arrival = this.theoreticalArrival.get();
+      // the earliest time this call conforms
+      long allowedAt = arrival - current.tolerance;
+      long wait = allowedAt - now;
+      if (wait > this.maxWait) {
+        return -1L;
+      }
+      long next = Math.max(arrival, now) + current.interval;
+      if (this.theoreticalArrival.compareAndSet(arrival, next)) {
+        return Math.max(wait, 0L);
+      }
+    }
+  }
+
+  @Override
+  public void release(long permit, long duration, boolean failed) {
+    // nothing
+  }
+
+  @Override
+  public void cancel(long permit) {
+    // the slot is used up
+  }
+
+  long getRejectionCount() {
+    return this.rejectionCount.get();
+  }
+
+  long getWaitCount() {
+    return this.waitCount.get();
+  }
+
+  /**
+   * Returns the total time calls were delayed.
+   *
+   * @return the total wait time in nanoseconds
+   */
+  long getWaitTime() {
+    return this.waitTime.get();
+  }
+
+  static final class Limits {
+
+    final double rate;
+
+    final int burst;
+
+    /**
+     * Nanoseconds between two calls at the configured rate, {@code 0} if
+     * unlimited.
+     */
+    final long interval;
+
+    /**
+     * How many nanoseconds a call may arrive early, allows bursts.
+     */
+    final long tolerance;
+
+    Limits(double rate, int burst) {
+      this.rate = rate > 0.0d ? rate : 0.0d;
+      this.burst = Math.max(burst, 1);
+      if (this.rate > 0.0d) {
+        this.interval = Math.max((long) (TimeUnit.SECONDS.toNanos(1L) / this.rate), 1L);
+        this.tolerance = (this.burst - 1) * this.interval;
+      } else {
+        this.interval = 0L;
+        this.tolerance = 0L;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,138 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.osgi.framework.ServiceException.REMOTE;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.osgi.framework.ServiceException;
+
+import com.github.marschall.osgi.remoting.ejb.api.CallFuture;
+import com.github.marschall.osgi.remoting.ejb.api.CallListener;
+
+/**
+ * Wraps the {@link Future} returned by an EJB {@code @Asynchronous} method so
+ * that waiting for the result happens with the class loader of the bundle
+ * as TCCL.
+ *
+ * <p>
+ * The future of the EJB client doesn't support listeners so the first
+ * listener added starts a task on the asynchronous executor that waits for
+ * the result.
+ * </p>
+ *
+ * @param <T> the type of the result
+ */
+final class RemoteFuture<T> implements CallFuture<T> {
+
+  private final Future<T> delegate;
+
+  private final ClassLoader classLoader;
+
+  private final CallerSupport support;
+
+  private final Object lock;
+
+  /**
+   * Waits for the result and notifies the listeners, {@code null} until the
+   * first listener is added.
+   */
+  private CallFutureTask<T> waiter;
+
+  RemoteFuture(Future<T> delegate, ClassLoader classLoader, CallerSupport support) {
+    this.delegate = delegate;
+    this.classLoader = classLoader;
+    this.support = support;
+    this.lock = new Object();
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    return this.delegate.cancel(mayInterruptIfRunning);
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return this.delegate.isCancelled();
+  }
+
+  @Override
+  public boolean isDone() {
+    return this.delegate.isDone();
+  }
+
+  @Override
+  public T get() throws InterruptedException, ExecutionException {
+    long timeout = this.support.asyncResultTimeout;
+    if (timeout <= 0L) {
+      return this.getWithoutTimeout();
+    }
+    try {
+      return this.get(timeout, TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      throw new ServiceException("result of asynchronous call not available after: "
+          + TimeUnit.NANOSECONDS.toMillis(timeout) + "ms", REMOTE, e);
+    }
+  }
+
+  private T getWithoutTimeout() throws InterruptedException, ExecutionException {
+    Thread currentThread = Thread.currentThread();
+    ClassLoader oldContextClassLoader = currentThread.getContextClassLoader();
+    boolean switchClassLoader = oldContextClassLoader != this.classLoader;
+    if (switchClassLoader) {
+      currentThread.setContextClassLoader(this.classLoader);
+    }
+    try {
+      return this.delegate.get();
+    } finally {
+      if (switchClassLoader) {
+        currentThread.setContextClassLoader(oldContextClassLoader);
+      }
+    }
+  }
+
+  @Override
+  public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    Thread currentThread = Thread.currentThread();
+    ClassLoader oldContextClassLoader = currentThread.getContextClassLoader();
+    boolean switchClassLoader = oldContextClassLoader != this.classLoader;
+    if (switchClassLoader) {
+      currentThread.setContextClassLoader(this.classLoader);
+    }
+    try {
+      return this.delegate.get(timeout, unit);
+    } finally {
+      if (switchClassLoader) {
+        currentThread.setContextClassLoader(oldContextClassLoader);
+      }
+    }
+  }
+
+  @Override
+  public void addListener(CallListener<? super T> listener) {
+    CallFutureTask<T> task;
+    boolean start = false;
+    synchronized (this.lock) {
+      task = this.waiter;
+      if (task == null) {
+        task = new CallFutureTask<T>(new Callable<T>() {
+
+          @Override
+          public T call() throws Exception {
+            return getWithoutTimeout();
+          }
+        }, this.support.logger);
+        this.waiter = task;
+        start = true;
+      }
+    }
+    task.addListener(listener);
+    if (start) {
+      this.support.asyncExecutor.execute(task);
+    }
+  }
+
+}
@@ -0,0 +1,286 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caches the results of a read only remote method by its arguments.
+ *
+ * <p>
+ * The least recently used entries are evicted once the cache holds more
+ * than the maximum number of entries or the total weight of the entries
+ * exceeds the maximum weight. The weight of an entry is one plus the number
+ * of elements if the result is a collection, map or array, so that large
+ * results count more. Entries can additionally expire after a fixed time.
+ * </p>
+ *
+ * <p>
+ * Results and arguments are not copied, callers must not modify them.
+ * </p>
+ */
+final class ResultCache {
+
+  /**
+   * Returned by {@link #get(Object[])} if there is no cached result,
+   * {@code null} is a valid result.
+   */
+  static final Object MISS = new Object();
+
+  private final int maxEntries;
+
+  /**
+   * {@code 0} for no limit.
+   */
+  private final long maxWeight;
+
+  /**
+   * In nanoseconds, {@code 0} if entries don't expire.
+   */
+  private final long timeToLive;
+
+  private final Lock lock;
+
+  /**
+   * In access order, guarded by {@link #lock}.
+   */
+  private final LinkedHashMap<Key, Entry> entries;
+
+  /**
+   * Guarded by {@link #lock}.
+   */
+  private long weight;
+
+  /**
+   * Incremented by {@link #clear()} so that results of calls started before
+   * aren't cached.
+   */
+  private volatile int generation;
+
+  private final AtomicLong hitCount;
+
+  private final AtomicLong missCount;
+
+  private final AtomicLong evictionCount;
+
+  /**
+   * Creates a new cache.
+   *
+   * @param maxEntries the maximum number of cached results
+   * @param maxWeight the maximum total weight, {@code 0} for no limit
+   * @param timeToLive how long a result is cached, {@code 0} until evicted
+   * @param unit the unit of {@code timeToLive}
+   */
+  ResultCache(int maxEntries, long maxWeight, long timeToLive, TimeUnit unit) {
+    this.maxEntries = Math.max(maxEntries, 1);
+    this.maxWeight = Math.max(maxWeight, 0L);
+    this.timeToLive = Math.max(unit.toNanos(timeToLive), 0L);
+    this.lock = new ReentrantLock();
+    this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    this.hitCount = new AtomicLong();
+    this.missCount = new AtomicLong();
+    this.evictionCount = new AtomicLong();
+  }
+
+  /**
+   * Returns the cached result of a call.
+   *
+   * @param args the arguments of the call, may be {@code null}
+   * @return the cached result or {@link #MISS}
+   */
+  Object get(Object[] args) {
+    Key key = new Key(args);
+    this.lock.lock();
+    try {
+      Entry entry = this.entries.get(key);
+      if (entry != null) {
+        if (this.timeToLive == 0L || System.nanoTime() - entry.expiresAt < 0L) {
+          this.hitCount.incrementAndGet();
+          return entry.value;
+        }
+        this.remove(key, entry);
+      }
+    } finally {
+      this.lock.unlock();
+    }
+    this.missCount.incrementAndGet();
+    return MISS;
+  }
+
+  /**
+   * Returns the generation to pass to {@link #put(Object[], Object, int)},
+   * has to be called before the call is made.
+   *
+   * @return the current generation
+   */
+  int getGeneration() {
+    return this.generation;
+  }
+
+  /**
+   * Caches the result of a call unless the cache was cleared since the call
+   * started.
+   *
+   * @param args the arguments of the call
+   * @param value the result of the call
+   * @param callGeneration the generation when the call started
+   */
+  void put(Object[] args, Object value, int callGeneration) {
+    Key key = new Key(args != null ? args.clone() : null);
+    long expiresAt = this.timeToLive != 0L ? System.nanoTime() + this.timeToLive : 0L;
+    Entry entry = new Entry(value, weigh(value), expiresAt);
+    this.lock.lock();
+    try {
+      if (callGeneration != this.generation) {
+        return;
+      }
+      Entry previous = this.entries.put(key, entry);
+      if (previous != null) {
+        this.weight -= previous.weight;
+      }
+      this.weight += entry.weight;
+      this.evict();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Guarded by {@link #lock}.
+   */
+  private void evict() {
+    Iterator<Map.Entry<Key, Entry>> iterator = this.entries.entrySet().iterator();
+    while (iterator.hasNext() && (this.entries.size() > this.maxEntries
+        || (this.maxWeight > 0L && this.weight > this.maxWeight))) {
+      Entry eldest = iterator.next().getValue();
+      iterator.remove();
+      this.weight -= eldest.weight;
+      this.evictionCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Guarded by {@link #lock}.
+   */
+  private void remove(Key key, Entry entry) {
+    this.entries.remove(key);
+    this.weight -= entry.weight;
+    this.evictionCount.incrementAndGet();
+  }
+
+  private static long weigh(Object value) {
+    if (value instanceof Collection) {
+      return 1L + ((Collection<?>) value).size();
+    } else if (value instanceof Map) {
+      return 1L + ((Map<?, ?>) value).size();
+    } else if (value != null && value.getClass().isArray()) {
+      return 1L + Array.getLength(value);
+    } else {
+      return 1L;
+    }
+  }
+
+  /**
+   * Removes all cached results.
+   */
+  void clear() {
+    this.lock.lock();
+    try {
+      this.generation += 1;
+      this.entries.clear();
+      this.weight = 0L;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  int size() {
+    this.lock.lock();
+    try {
+      return this.entries.size();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  long getWeight() {
+    this.lock.lock();
+    try {
+      return this.weight;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  long getHitCount() {
+    return this.hitCount.get();
+  }
+
+  long getMissCount() {
+    return this.missCount.get();
+  }
+
+  long getEvictionCount() {
+    return this.evictionCount.get();
+  }
+
+  /**
+   * The arguments of a call compared by value.
+   */
+  static final class Key {
+
+    private final Object[] args;
+
+    private final int hash;
+
+    Key(Object[] args) {
+      this.args = args;
+      this.hash = Arrays.deepHashCode(args);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return this.hash == other.hash && Arrays.deepEquals(this.args, other.args);
+    }
+
+  }
+
+  static final class Entry {
+
+    final Object value;
+
+    final long weight;
+
+    /**
+     * In {@link System#nanoTime()}, {@code 0} if the entry doesn't expire.
+     */
+    final long expiresAt;
+
+    Entry(Object value, long weight, long expiresAt) {
+      this.value = value;
+      this.weight = weight;
+      this.expiresAt = expiresAt;
+    }
+
+  }
+
+}
@@ -0,0 +1,205 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether and when a failed call to an idempotent method of a remote
+ * service is retried.
+ *
+ * <p>
+ * Only failures caused by a lost connection are retried. They are
+ * recognized by the class names of the exceptions in the cause chain,
+ * including their superclasses, so the classes don't have to be visible to
+ * this bundle. Between two attempts the caller sleeps for a random time up
+ * to an exponentially growing backoff (full jitter).
+ * </p>
+ *
+ * <p>
+ * To avoid retries multiplying the load on a server that is down, retries
+ * are limited by a budget shared by all methods of the service. Every call
+ * deposits a fraction of a retry, every retry withdraws a full one.
+ * </p>
+ */
+final class RetryPolicy {
+
+  /**
+   * The failures classified as connection loss by default.
+   */
+  static final String DEFAULT_RETRY_ON = "java.net.ConnectException,java.net.NoRouteToHostException,"
+      + "java.net.SocketException,java.rmi.ConnectException,java.rmi.ConnectIOException,"
+      + "java.rmi.NoSuchObjectException,javax.ejb.NoSuchEJBException,javax.naming.CommunicationException,"
+      + "javax.naming.ServiceUnavailableException";
+
+  /**
+   * A retry in the budget, the budget is kept in thousandths of a retry.
+   */
+  private static final long RETRY = 1000L;
+
+  /**
+   * How many retries the budget can save up, also the initial balance.
+   */
+  private static final long MAX_BALANCE = 10L * RETRY;
+
+  private final int maxRetries;
+
+  private final long backoff;
+
+  private final long maxBackoff;
+
+  /**
+   * Thousandths of a retry deposited by every call.
+   */
+  private final long deposit;
+
+  private final String[] retryOn;
+
+  private final AtomicLong balance;
+
+  private final AtomicLong retryCount;
+
+  private final AtomicLong exhaustedCount;
+
+  private final Random random;
+
+  /**
+   * Creates a new retry policy.
+   *
+   * @param maxRetries the maximum number of retries of a single call
+   * @param backoff the backoff before the first retry, doubled for every
+   *  further retry
+   * @param maxBackoff the upper bound of the backoff
+   * @param budget the number of retries allowed in percent of the calls
+   * @param retryOn the comma separated class names of the failures
+   *  considered connection loss
+   * @param unit the unit of {@code backoff} and {@code maxBackoff}
+   */
+  RetryPolicy(int maxRetries, long backoff, long maxBackoff, int budget, String retryOn, TimeUnit unit) {
+    this.maxRetries = Math.max(maxRetries, 0);
+    this.backoff = Math.max(unit.toNanos(backoff), 0L);
+    this.maxBackoff = Math.max(unit.toNanos(maxBackoff), this.backoff);
+    this.deposit = Math.max(budget, 0) * RETRY / 100L;
+    this.retryOn = splitNames(retryOn);
+    this.balance = new AtomicLong(MAX_BALANCE);
+    this.retryCount = new AtomicLong();
+    this.exhaustedCount = new AtomicLong();
+    this.random = new Random();
+  }
+
+  private static String[] splitNames(String names) {
+    String[] split = names.split(",");
+    int count = 0;
+    for (String name : split) {
+      String trimmed = name.trim();
+      if (!trimmed.isEmpty()) {
+        split[count++] = trimmed;
+      }
+    }
+    String[] result = new String[count];
+    System.arraycopy(split, 0, result, 0, count);
+    return result;
+  }
+
+  /**
+   * Records a call, has to be called once for every call that may be
+   * retried.
+   */
+  void called() {
+    long current;
+    do {
+      current = this.balance.get();
+      if (current >= MAX_BALANCE) {
+        return;
+      }
+    } while (!this.balance.compareAndSet(current, Math.min(current + this.deposit, MAX_BALANCE)));
+  }
+
+  /**
+   * Decides whether a failed call is retried, withdraws a retry from the
+   * budget if it is.
+   *
+   * @param retries the number of retries already made
+   * @param failure the failure of the last attempt
+   * @return whether the call is retried
+   */
+  boolean retry(int retries, Throwable failure) {
+    if (retries >= this.maxRetries || !this.isConnectionLoss(failure)) {
+      return false;
+    }
+    long current;
+    do {
+      current = this.balance.get();
+      if (current < RETRY) {
+        this.exhaustedCount.incrementAndGet();
+        return false;
+      }
+    } while (!this.balance.compareAndSet(current, current - RETRY));
+    this.retryCount.incrementAndGet();
+    return true;
+  }
+
+  boolean isConnectionLoss(Throwable failure) {
+    if (failure instanceof CallRejectedException || failure instanceof CallTimeoutException) {
+      // the server wasn't called or may still be executing the call
+      return false;
+    }
+    Throwable current = failure;
+    // protect against cause cycles
+    for (int depth = 0; current != null && depth < 16; ++depth) {
+      if (!(current instanceof ExecutionException) && this.isRetryOn(current.getClass())) {
+        return true;
+      }
+      if (current.getCause() == current) {
+        break;
+      }
+      current = current.getCause();
+    }
+    return false;
+  }
+
+  private boolean isRetryOn(Class<?> failureClass) {
+    for (Class<?> type = failureClass; type != null; type = type.getSuperclass()) {
+      String name = type.getName();
+      for (String retryName : this.retryOn) {
+        if (retryName.equals(name)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns how long to wait before a retry.
+   *
+   * @param retries the number of retries already made
+   * @return the backoff in nanoseconds
+   */
+  long backoff(int retries) {
+    if (this.backoff == 0L) {
+      return 0L;
+    }
+    long ceiling = this.backoff << Math.min(retries, 30);
+    if (ceiling <= 0L || ceiling > this.maxBackoff) {
+      // overflow
+      ceiling = this.maxBackoff;
+    }
+    return (long) (this.random.nextDouble() * ceiling);
+  }
+
+  long getRetryCount() {
+    return this.retryCount.get();
+  }
+
+  /**
+   * Returns how often a retry was not made because the budget was used up.
+   *
+   * @return the number of retries denied by the budget
+   */
+  long getExhaustedCount() {
+    return this.exhaustedCount.get();
+  }
+
+}
@@ -0,0 +1,359 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The look up of an EJB client proxy that is repeated in the background
+ * until it succeeds.
+ *
+ * <p>
+ * A look up taking longer than the look up timeout is interrupted and
+ * counts as failed. After a failed look up the next one is scheduled with
+ * an exponentially growing backoff. Once a look up has failed
+ * {@link #get()} waits for at most the configured time for a repeated look
+ * up to succeed and then throws the last failure, so callers fail fast while
+ * the server is down.
+ * </p>
+ *
+ * <p>
+ * A lazy look up is only started by the first {@link #get()}.
+ * </p>
+ */
+final class RetryingLookUp implements Future<Object>, Runnable {
+
+  private final String jndiName;
+
+  private final Callable<Object> lookUp;
+
+  private final LookUpExecutor.BundleQueue executor;
+
+  private final CallWatchdog watchdog;
+
+  private final LoggerBridge logger;
+
+  /**
+   * In nanoseconds, {@code 0} if look ups don't time out.
+   */
+  private final long timeout;
+
+  /**
+   * In nanoseconds, {@code 0} if failed look ups are not repeated.
+   */
+  private final long backoff;
+
+  private final long maxBackoff;
+
+  /**
+   * How long {@link #get()} waits in nanoseconds once a look up failed.
+   */
+  private final long maxWait;
+
+  private final Lock lock;
+
+  private final Condition completed;
+
+  /**
+   * Guarded by {@link #lock}.
+   */
+  private boolean succeeded;
+
+  /**
+   * Guarded by {@link #lock}.
+   */
+  private Object result;
+
+  /**
+   * The failure of the last look up, {@code null} before the first look up
+   * finished. Guarded by {@link #lock}.
+   */
+  private Throwable failure;
+
+  /**
+   * Guarded by {@link #lock}.
+   */
+  private int failedAttempts;
+
+  /**
+   * Guarded by {@link #lock}.
+   */
+  private boolean cancelled;
+
+  /**
+   * Guarded by {@link #lock}.
+   */
+  private boolean started;
+
+  /**
+   * The next scheduled look up, guarded by {@link #lock}.
+   */
+  private Future<?> next;
+
+  /**
+   * Creates a new look up, {@link #start()} has to be called to start it.
+   *
+   * @param jndiName the JNDI name to look up, used in messages
+   * @param lookUp does the actual look up
+   * @param executor runs the look ups of the bundle
+   * @param watchdog interrupts look ups that take too long
+   * @param logger logs failed look ups
+   * @param timeout the maximum duration of a single look up, {@code 0} for
+   *  no limit
+   * @param backoff the wait before the first repeated look up, {@code 0} to
+   *  not repeat failed look ups
+   * @param maxBackoff the maximum wait between two look ups
+   * @param maxWait how long {@link #get()} waits for a look up once one has
+   *  failed
+   * @param unit the unit of all durations
+   */
+  RetryingLookUp(String jndiName, Callable<Object> lookUp, LookUpExecutor.BundleQueue executor,
+      CallWatchdog watchdog, LoggerBridge logger, long timeout, long backoff, long maxBackoff, long maxWait,
+      TimeUnit unit) {
+    this.jndiName = jndiName;
+    this.lookUp = lookUp;
+    this.executor = executor;
+    this.watchdog = watchdog;
+    this.logger = logger;
+    this.timeout = Math.max(unit.toNanos(timeout), 0L);
+    this.backoff = Math.max(unit.toNanos(backoff), 0L);
+    this.maxBackoff = Math.max(unit.toNanos(maxBackoff), this.backoff);
+    this.maxWait = Math.max(unit.toNanos(maxWait), 0L);
+    this.lock = new ReentrantLock();
+    this.completed = this.lock.newCondition();
+  }
+
+  /**
+   * Starts the look up unless it was already started.
+   */
+  void start() {
+    this.lock.lock();
+    try {
+      if (this.started || this.cancelled) {
+        return;
+      }
+      this.started = true;
+      this.next = this.executor.submit(this);
+    } catch (RejectedExecutionException e) {
+      // shutting down
+      this.failure = e;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Checks whether the look up was started.
+   *
+   * @return whether {@link #start()} was called
+   */
+  boolean isStarted() {
+    this.lock.lock();
+    try {
+      return this.started;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  @Override
+  public void run() {
+    this.lock.lock();
+    try {
+      if (this.cancelled) {
+        return;
+      }
+    } finally {
+      this.lock.unlock();
+    }
+    CallWatchdog.Watch watch = this.timeout > 0L ? this.watchdog.watch(System.nanoTime() + this.timeout) : null;
+    Object proxy = null;
+    Throwable lookUpFailure = null;
+    try {
+      proxy = this.lookUp.call();
+    } catch (Exception e) {
+      lookUpFailure = e;
+    } finally {
+      if (watch != null && watch.finish() && lookUpFailure != null) {
+        TimeoutException timeoutException = new TimeoutException("look up of: " + this.jndiName
+            + " did not finish within " + TimeUnit.NANOSECONDS.toMillis(this.timeout) + " ms");
+        timeoutException.initCause(lookUpFailure);
+        lookUpFailure = timeoutException;
+      }
+    }
+    if (lookUpFailure == null) {
+      this.succeeded(proxy);
+    } else {
+      this.failed(lookUpFailure);
+    }
+  }
+
+  private void succeeded(Object proxy) {
+    this.lock.lock();
+    try {
+      this.result = proxy;
+      this.succeeded = true;
+      this.failure = null;
+      this.next = null;
+      this.completed.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void failed(Throwable lookUpFailure) {
+    boolean retry;
+    this.lock.lock();
+    try {
+      this.failure = lookUpFailure;
+      this.failedAttempts += 1;
+      retry = this.backoff > 0L && !this.cancelled;
+      this.next = null;
+      if (retry) {
+        try {
+          this.next = this.executor.schedule(this, this.nextBackoff(), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+          // shutting down
+          retry = false;
+        }
+      }
+      this.completed.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+    if (retry) {
+      this.logger.error(this.jndiName, "look up of: " + this.jndiName + " failed, will be repeated", lookUpFailure);
+    }
+  }
+
+  /**
+   * Guarded by {@link #lock}.
+   */
+  private long nextBackoff() {
+    long nextBackoff = this.backoff << Math.min(this.failedAttempts - 1, 30);
+    if (nextBackoff <= 0L || nextBackoff > this.maxBackoff) {
+      nextBackoff = this.maxBackoff;
+    }
+    return nextBackoff;
+  }
+
+  /**
+   * Checks whether a failed look up will be repeated.
+   *
+   * @return whether the last look up failed and another one is scheduled
+   */
+  boolean isRetrying() {
+    this.lock.lock();
+    try {
+      return !this.succeeded && this.failure != null && this.next != null;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    Future<?> scheduled;
+    this.lock.lock();
+    try {
+      if (this.succeeded || this.cancelled) {
+        return false;
+      }
+      this.cancelled = true;
+      scheduled = this.next;
+      this.next = null;
+      this.completed.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+    if (scheduled != null) {
+      scheduled.cancel(mayInterruptIfRunning);
+    }
+    return true;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    this.lock.lock();
+    try {
+      return this.cancelled;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean isDone() {
+    this.lock.lock();
+    try {
+      return this.succeeded || this.cancelled || (this.failure != null && this.next == null);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  @Override
+  public Object get() throws InterruptedException, ExecutionException {
+    try {
+      return this.get(0L);
+    } catch (TimeoutException e) {
+      // can't happen without a timeout
+      throw new ExecutionException(e);
+    }
+  }
+
+  @Override
+  public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    long nanos = unit.toNanos(timeout);
+    return this.get(nanos > 0L ? nanos : -1L);
+  }
+
+  /**
+   * Waits for the look up.
+   *
+   * @param timeout the maximum time to wait in nanoseconds, {@code 0} to
+   *  wait forever, negative to not wait at all
+   */
+  private Object get(long timeout) throws InterruptedException, ExecutionException, TimeoutException {
+    // the first call of a lazy look up
+    this.start();
+    long start = System.nanoTime();
+    this.lock.lock();
+    try {
+      while (true) {
+        if (this.succeeded) {
+          return this.result;
+        }
+        if (this.cancelled) {
+          throw new CancellationException("look up of: " + this.jndiName + " was cancelled");
+        }
+        long elapsed = System.nanoTime() - start;
+        long remaining = timeout == 0L ? Long.MAX_VALUE : timeout - elapsed;
+        if (this.failure != null) {
+          if (this.next == null || this.maxWait - elapsed <= 0L) {
+            throw new ExecutionException(this.failure);
+          }
+          remaining = Math.min(remaining, this.maxWait - elapsed);
+        }
+        if (remaining <= 0L) {
+          throw new TimeoutException("look up of: " + this.jndiName + " did not finish in time");
+        }
+        if (remaining == Long.MAX_VALUE) {
+          this.completed.await();
+        } else {
+          this.completed.awaitNanos(remaining);
+        }
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+}
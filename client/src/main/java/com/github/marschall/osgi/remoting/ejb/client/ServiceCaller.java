@@ -1,69 +1,1055 @@
 package com.github.marschall.osgi.remoting.ejb.client;
 
-import static org.osgi.framework.ServiceException.REMOTE;
+import static com.github.marschall.osgi.remoting.ejb.api.InvocationListener.Operation.FLUSH_PROXY;
+import static com.github.marschall.osgi.remoting.ejb.api.InvocationListener.Operation.INVOCATION;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.naming.Context;
 import javax.naming.NamingException;
 
 import org.osgi.framework.ServiceException;
 
-class ServiceCaller implements InvocationHandler {
+import com.github.marschall.osgi.remoting.ejb.api.Deadline;
+import com.github.marschall.osgi.remoting.ejb.api.InvocationListener;
+import com.github.marschall.osgi.remoting.ejb.api.InvocationStatistics;
+import com.github.marschall.osgi.remoting.ejb.api.StubHandler;
+
+/**
+ * Calls the EJB client proxy.
+ *
+ * <p>
+ * Used as the {@link InvocationHandler} of a {@link java.lang.reflect.Proxy}
+ * or as the {@link StubHandler} of a stub generated by the annotation
+ * processor.
+ * </p>
+ */
+class ServiceCaller implements StubHandler, ServiceCallerMXBean {
+
+  private static final long[] NO_PERMITS = new long[0];
 
   private volatile Future<?> serviceProxy;
 
+  /**
+   * The EJB client proxy once the look up finished, {@code null} before that
+   * and after {@link #invalidate()}.
+   */
+  private volatile Object target;
+
   private final ClassLoader classLoader;
 
   private final LoggerBridge logger;
 
+  private final CallerSupport support;
+
+  private final CallPolicy policy;
+
   private volatile boolean valid;
 
   private final String jndiName;
 
+  private final ConcurrentMap<Method, MethodInvoker> invokers;
+
+  /**
+   * {@code null} unless several EJB client proxies are used, set before
+   * {@link #target}.
+   */
+  private volatile ProxyPool pool;
+
+  /**
+   * Used to look up the EJB client proxy again, {@code null} until the
+   * services of the bundle are registered.
+   */
+  private volatile BundleProxyContext proxyContext;
+
+  /**
+   * Makes sure only one thread looks up the EJB client proxy again.
+   */
+  private final Lock lookUpLock;
+
+  private volatile Throwable lastError;
 
-  ServiceCaller(Future<?> serviceProxy, ClassLoader classLoader, LoggerBridge logger, String jndiName) {
+  private volatile long lastErrorTime;
+
+
+  ServiceCaller(Future<?> serviceProxy, ClassLoader classLoader, CallerSupport support, CallPolicy policy,
+      String jndiName) {
     this.serviceProxy = serviceProxy;
     this.classLoader = classLoader;
-    this.logger = logger;
+    this.support = support;
+    this.policy = policy;
+    this.logger = support.logger;
     this.jndiName = jndiName;
     this.valid = true;
+    this.invokers = new ConcurrentHashMap<Method, MethodInvoker>();
+    this.lookUpLock = new ReentrantLock();
+  }
+
+  void setProxyContext(BundleProxyContext proxyContext) {
+    this.proxyContext = proxyContext;
   }
 
   @Override
   public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    MethodInvoker invoker = this.getInvoker(method);
+    if (invoker.isToString() && this.target == null) {
+      // don't block (eg. in a debugger) until the look up is done
+      return "proxy for " + this.jndiName;
+    }
+    ResultCache cache = invoker.cache;
+    int cacheGeneration = 0;
+    if (cache != null) {
+      Object cached = cache.get(args);
+      if (cached != ResultCache.MISS) {
+        // no remote call, not recorded
+        return cached;
+      }
+      cacheGeneration = cache.getGeneration();
+    }
+    Object result;
+    if (invoker.singleFlight == null) {
+      result = this.invokeCall(invoker, args);
+    } else {
+      result = this.invokeCoalesced(invoker, args);
+    }
+    if (cache != null) {
+      cache.put(args, result, cacheGeneration);
+    }
+    return result;
+  }
+
+  @Override
+  public Object startCall(Method method) {
+    // the first call of a method goes through #invoke and creates the invoker
+    MethodInvoker invoker = this.invokers.get(method);
+    if (invoker == null || !invoker.direct) {
+      return null;
+    }
+    Object resolved = this.target;
+    if (resolved == null || this.pool != null || this.support.listeners.get() != null || Deadline.current() != null) {
+      // has to wait for the look up, pick a proxy or honor a deadline
+      return null;
+    }
+    invoker.metrics.enter();
+    return resolved;
+  }
+
+  @Override
+  public Throwable finishCall(Method method, long start, Throwable failure) {
+    MethodInvoker invoker = this.invokers.get(method);
+    long duration = invoker.metrics.stop(start, failure != null);
+    SlowCallRecorder slowCalls = this.support.slowCalls;
+    if (slowCalls.isSlow(duration)) {
+      slowCalls.record(this.jndiName, invoker.methodName, duration, failure);
+    }
+    if (failure == null) {
+      return null;
+    }
+    return this.translateFailure(invoker, failure);
+  }
+
+  /**
+   * Makes a remote call unless an equal call is already in progress, in
+   * that case waits for its outcome.
+   */
+  private Object invokeCoalesced(MethodInvoker invoker, Object[] args) throws Throwable {
+    SingleFlight singleFlight = invoker.singleFlight;
+    SingleFlight.Flight flight = singleFlight.join(args);
+    if (flight.isLeader()) {
+      Object result = null;
+      Throwable failure = null;
+      try {
+        result = this.invokeCall(invoker, args);
+        return result;
+      } catch (Throwable t) {
+        failure = t;
+        throw t;
+      } finally {
+        singleFlight.complete(flight, result, failure);
+      }
+    }
+    this.awaitShared(invoker, flight.done, "the coalesced call finished");
+    if (flight.failure != null) {
+      // the same exception for all callers
+      throw flight.failure;
+    }
+    return flight.result;
+  }
+
+  private Object invokeCall(MethodInvoker invoker, Object[] args) throws Throwable {
+    if (invoker.batcher == null) {
+      return this.invokeRemote(invoker, args);
+    } else {
+      return this.invokeBatched(invoker, args[0]);
+    }
+  }
+
+  /**
+   * Adds a call to a batch, the leader of the batch calls the batch method
+   * for all calls of the batch. Every call is recorded in the metrics of the
+   * single item method including the wait for the batch, the guards,
+   * timeout and retries of the batch method apply to the batch call.
+   */
+  private Object invokeBatched(MethodInvoker invoker, Object argument) throws Throwable {
+    MethodMetrics metrics = invoker.metrics;
+    long start = metrics.start();
+    Throwable failure = null;
+    try {
+      return this.invokeBatchItem(invoker, argument);
+    } catch (Throwable t) {
+      failure = t;
+      throw t;
+    } finally {
+      if (failure instanceof CallRejectedException) {
+        // the batch call was rejected, the server wasn't called
+        metrics.cancel();
+      } else {
+        long duration = metrics.stop(start, failure != null);
+        SlowCallRecorder slowCalls = this.support.slowCalls;
+        if (slowCalls.isSlow(duration)) {
+          slowCalls.record(this.jndiName, invoker.methodName, duration, failure);
+        }
+      }
+    }
+  }
+
+  private Object invokeBatchItem(MethodInvoker invoker, Object argument) throws Throwable {
+    MicroBatcher batcher = invoker.batcher;
+    MicroBatcher.Item item = batcher.add(argument);
+    if (item.leader) {
+      List<Object> arguments = batcher.await(item);
+      MethodInvoker batchInvoker = this.getInvoker(batcher.batchMethod);
+      Object results = null;
+      Throwable failure = null;
+      try {
+        results = this.invokeRemote(batchInvoker, new Object[] {arguments});
+      } catch (Throwable t) {
+        failure = t;
+      } finally {
+        batcher.complete(item.batch, results, failure);
+      }
+    } else {
+      this.awaitShared(invoker, item.batch.done, "the batch call finished");
+    }
+    return item.getResult();
+  }
+
+  /**
+   * Waits for a remote call made by an other thread on behalf of the current
+   * thread, honors the deadline of the current thread.
+   */
+  private void awaitShared(MethodInvoker invoker, CountDownLatch done, String what) {
+    Deadline deadline = Deadline.current();
+    try {
+      if (deadline == null) {
+        done.await();
+      } else {
+        long timeout = deadline.getRemaining(TimeUnit.NANOSECONDS);
+        if (timeout <= 0L || !done.await(timeout, TimeUnit.NANOSECONDS)) {
+          throw this.expired(what);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ServiceException(invoker.failureMessage, ServiceException.REMOTE, e);
+    }
+  }
+
+  /**
+   * Makes a remote call, applies the timeout and the retry policy of the
+   * method.
+   */
+  @SuppressWarnings("unchecked")
+  private Object invokeRemote(MethodInvoker invoker, Object[] args) throws Throwable {
     Thread currentThread = Thread.currentThread();
     ClassLoader oldContextClassLoader = currentThread.getContextClassLoader();
-    currentThread.setContextClassLoader(this.classLoader);
+    boolean switchClassLoader = oldContextClassLoader != this.classLoader;
+    if (switchClassLoader) {
+      currentThread.setContextClassLoader(this.classLoader);
+    }
+    // not recorded for Object methods
+    InvocationListener listener = invoker.metrics != null ? this.support.listeners.get() : null;
+    Object listenerContext = listener != null ? listener.started(INVOCATION, this.jndiName, invoker.methodName) : null;
+    Throwable failure = null;
     try {
-      if (!this.valid) {
-        throw new IllegalStateException("service is no longer valid");
+      Object result;
+      if (invoker.timeout == 0L && invoker.retryPolicy == null) {
+        result = this.invokeGuarded(invoker, args);
+      } else {
+        result = this.invokeWithPolicy(invoker, args);
+      }
+      if (invoker.returnsFuture && result instanceof Future) {
+        return new RemoteFuture<Object>((Future<Object>) result, this.classLoader, this.support);
       }
-      return method.invoke(this.serviceProxy.get(), args);
+      return result;
+    } catch (CallRejectedException e) {
+      // the server wasn't called
+      failure = e;
+      throw e;
     } catch (Throwable t) {
-      // TODO service reference
-      String message = "service call " + method.getDeclaringClass().getName() + "#" + method.getName() + "() failed";
-      this.logger.error(message, t);
-      throw new ServiceException(message, REMOTE, t);
+      failure = t;
+      throw this.translateFailure(invoker, t);
+    } finally {
+      if (listener != null) {
+        listener.finished(listenerContext, failure);
+      }
+      if (switchClassLoader) {
+        currentThread.setContextClassLoader(oldContextClassLoader);
+      }
+    }
+  }
+
+  /**
+   * Calls a method that has a timeout or is retried, the timeout includes
+   * all retries.
+   */
+  private Object invokeWithPolicy(MethodInvoker invoker, Object[] args) throws Exception {
+    Deadline.Scope scope = null;
+    if (invoker.timeout > 0L) {
+      // nested calls and the EJB client library see the deadline as well
+      scope = Deadline.after(invoker.timeout, TimeUnit.NANOSECONDS).enter();
+    }
+    try {
+      if (invoker.retryPolicy == null) {
+        return this.invokeGuarded(invoker, args);
+      } else {
+        return this.invokeWithRetry(invoker, args);
+      }
     } finally {
-      currentThread.setContextClassLoader(oldContextClassLoader);
+      if (scope != null) {
+        scope.exit();
+      }
     }
   }
-  
+
+  /**
+   * Makes a single attempt of a remote call while holding the guards of the
+   * method, records the attempt in the metrics of the method.
+   */
+  private Object invokeGuarded(MethodInvoker invoker, Object[] args) throws Exception {
+    MethodMetrics metrics = invoker.metrics;
+    long start = 0L;
+    Throwable failure = null;
+    CallGuard[] guards = invoker.guards;
+    long[] permits = guards.length > 0 ? new long[guards.length] : NO_PERMITS;
+    int acquired = 0;
+    try {
+      while (acquired < guards.length) {
+        permits[acquired] = guards[acquired].acquire();
+        acquired += 1;
+      }
+      // waiting for a guard is no latency of the server
+      if (metrics != null) {
+        start = metrics.start();
+      }
+      return this.invokeOnce(invoker, args);
+    } catch (Exception e) {
+      failure = e;
+      throw e;
+    } catch (Error e) {
+      failure = e;
+      throw e;
+    } finally {
+      if (acquired < guards.length) {
+        // rejected by a guard, the server wasn't called and nothing is recorded
+        for (int i = acquired - 1; i >= 0; --i) {
+          guards[i].cancel(permits[i]);
+        }
+      } else if (metrics != null) {
+        long duration = metrics.stop(start, failure != null);
+        boolean failed = failure != null && !this.isExpectedFailure(invoker, failure);
+        for (int i = acquired - 1; i >= 0; --i) {
+          guards[i].release(permits[i], duration, failed);
+        }
+        SlowCallRecorder slowCalls = this.support.slowCalls;
+        if (slowCalls.isSlow(duration)) {
+          slowCalls.record(this.jndiName, invoker.methodName, duration, failure);
+        }
+      }
+    }
+  }
+
+  private Object invokeOnce(MethodInvoker invoker, Object[] args) throws Exception {
+    Deadline deadline = invoker.isObjectMethod() ? null : Deadline.current();
+    if (deadline == null) {
+      return this.invokeTarget(invoker, this.getTarget(), args);
+    } else {
+      return this.invokeBefore(deadline, invoker, args);
+    }
+  }
+
+  /**
+   * Calls the EJB client proxy, hedges the call if the method is hedged.
+   *
+   * @param target the primary EJB client proxy
+   */
+  private Object invokeTarget(MethodInvoker invoker, Object target, Object[] args) throws Exception {
+    Hedger hedger = invoker.hedger;
+    if (hedger != null) {
+      long delay = hedger.called();
+      Executor executor = this.support.asyncExecutor;
+      if (delay > 0L && executor != null) {
+        return this.invokeHedged(invoker, target, args, delay, executor);
+      }
+    }
+    return this.invokeProxy(invoker, target, args);
+  }
+
+  /**
+   * Makes the call on the current thread and the same call on an other
+   * thread if the first one takes longer than the hedge delay.
+   */
+  private Object invokeHedged(final MethodInvoker invoker, final Object target, final Object[] args, long delay,
+      Executor executor) throws Exception {
+    final Deadline deadline = Deadline.current();
+    Hedger.Call call = invoker.hedger.new Call(new Callable<Object>() {
+
+      @Override
+      public Object call() throws Exception {
+        Thread currentThread = Thread.currentThread();
+        ClassLoader oldContextClassLoader = currentThread.getContextClassLoader();
+        currentThread.setContextClassLoader(classLoader);
+        // nested calls and the EJB client library see the deadline of the caller
+        Deadline.Scope scope = deadline != null ? deadline.enter() : null;
+        try {
+          return invokeHedge(invoker, target, args, deadline);
+        } finally {
+          if (scope != null) {
+            scope.exit();
+          }
+          currentThread.setContextClassLoader(oldContextClassLoader);
+        }
+      }
+    }, executor);
+    call.start(this.support.watchdog, System.nanoTime() + delay);
+    Object result;
+    try {
+      result = this.invokeProxy(invoker, target, args);
+    } catch (Exception e) {
+      if (call.primaryFailed()) {
+        throw e;
+      }
+      return call.getHedgeResult();
+    } catch (Error e) {
+      call.primaryFinished();
+      throw e;
+    }
+    if (call.primaryFinished()) {
+      return result;
+    }
+    return call.getHedgeResult();
+  }
+
+  /**
+   * Makes the hedged call on an asynchronous invocation thread, the hedged
+   * call takes its own permits of the guards of the method and is
+   * interrupted at the deadline of the caller.
+   *
+   * @param deadline the deadline of the caller, may be {@code null}
+   */
+  private Object invokeHedge(MethodInvoker invoker, Object target, Object[] args, Deadline deadline)
+      throws Exception {
+    CallGuard[] guards = invoker.guards;
+    long[] permits = guards.length > 0 ? new long[guards.length] : NO_PERMITS;
+    int acquired = 0;
+    boolean called = false;
+    long start = 0L;
+    boolean failed = true;
+    CallWatchdog.Watch watch = null;
+    try {
+      while (acquired < guards.length) {
+        // a rejection only means the first call has to win
+        permits[acquired] = guards[acquired].acquire();
+        acquired += 1;
+      }
+      if (deadline != null) {
+        long remaining = deadline.getRemaining(TimeUnit.NANOSECONDS);
+        if (remaining <= 0L) {
+          throw this.expired("the hedged call");
+        }
+        watch = this.support.watchdog.watch(System.nanoTime() + remaining);
+      }
+      called = true;
+      start = System.nanoTime();
+      Object result = this.invokeProxy(invoker, target, args);
+      failed = false;
+      return result;
+    } catch (Exception e) {
+      failed = !this.isExpectedFailure(invoker, e);
+      throw e;
+    } finally {
+      if (watch != null) {
+        watch.finish();
+      }
+      if (!called) {
+        // the server wasn't called
+        for (int i = acquired - 1; i >= 0; --i) {
+          guards[i].cancel(permits[i]);
+        }
+      } else {
+        long duration = System.nanoTime() - start;
+        for (int i = acquired - 1; i >= 0; --i) {
+          guards[i].release(permits[i], duration, failed);
+        }
+      }
+    }
+  }
+
+  /**
+   * Calls a proxy from the pool if there is one.
+   *
+   * @param target the primary EJB client proxy
+   */
+  private Object invokeProxy(MethodInvoker invoker, Object target, Object[] args) throws Exception {
+    ProxyPool currentPool = this.pool;
+    if (currentPool == null || invoker.isObjectMethod()) {
+      return invoker.invoke(target, args);
+    }
+    int index = currentPool.acquire();
+    try {
+      return invoker.invoke(currentPool.get(index), args);
+    } finally {
+      currentPool.release(index);
+    }
+  }
+
+  /**
+   * Retries calls that failed because the connection was lost after looking
+   * up the EJB client proxy again. The guards are only held during the
+   * attempts, not during the backoff and the look up.
+   */
+  private Object invokeWithRetry(MethodInvoker invoker, Object[] args) throws Exception {
+    RetryPolicy retryPolicy = invoker.retryPolicy;
+    retryPolicy.called();
+    int retries = 0;
+    while (true) {
+      Future<?> failedLookUp = this.serviceProxy;
+      try {
+        return this.invokeGuarded(invoker, args);
+      } catch (Exception e) {
+        if (!retryPolicy.retry(retries, e)) {
+          throw e;
+        }
+        long backoff = retryPolicy.backoff(retries);
+        Deadline deadline = Deadline.current();
+        if (deadline != null && deadline.getRemaining(TimeUnit.NANOSECONDS) <= backoff) {
+          // no time left for another attempt
+          throw e;
+        }
+        if (backoff > 0L) {
+          try {
+            TimeUnit.NANOSECONDS.sleep(backoff);
+          } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw e;
+          }
+        }
+        if (!this.lookUpAgain(failedLookUp)) {
+          throw e;
+        }
+        retries += 1;
+      }
+    }
+  }
+
+  /**
+   * Looks up the EJB client proxy again unless another thread already did.
+   *
+   * @param failedLookUp the look up of the EJB client proxy the call failed
+   *  with
+   * @return whether a new EJB client proxy is available
+   */
+  private boolean lookUpAgain(Future<?> failedLookUp) {
+    BundleProxyContext context = this.proxyContext;
+    if (context == null || !this.valid) {
+      return false;
+    }
+    this.lookUpLock.lock();
+    try {
+      if (this.serviceProxy != failedLookUp) {
+        // looked up again by a different thread
+        return true;
+      }
+      context.flushProxy(this);
+      return true;
+    } catch (NamingException e) {
+      this.logger.error(this.jndiName, "look up of: " + this.jndiName + " failed", e);
+      return false;
+    } catch (RuntimeException e) {
+      this.logger.error(this.jndiName, "look up of: " + this.jndiName + " failed", e);
+      return false;
+    } finally {
+      this.lookUpLock.unlock();
+    }
+  }
+
+  /**
+   * Calls a method that has to finish before a deadline, either its timeout
+   * or the deadline of the caller, whichever comes first.
+   */
+  private Object invokeBefore(Deadline deadline, MethodInvoker invoker, Object[] args) throws Exception {
+    long remaining = deadline.getRemaining(TimeUnit.NANOSECONDS);
+    if (remaining <= 0L) {
+      throw this.expired("the call");
+    }
+    Object target = this.getTarget(remaining);
+    remaining = deadline.getRemaining(TimeUnit.NANOSECONDS);
+    if (remaining <= 0L) {
+      throw this.expired("the call");
+    }
+    CallWatchdog.Watch watch = this.support.watchdog.watch(System.nanoTime() + remaining);
+    Object result;
+    try {
+      result = this.invokeTarget(invoker, target, args);
+    } catch (Exception e) {
+      if (watch.finish()) {
+        throw new CallTimeoutException("call of: " + this.jndiName + "#" + invoker.methodName
+            + " did not finish before the deadline", ExceptionTranslator.unwrap(e));
+      }
+      throw e;
+    } catch (Error e) {
+      watch.finish();
+      throw e;
+    }
+    // an interrupt after the result arrived is discarded
+    watch.finish();
+    return result;
+  }
+
+  private CallTimeoutException expired(String what) {
+    return new CallTimeoutException("deadline of: " + this.jndiName + " expired before " + what);
+  }
+
+  /**
+   * Whether a failure says nothing about the health of the server: the call
+   * was rejected before it was made or the server threw an exception
+   * declared by the method.
+   */
+  private boolean isExpectedFailure(MethodInvoker invoker, Throwable failure) {
+    return failure instanceof CallRejectedException || invoker.isDeclared(ExceptionTranslator.unwrap(failure));
+  }
+
+  private Throwable translateFailure(MethodInvoker invoker, Throwable failure) {
+    Throwable applicationException = this.support.exceptions.applicationException(invoker, failure);
+    if (applicationException != null) {
+      // part of the API of the service, not an error
+      return applicationException;
+    }
+    // TODO service reference
+    this.lastError = failure;
+    this.lastErrorTime = System.currentTimeMillis();
+    this.logger.error(this.jndiName, invoker.failureMessage, failure);
+    return this.support.exceptions.serviceException(invoker, failure);
+  }
+
+  private MethodInvoker getInvoker(Method method) {
+    MethodInvoker invoker = this.invokers.get(method);
+    if (invoker == null) {
+      invoker = new MethodInvoker(method, this.policy);
+      MethodInvoker previous = this.invokers.putIfAbsent(method, invoker);
+      if (previous != null) {
+        invoker = previous;
+      }
+    }
+    return invoker;
+  }
+
+  Object getTarget() throws InterruptedException, ExecutionException {
+    return this.getTarget(0L);
+  }
+
+  /**
+   * Returns the EJB client proxy, waits for the look up if necessary.
+   *
+   * @param timeout the maximum time to wait in nanoseconds, {@code 0} to
+   *  wait forever, negative if the deadline already expired
+   */
+  private Object getTarget(long timeout) throws InterruptedException, ExecutionException {
+    Object resolved = this.target;
+    if (resolved != null) {
+      return resolved;
+    }
+    if (!this.valid) {
+      throw new IllegalStateException("service is no longer valid");
+    }
+    // first call, wait for the look up to finish
+    if (timeout == 0L) {
+      resolved = this.serviceProxy.get();
+    } else if (timeout < 0L) {
+      throw this.expired("the look up finished");
+    } else {
+      try {
+        resolved = this.serviceProxy.get(timeout, TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        throw new CallTimeoutException("look up of: " + this.jndiName + " did not finish before the deadline", e);
+      }
+    }
+    if (!this.valid) {
+      throw new IllegalStateException("service is no longer valid");
+    }
+    return this.setTarget(resolved);
+  }
+
+  /**
+   * Sets the result of a look up as target.
+   *
+   * @param lookedUp either the EJB client proxy or a {@link ProxyPool}
+   * @return the EJB client proxy, the primary proxy of a pool
+   */
+  private Object setTarget(Object lookedUp) {
+    if (lookedUp instanceof ProxyPool) {
+      ProxyPool proxyPool = (ProxyPool) lookedUp;
+      // set before the target so the pool is visible once the target is
+      this.pool = proxyPool;
+      this.target = proxyPool.getPrimary();
+    } else {
+      this.target = lookedUp;
+    }
+    return this.target;
+  }
+
+  @Override
+  public String getJndiName() {
+    return this.jndiName;
+  }
+
+  @Override
+  public String getLookUpState() {
+    if (!this.valid) {
+      return "INVALID";
+    }
+    if (this.target != null) {
+      return "AVAILABLE";
+    }
+    Future<?> lookUp = this.serviceProxy;
+    if (!lookUp.isDone()) {
+      if (lookUp instanceof RetryingLookUp) {
+        RetryingLookUp retryingLookUp = (RetryingLookUp) lookUp;
+        if (!retryingLookUp.isStarted()) {
+          return "NOT_STARTED";
+        }
+        if (retryingLookUp.isRetrying()) {
+          return "RETRYING";
+        }
+      }
+      return "PENDING";
+    }
+    try {
+      lookUp.get();
+      return "AVAILABLE";
+    } catch (ExecutionException e) {
+      return "FAILED";
+    } catch (CancellationException e) {
+      return "FAILED";
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return "PENDING";
+    }
+  }
+
+  @Override
+  public long getInvocationCount() {
+    long invocationCount = 0L;
+    for (MethodInvoker invoker : this.invokers.values()) {
+      if (invoker.metrics != null) {
+        invocationCount += invoker.metrics.getInvocationCount();
+      }
+    }
+    return invocationCount;
+  }
+
+  @Override
+  public long getErrorCount() {
+    long errorCount = 0L;
+    for (MethodInvoker invoker : this.invokers.values()) {
+      if (invoker.metrics != null) {
+        errorCount += invoker.metrics.getErrorCount();
+      }
+    }
+    return errorCount;
+  }
+
+  @Override
+  public int getInFlight() {
+    int inFlight = 0;
+    for (MethodInvoker invoker : this.invokers.values()) {
+      if (invoker.metrics != null) {
+        inFlight += invoker.metrics.getInFlight();
+      }
+    }
+    return inFlight;
+  }
+
+  @Override
+  public long getRejectionCount() {
+    return this.policy.getRejectionCount();
+  }
+
+  @Override
+  public long getBulkheadWaitCount() {
+    return this.policy.getBulkheadWaitCount();
+  }
+
+  @Override
+  public long getBulkheadWaitTime() {
+    return TimeUnit.NANOSECONDS.toMillis(this.policy.getBulkheadWaitTime());
+  }
+
+  @Override
+  public double getRateLimit() {
+    RateLimiter rateLimiter = this.policy.getServiceRateLimiter();
+    return rateLimiter != null ? rateLimiter.getRate() : 0.0d;
+  }
+
+  @Override
+  public void setRateLimit(double rateLimit) {
+    RateLimiter rateLimiter = this.getConfiguredRateLimiter();
+    rateLimiter.setLimits(rateLimit, rateLimiter.getBurst());
+  }
+
+  @Override
+  public int getRateLimitBurst() {
+    RateLimiter rateLimiter = this.policy.getServiceRateLimiter();
+    return rateLimiter != null ? rateLimiter.getBurst() : 0;
+  }
+
+  @Override
+  public void setRateLimitBurst(int burst) {
+    RateLimiter rateLimiter = this.getConfiguredRateLimiter();
+    rateLimiter.setLimits(rateLimiter.getRate(), burst);
+  }
+
+  private RateLimiter getConfiguredRateLimiter() {
+    RateLimiter rateLimiter = this.policy.getServiceRateLimiter();
+    if (rateLimiter == null) {
+      // calls without a rate limit don't pay for one
+      throw new IllegalStateException("no rate limit configured for: " + this.jndiName);
+    }
+    return rateLimiter;
+  }
+
+  @Override
+  public long getRateLimitWaitCount() {
+    return this.policy.getRateLimitWaitCount();
+  }
+
+  @Override
+  public long getRateLimitWaitTime() {
+    return TimeUnit.NANOSECONDS.toMillis(this.policy.getRateLimitWaitTime());
+  }
+
+  @Override
+  public String getCircuitBreakerState() {
+    CircuitBreaker circuitBreaker = this.policy.getCircuitBreaker();
+    return circuitBreaker != null ? circuitBreaker.getState().name() : null;
+  }
+
+  @Override
+  public long getCacheHitCount() {
+    long hitCount = 0L;
+    for (MethodInvoker invoker : this.invokers.values()) {
+      if (invoker.cache != null) {
+        hitCount += invoker.cache.getHitCount();
+      }
+    }
+    return hitCount;
+  }
+
+  @Override
+  public long getCacheMissCount() {
+    long missCount = 0L;
+    for (MethodInvoker invoker : this.invokers.values()) {
+      if (invoker.cache != null) {
+        missCount += invoker.cache.getMissCount();
+      }
+    }
+    return missCount;
+  }
+
+  @Override
+  public int getCacheSize() {
+    int size = 0;
+    for (MethodInvoker invoker : this.invokers.values()) {
+      if (invoker.cache != null) {
+        size += invoker.cache.size();
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public void clearCache() {
+    for (MethodInvoker invoker : this.invokers.values()) {
+      if (invoker.cache != null) {
+        invoker.cache.clear();
+      }
+    }
+  }
+
+  @Override
+  public long getCoalescedCallCount() {
+    long coalescedCount = 0L;
+    for (MethodInvoker invoker : this.invokers.values()) {
+      if (invoker.singleFlight != null) {
+        coalescedCount += invoker.singleFlight.getCoalescedCount();
+      }
+    }
+    return coalescedCount;
+  }
+
+  @Override
+  public long getBatchCount() {
+    long batchCount = 0L;
+    for (MethodInvoker invoker : this.invokers.values()) {
+      if (invoker.batcher != null) {
+        batchCount += invoker.batcher.getBatchCount();
+      }
+    }
+    return batchCount;
+  }
+
+  @Override
+  public long getBatchedCallCount() {
+    long batchedCallCount = 0L;
+    for (MethodInvoker invoker : this.invokers.values()) {
+      if (invoker.batcher != null) {
+        batchedCallCount += invoker.batcher.getBatchedCallCount();
+      }
+    }
+    return batchedCallCount;
+  }
+
+  @Override
+  public long getHedgeCount() {
+    long hedgeCount = 0L;
+    for (MethodInvoker invoker : this.invokers.values()) {
+      if (invoker.hedger != null) {
+        hedgeCount += invoker.hedger.getHedgeCount();
+      }
+    }
+    return hedgeCount;
+  }
+
+  @Override
+  public long getHedgeWinCount() {
+    long hedgeWinCount = 0L;
+    for (MethodInvoker invoker : this.invokers.values()) {
+      if (invoker.hedger != null) {
+        hedgeWinCount += invoker.hedger.getHedgeWinCount();
+      }
+    }
+    return hedgeWinCount;
+  }
+
+  @Override
+  public int getProxyPoolSize() {
+    ProxyPool currentPool = this.pool;
+    return currentPool != null ? currentPool.size() : 1;
+  }
+
+  @Override
+  public int[] getProxyPoolInFlight() {
+    ProxyPool currentPool = this.pool;
+    return currentPool != null ? currentPool.getInFlight() : null;
+  }
+
+  @Override
+  public long getRetryCount() {
+    RetryPolicy retryPolicy = this.policy.getRetryPolicy();
+    return retryPolicy != null ? retryPolicy.getRetryCount() : 0L;
+  }
+
+  @Override
+  public int getAdaptiveLimit() {
+    return this.policy.getAdaptiveLimit();
+  }
+
+  @Override
+  public String getLastError() {
+    Throwable error = this.lastError;
+    return error != null ? error.toString() : null;
+  }
+
+  @Override
+  public Date getLastErrorTime() {
+    return this.lastError != null ? new Date(this.lastErrorTime) : null;
+  }
+
+  void collectStatistics(List<InvocationStatistics> statistics) {
+    for (MethodInvoker invoker : this.invokers.values()) {
+      if (invoker.metrics != null && invoker.metrics.hasInvocations()) {
+        statistics.add(invoker.metrics.getStatistics(this.jndiName, invoker.methodName));
+      }
+    }
+  }
+
+  /**
+   * Checks whether the EJB client proxy was looked up or a look up is in
+   * progress.
+   *
+   * @return {@code false} if the look up is lazy and no consumer used the
+   *  service yet
+   */
+  boolean isLookUpStarted() {
+    Future<?> lookUp = this.serviceProxy;
+    return !(lookUp instanceof RetryingLookUp) || ((RetryingLookUp) lookUp).isStarted();
+  }
+
   void flushProxy(Context namingContext) throws NamingException {
-    Object service = namingContext.lookup(jndiName);
-    this.serviceProxy = new CompletedFuture<Object>(service);
+    InvocationListener listener = this.support.listeners.get();
+    Object listenerContext = listener != null ? listener.started(FLUSH_PROXY, this.jndiName, null) : null;
+    Throwable failure = null;
+    try {
+      Object service;
+      int poolSize = this.policy.getProxyPoolSize();
+      if (poolSize > 1) {
+        service = ProxyPool.lookUp(namingContext, this.jndiName, poolSize, this.policy.getProxyPoolStrategy());
+      } else {
+        service = namingContext.lookup(this.jndiName);
+      }
+      Future<?> previous = this.serviceProxy;
+      this.serviceProxy = new CompletedFuture<Object>(service);
+      this.setTarget(service);
+      // results may have changed on the server
+      this.clearCache();
+      // stop repeating a failed look up
+      previous.cancel(false);
+    } catch (NamingException e) {
+      failure = e;
+      throw e;
+    } catch (RuntimeException e) {
+      failure = e;
+      throw e;
+    } finally {
+      if (listener != null) {
+        listener.finished(listenerContext, failure);
+      }
+    }
   }
 
   void invalidate() {
     this.valid = false;
+    this.target = null;
+    this.pool = null;
+    this.serviceProxy.cancel(false);
+    this.clearCache();
   }
-  
+
 
   static final class CompletedFuture<T> implements Future<T> {
     
@@ -0,0 +1,237 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.Date;
+
+/**
+ * Management interface of a single remote service.
+ */
+public interface ServiceCallerMXBean {
+
+  /**
+   * Returns the JNDI name of the remote service.
+   *
+   * @return the JNDI name of the remote service
+   */
+  String getJndiName();
+
+  /**
+   * Returns the state of the look up of the EJB client proxy, one of
+   * {@code NOT_STARTED} (lazy and not used yet), {@code PENDING},
+   * {@code RETRYING} (failed and will be repeated), {@code AVAILABLE},
+   * {@code FAILED} or {@code INVALID}.
+   *
+   * @return the state of the look up
+   */
+  String getLookUpState();
+
+  /**
+   * Returns the number of finished calls of all methods, calls rejected by
+   * a guard are not counted.
+   *
+   * @return the number of finished calls
+   */
+  long getInvocationCount();
+
+  /**
+   * Returns the number of failed calls of all methods, calls rejected by a
+   * guard are not counted.
+   *
+   * @return the number of failed calls
+   */
+  long getErrorCount();
+
+  /**
+   * Returns the number of calls of all methods currently in progress.
+   *
+   * @return the number of calls in progress
+   */
+  int getInFlight();
+
+  /**
+   * Returns the number of calls rejected without calling the server, eg.
+   * because the circuit breaker was open, the bulkhead was full, the rate
+   * limit was exceeded or the adaptive limit was reached.
+   *
+   * @return the number of rejected calls
+   */
+  long getRejectionCount();
+
+  /**
+   * Returns the number of calls that had to wait for the bulkhead.
+   *
+   * @return the number of calls that waited
+   */
+  long getBulkheadWaitCount();
+
+  /**
+   * Returns the total time calls waited for the bulkhead.
+   *
+   * @return the total wait time in milliseconds
+   */
+  long getBulkheadWaitTime();
+
+  /**
+   * Returns the maximum number of calls per second to the service, methods
+   * with their own rate limit are not included.
+   *
+   * @return the maximum number of calls per second, {@code 0} if unlimited
+   */
+  double getRateLimit();
+
+  /**
+   * Sets the maximum number of calls per second to the service, only
+   * possible if the service was configured with a rate limit.
+   *
+   * @param rateLimit the maximum number of calls per second, {@code 0} to
+   *  remove the limit
+   * @throws IllegalStateException if the service has no rate limit
+   */
+  void setRateLimit(double rateLimit);
+
+  /**
+   * Returns the number of calls that may be made at once above the rate
+   * limit.
+   *
+   * @return the burst size, {@code 0} if the service has no rate limit
+   */
+  int getRateLimitBurst();
+
+  /**
+   * Sets the number of calls that may be made at once above the rate limit,
+   * only possible if the service was configured with a rate limit.
+   *
+   * @param burst the burst size
+   * @throws IllegalStateException if the service has no rate limit
+   */
+  void setRateLimitBurst(int burst);
+
+  /**
+   * Returns the number of calls delayed by the rate limit.
+   *
+   * @return the number of delayed calls
+   */
+  long getRateLimitWaitCount();
+
+  /**
+   * Returns the total time calls were delayed by the rate limit.
+   *
+   * @return the total wait time in milliseconds
+   */
+  long getRateLimitWaitTime();
+
+  /**
+   * Returns how many calls were answered from the result cache.
+   *
+   * @return the number of cache hits of all methods
+   */
+  long getCacheHitCount();
+
+  /**
+   * Returns how many calls of methods with a result cache called the server.
+   *
+   * @return the number of cache misses of all methods
+   */
+  long getCacheMissCount();
+
+  /**
+   * Returns the number of cached results.
+   *
+   * @return the number of cached results of all methods
+   */
+  int getCacheSize();
+
+  /**
+   * Removes all cached results of the service.
+   */
+  void clearCache();
+
+  /**
+   * Returns how many calls didn't call the server because an equal call was
+   * in progress.
+   *
+   * @return the number of coalesced calls of all methods
+   */
+  long getCoalescedCallCount();
+
+  /**
+   * Returns how many batch calls were made on behalf of single item calls.
+   *
+   * @return the number of batch calls of all methods
+   */
+  long getBatchCount();
+
+  /**
+   * Returns how many single item calls were sent in batch calls.
+   *
+   * @return the number of batched calls of all methods
+   */
+  long getBatchedCallCount();
+
+  /**
+   * Returns how many hedged calls were made because a call took longer than
+   * the hedge delay.
+   *
+   * @return the number of hedged calls of all methods
+   */
+  long getHedgeCount();
+
+  /**
+   * Returns how many hedged calls finished before the call they hedged.
+   *
+   * @return the number of hedged calls that won
+   */
+  long getHedgeWinCount();
+
+  /**
+   * Returns the number of EJB client proxies calls are distributed among.
+   *
+   * @return the size of the proxy pool, {@code 1} if the service has no pool
+   */
+  int getProxyPoolSize();
+
+  /**
+   * Returns the number of calls in progress of every proxy in the pool.
+   *
+   * @return the calls in progress indexed by proxy, {@code null} if the
+   *  service has no pool
+   */
+  int[] getProxyPoolInFlight();
+
+  /**
+   * Returns how often failed calls to idempotent methods were retried.
+   *
+   * @return the number of retries
+   */
+  long getRetryCount();
+
+  /**
+   * Returns the state of the circuit breaker of the service.
+   *
+   * @return {@code CLOSED}, {@code OPEN} or {@code HALF_OPEN}, {@code null} if
+   *  the service has no circuit breaker
+   */
+  String getCircuitBreakerState();
+
+  /**
+   * Returns the current adaptive limit of concurrent calls to the service,
+   * methods with their own adaptive limit are not included.
+   *
+   * @return the current limit, {@code -1} if the service has no adaptive limit
+   */
+  int getAdaptiveLimit();
+
+  /**
+   * Returns the last exception thrown by a call.
+   *
+   * @return the last exception, {@code null} if no call failed yet
+   */
+  String getLastError();
+
+  /**
+   * Returns the time the last call failed.
+   *
+   * @return the time the last call failed, {@code null} if no call failed yet
+   */
+  Date getLastErrorTime();
+
+}
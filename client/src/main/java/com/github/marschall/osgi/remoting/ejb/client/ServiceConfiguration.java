@@ -0,0 +1,94 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.Map;
+
+/**
+ * The configuration of the calls to a single remote service.
+ *
+ * <p>
+ * A value is looked up in this order:
+ * </p>
+ * <ol>
+ *  <li>the service property {@code <name>#<method name>} in the service
+ *  description, if a method is given</li>
+ *  <li>the service property {@code <name>} in the service description</li>
+ *  <li>the framework property {@code <name>}</li>
+ * </ol>
+ * <p>
+ * All names are prefixed with {@value ClientConfiguration#PREFIX}.
+ * </p>
+ */
+final class ServiceConfiguration {
+
+  private final ClientConfiguration clientConfiguration;
+
+  private final Map<String, String> properties;
+
+  ServiceConfiguration(ClientConfiguration clientConfiguration, Map<String, String> properties) {
+    this.clientConfiguration = clientConfiguration;
+    this.properties = properties;
+  }
+
+  /**
+   * Checks whether a value is configured for a single method.
+   *
+   * @param name the name of the property without prefix
+   * @param methodName the simple name of the method
+   * @return whether the service description contains a value for the method
+   */
+  boolean hasMethodValue(String name, String methodName) {
+    return this.getServiceValue(ClientConfiguration.PREFIX + name + '#' + methodName) != null;
+  }
+
+  String getString(String name, String methodName, String defaultValue) {
+    if (methodName != null) {
+      String methodValue = this.getServiceValue(ClientConfiguration.PREFIX + name + '#' + methodName);
+      if (methodValue != null) {
+        return methodValue;
+      }
+    }
+    String serviceValue = this.getServiceValue(ClientConfiguration.PREFIX + name);
+    if (serviceValue != null) {
+      return serviceValue;
+    }
+    return this.clientConfiguration.getString(name, defaultValue);
+  }
+
+  long getLong(String name, String methodName, long defaultValue) {
+    String value = this.getString(name, methodName, null);
+    return this.clientConfiguration.parseLong(ClientConfiguration.PREFIX + name, value, defaultValue);
+  }
+
+  int getInt(String name, String methodName, int defaultValue) {
+    String value = this.getString(name, methodName, null);
+    return this.clientConfiguration.parseInt(ClientConfiguration.PREFIX + name, value, defaultValue);
+  }
+
+  double getDouble(String name, String methodName, double defaultValue) {
+    String value = this.getString(name, methodName, null);
+    return this.clientConfiguration.parseDouble(ClientConfiguration.PREFIX + name, value, defaultValue);
+  }
+
+  boolean getBoolean(String name, String methodName, boolean defaultValue) {
+    String value = this.getString(name, methodName, null);
+    return value != null ? Boolean.parseBoolean(value) : defaultValue;
+  }
+
+  /**
+   * Logs an invalid configuration.
+   *
+   * @param message what is wrong and what is done instead
+   */
+  void warning(String message) {
+    this.clientConfiguration.warning(message);
+  }
+
+  private String getServiceValue(String propertyName) {
+    String value = this.properties.get(propertyName);
+    if (value == null || value.isEmpty()) {
+      return null;
+    }
+    return value;
+  }
+
+}
@@ -1,13 +1,30 @@
 package com.github.marschall.osgi.remoting.ejb.client;
 
+import java.util.Map;
+
 final class ServiceInfo {
 
   final String interfaceName;
   final String jndiName;
 
-  ServiceInfo(String interfaceName, String jndiName) {
+  /**
+   * Name of the stub class generated by the annotation processor,
+   * {@code null} if there is none.
+   */
+  final String stubName;
+
+  /**
+   * The remaining service properties starting with
+   * {@value ClientConfiguration#PREFIX}, they configure the calls to the
+   * service.
+   */
+  final Map<String, String> properties;
+
+  ServiceInfo(String interfaceName, String jndiName, String stubName, Map<String, String> properties) {
     this.interfaceName = interfaceName;
     this.jndiName = jndiName;
+    this.stubName = stubName;
+    this.properties = properties;
   }
 
 }
\ No newline at end of file
@@ -16,7 +16,9 @@ import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
@@ -106,6 +108,8 @@ final class ServiceXmlParser {
   private ServiceInfo parseServiceDescription(XMLStreamReader reader) throws XMLStreamException {
     String interfaceName = null; 
     String jndiName = null;
+    String stubName = null;
+    Map<String, String> properties = null;
     while (reader.hasNext()) {
       int event = reader.next();
       if (event == START_ELEMENT) {
@@ -123,6 +127,14 @@ final class ServiceXmlParser {
             }
           } else if (propertyName.equals("com.github.marschall.osgi.remoting.ejb.jndiName")) {
             jndiName = this.parseStringContent(reader);
+          } else if (propertyName.equals("com.github.marschall.osgi.remoting.ejb.stub")) {
+            stubName = this.parseStringContent(reader);
+          } else if (propertyName.startsWith(ClientConfiguration.PREFIX)) {
+            // configuration of the service, eg. limits
+            if (properties == null) {
+              properties = new HashMap<String, String>(4);
+            }
+            properties.put(propertyName, this.parseStringContent(reader));
           } else {
             this.consumeElement(reader);
           }
@@ -132,7 +144,10 @@ final class ServiceXmlParser {
       }
     }
     if (interfaceName != null && jndiName != null) {
-      return new ServiceInfo(interfaceName, jndiName);
+      if (properties == null) {
+        properties = Collections.emptyMap();
+      }
+      return new ServiceInfo(interfaceName, jndiName, stubName, properties);
     } else {
       return null;
     }
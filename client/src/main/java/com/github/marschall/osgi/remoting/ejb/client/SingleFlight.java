@@ -0,0 +1,116 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent calls of an idempotent method with equal arguments
+ * into a single remote call.
+ *
+ * <p>
+ * The first caller becomes the leader and makes the remote call, callers
+ * arriving while it is in progress wait for it and get the same result or
+ * exception. Once the call finished the next caller makes a new call.
+ * </p>
+ */
+final class SingleFlight {
+
+  private final ConcurrentMap<ResultCache.Key, Flight> flights;
+
+  private final AtomicLong coalescedCount;
+
+  SingleFlight() {
+    this.flights = new ConcurrentHashMap<ResultCache.Key, Flight>();
+    this.coalescedCount = new AtomicLong();
+  }
+
+  /**
+   * Joins the call in progress with equal arguments or starts a new one.
+   *
+   * @param args the arguments of the call, may be {@code null}
+   * @return the call, the caller has to make the remote call and
+   *  {@link #complete(Flight, Object, Throwable)} it if it is the leader
+   */
+  Flight join(Object[] args) {
+    ResultCache.Key key = new ResultCache.Key(args);
+    Thread currentThread = Thread.currentThread();
+    Flight flight = new Flight(key, currentThread);
+    Flight inProgress = this.flights.putIfAbsent(key, flight);
+    if (inProgress == null) {
+      return flight;
+    }
+    if (inProgress.leader == currentThread) {
+      // a nested call would wait for itself, make an unshared call instead
+      return flight;
+    }
+    this.coalescedCount.incrementAndGet();
+    return inProgress;
+  }
+
+  /**
+   * Publishes the outcome of a call to all waiting callers.
+   *
+   * @param flight the call started by {@link #join(Object[])}
+   * @param result the result of the call
+   * @param failure the exception thrown by the call, {@code null} if it
+   *  succeeded
+   */
+  void complete(Flight flight, Object result, Throwable failure) {
+    // later callers make a new call
+    this.flights.remove(flight.key, flight);
+    flight.result = result;
+    flight.failure = failure;
+    flight.done.countDown();
+  }
+
+  /**
+   * Returns the number of calls that didn't make a remote call because an
+   * equal call was in progress.
+   *
+   * @return the number of coalesced calls
+   */
+  long getCoalescedCount() {
+    return this.coalescedCount.get();
+  }
+
+  /**
+   * A remote call in progress.
+   */
+  static final class Flight {
+
+    final ResultCache.Key key;
+
+    final CountDownLatch done;
+
+    final Thread leader;
+
+    /**
+     * Published by {@link #done}.
+     */
+    Object result;
+
+    /**
+     * Published by {@link #done}.
+     */
+    Throwable failure;
+
+    Flight(ResultCache.Key key, Thread leader) {
+      this.key = key;
+      this.leader = leader;
+      this.done = new CountDownLatch(1);
+    }
+
+    /**
+     * Checks whether the current thread has to make the remote call.
+     *
+     * @return whether the current thread started the call
+     */
+    boolean isLeader() {
+      return this.leader == Thread.currentThread();
+    }
+
+  }
+
+}
@@ -0,0 +1,51 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.io.PrintStream;
+
+import com.github.marschall.osgi.remoting.ejb.api.SlowCall;
+import com.github.marschall.osgi.remoting.ejb.api.SlowCallLog;
+
+/**
+ * Apache Felix Gogo shell command to dump the slow calls.
+ *
+ * <p>
+ * Registered as {@code ejb:slowcalls}, no dependency on Gogo is needed.
+ * </p>
+ */
+public final class SlowCallCommand {
+
+  static final String SCOPE = "ejb";
+
+  static final String[] FUNCTIONS = {"slowcalls"};
+
+  private final SlowCallLog slowCallLog;
+
+  SlowCallCommand(SlowCallLog slowCallLog) {
+    this.slowCallLog = slowCallLog;
+  }
+
+  /**
+   * Prints the recorded slow calls, oldest first.
+   */
+  public void slowcalls() {
+    PrintStream out = System.out;
+    for (SlowCall slowCall : this.slowCallLog.getSlowCalls()) {
+      out.println(SlowCallRecorder.format(slowCall));
+    }
+  }
+
+  /**
+   * Prints or removes the recorded slow calls.
+   *
+   * @param action {@code clear} to remove the recorded slow calls, anything
+   *  else to print them
+   */
+  public void slowcalls(String action) {
+    if ("clear".equals(action)) {
+      this.slowCallLog.clear();
+    } else {
+      this.slowcalls();
+    }
+  }
+
+}
@@ -0,0 +1,161 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.github.marschall.osgi.remoting.ejb.api.SlowCall;
+import com.github.marschall.osgi.remoting.ejb.api.SlowCallLog;
+
+/**
+ * Records calls slower than a threshold in a ring buffer of fixed size.
+ *
+ * <p>
+ * Fast calls only pay for a volatile read and a comparison. Slow calls are
+ * rare by definition so they may allocate.
+ * </p>
+ */
+final class SlowCallRecorder implements SlowCallLog, SlowCallRecorderMXBean {
+
+  private final AtomicReferenceArray<SlowCall> buffer;
+
+  private final AtomicLong slowCallCount;
+
+  private volatile long thresholdNanos;
+
+  private volatile int stackSampleRate;
+
+  SlowCallRecorder(int capacity, long threshold, int stackSampleRate) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    this.buffer = new AtomicReferenceArray<SlowCall>(capacity);
+    this.slowCallCount = new AtomicLong();
+    this.setThreshold(threshold);
+    this.setStackSampleRate(stackSampleRate);
+  }
+
+  boolean isSlow(long durationNanos) {
+    return durationNanos >= this.thresholdNanos;
+  }
+
+  void record(String jndiName, String methodName, long durationNanos, Throwable failure) {
+    long count = this.slowCallCount.incrementAndGet();
+    StackTraceElement[] stackTrace = null;
+    int sampleRate = this.stackSampleRate;
+    if (sampleRate > 0 && count % sampleRate == 0L) {
+      stackTrace = callerStackTrace(new Throwable().getStackTrace());
+    }
+    Throwable cause = failure instanceof InvocationTargetException ? failure.getCause() : failure;
+    String outcome = cause == null ? "SUCCESS" : cause.getClass().getName();
+    SlowCall slowCall = new SlowCall(System.currentTimeMillis(), jndiName, methodName, durationNanos,
+        Thread.currentThread().getName(), outcome, stackTrace);
+    int index = (int) ((count - 1L) % this.buffer.length());
+    this.buffer.set(index, slowCall);
+  }
+
+  /**
+   * Removes the frames of the recorder, the service caller and the proxy so
+   * that the stack starts at the caller.
+   */
+  private static StackTraceElement[] callerStackTrace(StackTraceElement[] stackTrace) {
+    int start = 0;
+    while (start < stackTrace.length && isInternalFrame(stackTrace[start])) {
+      start += 1;
+    }
+    if (start < stackTrace.length && stackTrace[start].getClassName().contains("$Proxy")) {
+      start += 1;
+    }
+    StackTraceElement[] callerStackTrace = new StackTraceElement[stackTrace.length - start];
+    System.arraycopy(stackTrace, start, callerStackTrace, 0, callerStackTrace.length);
+    return callerStackTrace;
+  }
+
+  private static boolean isInternalFrame(StackTraceElement element) {
+    String className = element.getClassName();
+    return className.equals(SlowCallRecorder.class.getName()) || className.equals(ServiceCaller.class.getName());
+  }
+
+  @Override
+  public List<SlowCall> getSlowCalls() {
+    int capacity = this.buffer.length();
+    long count = this.slowCallCount.get();
+    long start = Math.max(0L, count - capacity);
+    List<SlowCall> slowCalls = new ArrayList<SlowCall>((int) (count - start));
+    for (long i = start; i < count; ++i) {
+      SlowCall slowCall = this.buffer.get((int) (i % capacity));
+      if (slowCall != null) {
+        slowCalls.add(slowCall);
+      }
+    }
+    return slowCalls;
+  }
+
+  @Override
+  public void clear() {
+    for (int i = 0; i < this.buffer.length(); ++i) {
+      this.buffer.set(i, null);
+    }
+  }
+
+  @Override
+  public String[] dump() {
+    List<SlowCall> slowCalls = this.getSlowCalls();
+    String[] dump = new String[slowCalls.size()];
+    for (int i = 0; i < dump.length; ++i) {
+      dump[i] = format(slowCalls.get(i));
+    }
+    return dump;
+  }
+
+  static String format(SlowCall slowCall) {
+    StringBuilder buffer = new StringBuilder();
+    buffer.append(String.format("%1$tF %1$tT.%1$tL", slowCall.getTimestamp()))
+      .append(' ').append(TimeUnit.NANOSECONDS.toMillis(slowCall.getDuration())).append("ms ")
+      .append(slowCall.getJndiName()).append('#').append(slowCall.getMethodName())
+      .append(" thread=").append(slowCall.getThreadName())
+      .append(" outcome=").append(slowCall.getOutcome());
+    StackTraceElement[] stackTrace = slowCall.getStackTrace();
+    if (stackTrace != null) {
+      for (StackTraceElement element : stackTrace) {
+        buffer.append("\n\tat ").append(element);
+      }
+    }
+    return buffer.toString();
+  }
+
+  @Override
+  public long getThreshold() {
+    long threshold = this.thresholdNanos;
+    return threshold == Long.MAX_VALUE ? -1L : TimeUnit.NANOSECONDS.toMillis(threshold);
+  }
+
+  @Override
+  public void setThreshold(long threshold) {
+    this.thresholdNanos = threshold < 0L ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(threshold);
+  }
+
+  @Override
+  public int getStackSampleRate() {
+    return this.stackSampleRate;
+  }
+
+  @Override
+  public void setStackSampleRate(int stackSampleRate) {
+    this.stackSampleRate = Math.max(stackSampleRate, 0);
+  }
+
+  @Override
+  public int getCapacity() {
+    return this.buffer.length();
+  }
+
+  @Override
+  public long getSlowCallCount() {
+    return this.slowCallCount.get();
+  }
+
+}
@@ -0,0 +1,65 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+/**
+ * Management interface of the slow call recorder.
+ */
+public interface SlowCallRecorderMXBean {
+
+  /**
+   * Returns the minimum duration of a call to be recorded.
+   *
+   * @return the threshold in milliseconds, negative if recording is disabled
+   */
+  long getThreshold();
+
+  /**
+   * Sets the minimum duration of a call to be recorded.
+   *
+   * @param threshold the threshold in milliseconds, negative to disable
+   *  recording
+   */
+  void setThreshold(long threshold);
+
+  /**
+   * Returns how often the stack of the caller is captured.
+   *
+   * @return {@code n} if the stack is captured for every n-th slow call,
+   *  {@code 0} if stacks are never captured
+   */
+  int getStackSampleRate();
+
+  /**
+   * Sets how often the stack of the caller is captured.
+   *
+   * @param stackSampleRate {@code n} to capture the stack for every n-th slow
+   *  call, {@code 0} to never capture stacks
+   */
+  void setStackSampleRate(int stackSampleRate);
+
+  /**
+   * Returns the maximum number of slow calls kept.
+   *
+   * @return the maximum number of slow calls kept
+   */
+  int getCapacity();
+
+  /**
+   * Returns the number of slow calls seen, including overwritten ones.
+   *
+   * @return the number of slow calls seen
+   */
+  long getSlowCallCount();
+
+  /**
+   * Returns the recorded slow calls as text.
+   *
+   * @return the recorded slow calls, oldest first
+   */
+  String[] dump();
+
+  /**
+   * Removes all recorded slow calls.
+   */
+  void clear();
+
+}
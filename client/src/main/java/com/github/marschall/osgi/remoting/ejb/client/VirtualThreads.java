@@ -0,0 +1,79 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads on Java 21 and later.
+ *
+ * <p>
+ * This bundle is compiled for Java 6 so {@code Thread.ofVirtual()} is
+ * called reflectively. The reflection only happens when the thread factory
+ * is created, not when threads are created.
+ * </p>
+ */
+final class VirtualThreads {
+
+  /**
+   * The system property of Java 21 to 23 that prints the stack of a virtual
+   * thread that blocks while pinned to its carrier thread.
+   */
+  static final String TRACE_PINNED_THREADS = "jdk.tracePinnedThreads";
+
+  private VirtualThreads() {
+    throw new AssertionError("not instantiable");
+  }
+
+  /**
+   * Creates a factory for virtual threads.
+   *
+   * @param prefix the prefix of the thread names, a counter is appended
+   * @return the thread factory, {@code null} if the runtime doesn't support
+   *  virtual threads
+   */
+  static ThreadFactory newThreadFactory(String prefix) {
+    try {
+      Method ofVirtual = Thread.class.getMethod("ofVirtual");
+      // call through the public interface, the implementation class is not accessible
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Method name = builderClass.getMethod("name", String.class, long.class);
+      Method factory = builderClass.getMethod("factory");
+      Object builder = ofVirtual.invoke(null);
+      builder = name.invoke(builder, prefix, 0L);
+      return (ThreadFactory) factory.invoke(builder);
+    } catch (NoSuchMethodException e) {
+      return null;
+    } catch (ClassNotFoundException e) {
+      return null;
+    } catch (IllegalAccessException e) {
+      return null;
+    } catch (InvocationTargetException e) {
+      // preview feature on Java 19 and 20 without --enable-preview
+      return null;
+    }
+  }
+
+  /**
+   * Enables the tracing of virtual threads that block while pinned to their
+   * carrier thread unless configured otherwise.
+   *
+   * <p>
+   * Sets a system property of the whole JVM and the JDK prints the stacks to
+   * {@code System.out}, therefore only used when explicitly enabled. Only has
+   * an effect if no virtual thread has been created yet. Since Java 24
+   * waiting in {@code synchronized} no longer pins virtual threads and the
+   * JFR event {@code jdk.VirtualThreadPinned} reports the remaining cases.
+   * </p>
+   */
+  static void tracePinnedThreads() {
+    try {
+      if (System.getProperty(TRACE_PINNED_THREADS) == null) {
+        System.setProperty(TRACE_PINNED_THREADS, "short");
+      }
+    } catch (SecurityException e) {
+      // ignore, no permissions
+    }
+  }
+
+}
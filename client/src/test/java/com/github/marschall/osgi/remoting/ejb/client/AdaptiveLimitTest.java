@@ -0,0 +1,48 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class AdaptiveLimitTest {
+
+  @Test
+  public void reject() {
+    AdaptiveLimit limit = new AdaptiveLimit("bean", 2, 1, 10);
+    limit.acquire();
+    limit.acquire();
+    try {
+      limit.acquire();
+      fail("limit should be reached");
+    } catch (CallRejectedException e) {
+      // expected
+    }
+    assertEquals(1L, limit.getRejectionCount());
+    limit.release(0L, 0L, true);
+    assertEquals(1, limit.getInFlight());
+  }
+
+  @Test
+  public void growWithStableLatency() {
+    AdaptiveLimit limit = new AdaptiveLimit("bean", 10, 1, 100);
+    for (int i = 0; i < 100; ++i) {
+      limit.sample(1000000L, limit.getLimit());
+    }
+    assertTrue(limit.getLimit() > 10);
+    assertTrue(limit.getLimit() <= 100);
+  }
+
+  @Test
+  public void shrinkWithIncreasingLatency() {
+    AdaptiveLimit limit = new AdaptiveLimit("bean", 50, 1, 100);
+    limit.sample(1000000L, 50);
+    for (int i = 0; i < 20; ++i) {
+      limit.sample(10000000L, limit.getLimit());
+    }
+    assertTrue(limit.getLimit() < 50);
+    assertTrue(limit.getLimit() >= 1);
+  }
+
+}
@@ -0,0 +1,112 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.marschall.osgi.remoting.ejb.api.CallFuture;
+import com.github.marschall.osgi.remoting.ejb.api.CallListener;
+
+public class AsyncInvokerServiceTest {
+
+  private AsyncInvokerService invoker;
+
+  @Before
+  public void setUp() {
+    ThreadPoolExecutor executor = AsyncInvokerService.newExecutor(2, 10, "abort", null);
+    this.invoker = new AsyncInvokerService(executor, null);
+  }
+
+  @After
+  public void tearDown() {
+    this.invoker.getExecutor().shutdownNow();
+  }
+
+  @Test
+  public void call() throws InterruptedException, ExecutionException {
+    Calculator mediator = this.invoker.mediate(new CalculatorBean(), Calculator.class);
+    CallFuture<Integer> future = this.invoker.call(mediator.add(1, 2));
+    assertEquals(Integer.valueOf(3), future.get());
+  }
+
+  @Test
+  public void failure() throws InterruptedException {
+    Calculator mediator = this.invoker.mediate(new CalculatorBean(), Calculator.class);
+    mediator.fail();
+    CallFuture<Object> future = this.invoker.call();
+    try {
+      future.get();
+      fail("call should fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  @Test
+  public void listener() throws InterruptedException {
+    Calculator mediator = this.invoker.mediate(new CalculatorBean(), Calculator.class);
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicReference<Integer> result = new AtomicReference<Integer>();
+    this.invoker.call(mediator.add(2, 3)).addListener(new CallListener<Integer>() {
+
+      @Override
+      public void completed(Integer value) {
+        result.set(value);
+        latch.countDown();
+      }
+
+      @Override
+      public void failed(Throwable failure) {
+        latch.countDown();
+      }
+    });
+    assertTrue(latch.await(10L, TimeUnit.SECONDS));
+    assertEquals(Integer.valueOf(5), result.get());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void noRecordedCall() {
+    this.invoker.call();
+  }
+
+  @Test
+  public void mediatorIdentity() {
+    Calculator mediator = this.invoker.mediate(new CalculatorBean(), Calculator.class);
+    assertSame(mediator, mediator);
+    assertTrue(mediator.equals(mediator));
+  }
+
+  public interface Calculator {
+
+    int add(int a, int b);
+
+    void fail();
+
+  }
+
+  static final class CalculatorBean implements Calculator {
+
+    @Override
+    public int add(int a, int b) {
+      return a + b;
+    }
+
+    @Override
+    public void fail() {
+      throw new IllegalStateException();
+    }
+
+  }
+
+}
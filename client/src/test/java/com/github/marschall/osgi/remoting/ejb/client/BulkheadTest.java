@@ -0,0 +1,45 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BulkheadTest {
+
+  @Test
+  public void failFast() {
+    Bulkhead bulkhead = new Bulkhead("bean", 2, 0L, TimeUnit.MILLISECONDS);
+    bulkhead.acquire();
+    bulkhead.acquire();
+    try {
+      bulkhead.acquire();
+      fail("bulkhead should be full");
+    } catch (CallRejectedException e) {
+      // expected
+    }
+    assertEquals(1L, bulkhead.getRejectionCount());
+    assertEquals(0L, bulkhead.getWaitCount());
+
+    bulkhead.release(0L, 0L, false);
+    bulkhead.acquire();
+    assertEquals(0, bulkhead.getAvailablePermits());
+  }
+
+  @Test
+  public void waitWithTimeout() {
+    Bulkhead bulkhead = new Bulkhead("bean", 1, 10L, TimeUnit.MILLISECONDS);
+    bulkhead.acquire();
+    try {
+      bulkhead.acquire();
+      fail("bulkhead should be full");
+    } catch (CallRejectedException e) {
+      // expected
+    }
+    assertEquals(1L, bulkhead.getRejectionCount());
+    assertEquals(1L, bulkhead.getWaitCount());
+  }
+
+}
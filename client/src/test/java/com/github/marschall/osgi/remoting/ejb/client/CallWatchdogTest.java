@@ -0,0 +1,55 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CallWatchdogTest {
+
+  private CallWatchdog watchdog;
+
+  @Before
+  public void setUp() {
+    this.watchdog = new CallWatchdog();
+  }
+
+  @After
+  public void tearDown() {
+    this.watchdog.stop();
+  }
+
+  @Test
+  public void noContextClassLoader() throws InterruptedException {
+    final AtomicReference<ClassLoader> contextClassLoader = new AtomicReference<ClassLoader>();
+    final CountDownLatch run = new CountDownLatch(1);
+    Thread currentThread = Thread.currentThread();
+    ClassLoader oldContextClassLoader = currentThread.getContextClassLoader();
+    // like a call of a client bundle
+    currentThread.setContextClassLoader(new ClassLoader(oldContextClassLoader) {
+      // just needs to be a different instance
+    });
+    try {
+      this.watchdog.schedule(System.nanoTime(), new Runnable() {
+
+        @Override
+        public void run() {
+          contextClassLoader.set(Thread.currentThread().getContextClassLoader());
+          run.countDown();
+        }
+      });
+    } finally {
+      currentThread.setContextClassLoader(oldContextClassLoader);
+    }
+
+    assertTrue(run.await(5L, TimeUnit.SECONDS));
+    assertNull(contextClassLoader.get());
+  }
+
+}
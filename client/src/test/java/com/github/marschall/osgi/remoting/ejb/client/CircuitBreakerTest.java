@@ -0,0 +1,133 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.github.marschall.osgi.remoting.ejb.client.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+
+  @Test
+  public void openAfterFailures() {
+    CircuitBreaker breaker = new CircuitBreaker("bean", 10, 4, 50, 1L, 1, TimeUnit.MINUTES);
+    this.call(breaker, true);
+    this.call(breaker, true);
+    this.call(breaker, true);
+    // not enough calls yet
+    assertEquals(State.CLOSED, breaker.getState());
+
+    this.call(breaker, true);
+    assertEquals(State.OPEN, breaker.getState());
+    this.assertRejected(breaker);
+    assertEquals(1L, breaker.getRejectionCount());
+  }
+
+  @Test
+  public void staysClosedBelowThreshold() {
+    CircuitBreaker breaker = new CircuitBreaker("bean", 4, 4, 50, 1L, 1, TimeUnit.MINUTES);
+    for (int i = 0; i < 10; ++i) {
+      this.call(breaker, i % 4 == 0);
+    }
+    assertEquals(State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void closeAfterTrialCalls() throws InterruptedException {
+    CircuitBreaker breaker = new CircuitBreaker("bean", 2, 2, 50, 1L, 2, TimeUnit.MILLISECONDS);
+    final List<State> states = new ArrayList<State>();
+    breaker.setListener(new CircuitBreaker.Listener() {
+
+      @Override
+      public void stateChanged(State state) {
+        states.add(state);
+      }
+    });
+    this.call(breaker, true);
+    this.call(breaker, true);
+    assertEquals(State.OPEN, breaker.getState());
+
+    Thread.sleep(10L);
+    long first = breaker.acquire();
+    assertEquals(State.HALF_OPEN, breaker.getState());
+    long second = breaker.acquire();
+    // only two trial calls
+    this.assertRejected(breaker);
+    breaker.release(first, 0L, false);
+    breaker.release(second, 0L, false);
+    assertEquals(State.CLOSED, breaker.getState());
+
+    // the window was reset
+    this.call(breaker, true);
+    assertEquals(State.CLOSED, breaker.getState());
+    assertEquals(3, states.size());
+    assertEquals(State.OPEN, states.get(0));
+    assertEquals(State.HALF_OPEN, states.get(1));
+    assertEquals(State.CLOSED, states.get(2));
+  }
+
+  @Test
+  public void reopenAfterFailedTrialCall() throws InterruptedException {
+    CircuitBreaker breaker = new CircuitBreaker("bean", 1, 1, 100, 1L, 1, TimeUnit.MILLISECONDS);
+    this.call(breaker, true);
+    assertEquals(State.OPEN, breaker.getState());
+
+    Thread.sleep(10L);
+    this.call(breaker, true);
+    assertEquals(State.OPEN, breaker.getState());
+  }
+
+  @Test
+  public void cancelledTrialCall() throws InterruptedException {
+    CircuitBreaker breaker = new CircuitBreaker("bean", 1, 1, 100, 1L, 1, TimeUnit.MILLISECONDS);
+    this.call(breaker, true);
+    Thread.sleep(10L);
+
+    long permit = breaker.acquire();
+    this.assertRejected(breaker);
+    // eg. rejected by the bulkhead, neither a success nor a failure
+    breaker.cancel(permit);
+    assertEquals(State.HALF_OPEN, breaker.getState());
+
+    // an other call can be the trial call
+    this.call(breaker, false);
+    assertEquals(State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void ignoreCallsOfPreviousState() throws InterruptedException {
+    CircuitBreaker breaker = new CircuitBreaker("bean", 1, 1, 100, 1L, 1, TimeUnit.MILLISECONDS);
+    long slow = breaker.acquire();
+    this.call(breaker, true);
+    Thread.sleep(10L);
+
+    long trial = breaker.acquire();
+    assertEquals(State.HALF_OPEN, breaker.getState());
+    // started while closed, no trial call
+    breaker.release(slow, 0L, false);
+    assertEquals(State.HALF_OPEN, breaker.getState());
+
+    breaker.release(trial, 0L, false);
+    assertEquals(State.CLOSED, breaker.getState());
+  }
+
+  private void call(CircuitBreaker breaker, boolean failed) {
+    long permit = breaker.acquire();
+    breaker.release(permit, 0L, failed);
+  }
+
+  private void assertRejected(CircuitBreaker breaker) {
+    try {
+      breaker.acquire();
+      fail("circuit breaker should be open");
+    } catch (CircuitOpenException e) {
+      // expected
+    }
+  }
+
+}
@@ -0,0 +1,59 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ErrorLogThrottleTest {
+
+  @Test
+  public void suppression() {
+    ErrorLogThrottle throttle = new ErrorLogThrottle(10L, TimeUnit.NANOSECONDS);
+    assertEquals(0L, throttle.acquire("bean", IllegalStateException.class, 0L));
+    assertEquals(ErrorLogThrottle.SUPPRESSED, throttle.acquire("bean", IllegalStateException.class, 1L));
+    assertEquals(ErrorLogThrottle.SUPPRESSED, throttle.acquire("bean", IllegalStateException.class, 9L));
+
+    // different groups are independent
+    assertEquals(0L, throttle.acquire("other", IllegalStateException.class, 1L));
+    assertEquals(0L, throttle.acquire("bean", IllegalArgumentException.class, 1L));
+
+    assertEquals(2L, throttle.acquire("bean", IllegalStateException.class, 10L));
+    assertEquals(ErrorLogThrottle.SUPPRESSED, throttle.acquire("bean", IllegalStateException.class, 11L));
+  }
+
+  @Test
+  public void disabled() {
+    ErrorLogThrottle throttle = new ErrorLogThrottle(0L, TimeUnit.NANOSECONDS);
+    assertEquals(0L, throttle.acquire("bean", IllegalStateException.class, 0L));
+    assertEquals(0L, throttle.acquire("bean", IllegalStateException.class, 0L));
+    assertFalse(throttle.isSummaryDue(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void summaries() {
+    ErrorLogThrottle throttle = new ErrorLogThrottle(10L, TimeUnit.NANOSECONDS);
+    throttle.acquire("bean", IllegalStateException.class, 0L);
+    throttle.acquire("bean", IllegalStateException.class, 1L);
+    throttle.acquire("bean", IllegalStateException.class, 2L);
+
+    List<String> summaries = new ArrayList<String>();
+    throttle.collectSummaries(5L, false, summaries);
+    assertTrue(summaries.isEmpty());
+
+    throttle.collectSummaries(10L, false, summaries);
+    assertEquals(1, summaries.size());
+    assertEquals("2 errors of type: java.lang.IllegalStateException suppressed for: bean", summaries.get(0));
+
+    // reported only once
+    summaries.clear();
+    throttle.collectSummaries(100L, true, summaries);
+    assertTrue(summaries.isEmpty());
+  }
+
+}
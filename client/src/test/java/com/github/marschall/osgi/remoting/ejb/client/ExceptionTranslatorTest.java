@@ -0,0 +1,60 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.ServiceException;
+
+public class ExceptionTranslatorTest {
+
+  private MethodInvoker invoker;
+
+  @Before
+  public void setUp() throws NoSuchMethodException {
+    this.invoker = new MethodInvoker(Remote.class.getMethod("call"));
+  }
+
+  @Test
+  public void wrapping() {
+    ExceptionTranslator translator = new ExceptionTranslator(false, true);
+    InvocationTargetException failure = new InvocationTargetException(new IOException());
+
+    assertNull(translator.applicationException(this.invoker, failure));
+    ServiceException serviceException = translator.serviceException(this.invoker, failure);
+    assertSame(failure, serviceException.getCause());
+    assertEquals(ServiceException.REMOTE, serviceException.getType());
+  }
+
+  @Test
+  public void unwrapping() {
+    ExceptionTranslator translator = new ExceptionTranslator(true, true);
+    IOException declared = new IOException();
+    IllegalStateException undeclared = new IllegalStateException();
+
+    assertSame(declared, translator.applicationException(this.invoker, new InvocationTargetException(declared)));
+    assertNull(translator.applicationException(this.invoker, new InvocationTargetException(undeclared)));
+    ServiceException serviceException = translator.serviceException(this.invoker, new InvocationTargetException(undeclared));
+    assertSame(undeclared, serviceException.getCause());
+    assertEquals(this.invoker.failureMessage, serviceException.getMessage());
+  }
+
+  @Test
+  public void noStackTraces() {
+    ExceptionTranslator translator = new ExceptionTranslator(true, false);
+    ServiceException serviceException = translator.serviceException(this.invoker, new IllegalStateException());
+    assertEquals(0, serviceException.getStackTrace().length);
+  }
+
+  public interface Remote {
+
+    void call() throws IOException;
+
+  }
+
+}
@@ -0,0 +1,51 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void bucketIndex() {
+    for (int i = 0; i < LatencyHistogram.SUB_BUCKET_COUNT * 2; ++i) {
+      assertEquals(i, LatencyHistogram.bucketIndex(i));
+    }
+    int lastIndex = 0;
+    for (long value = 1L; value > 0L && value < Long.MAX_VALUE / 2L; value = value * 3L / 2L + 1L) {
+      int index = LatencyHistogram.bucketIndex(value);
+      assertTrue(index >= lastIndex);
+      assertTrue(value <= LatencyHistogram.bucketUpperBound(index));
+      lastIndex = index;
+    }
+    LatencyHistogram.bucketIndex(Long.MAX_VALUE);
+  }
+
+  @Test
+  public void empty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertArrayEquals(new long[]{0L, 0L}, histogram.getValuesAt(0.5d, 0.99d));
+    assertEquals(0L, histogram.getMax());
+  }
+
+  @Test
+  public void percentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; ++i) {
+      histogram.record(i * 1000L);
+    }
+    long[] values = histogram.getValuesAt(0.5d, 0.99d, 1.0d);
+    assertWithinError(500000L, values[0]);
+    assertWithinError(990000L, values[1]);
+    assertEquals(1000000L, values[2]);
+    assertEquals(1000000L, histogram.getMax());
+  }
+
+  private static void assertWithinError(long expected, long actual) {
+    assertTrue("expected: " + expected + " actual: " + actual, actual >= expected);
+    assertTrue("expected: " + expected + " actual: " + actual, actual <= expected + expected / LatencyHistogram.SUB_BUCKET_COUNT);
+  }
+
+}
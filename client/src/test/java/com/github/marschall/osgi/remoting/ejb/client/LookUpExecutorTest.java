@@ -0,0 +1,132 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LookUpExecutorTest {
+
+  private CallWatchdog watchdog;
+
+  private LookUpExecutor executor;
+
+  private List<String> order;
+
+  private CountDownLatch blocked;
+
+  @Before
+  public void setUp() {
+    this.watchdog = new CallWatchdog();
+    this.executor = new LookUpExecutor(1, Executors.defaultThreadFactory(),
+        LookUpExecutor.parsePriorityBundles(" priority , "), this.watchdog);
+    this.order = Collections.synchronizedList(new ArrayList<String>());
+    this.blocked = new CountDownLatch(1);
+  }
+
+  @After
+  public void tearDown() {
+    this.executor.shutdownNow();
+    this.watchdog.stop();
+  }
+
+  @Test
+  public void fair() throws InterruptedException, ExecutionException {
+    this.block();
+    LookUpExecutor.BundleQueue first = this.executor.queueFor("first");
+    LookUpExecutor.BundleQueue second = this.executor.queueFor("second");
+    first.submit(new Record("a1"));
+    first.submit(new Record("a2"));
+    first.submit(new Record("a3"));
+    Future<?> last = second.submit(new Record("b1"));
+    assertEquals(4, this.executor.getQueueDepth());
+
+    this.blocked.countDown();
+    last.get();
+    first.submit(new Record("a4")).get();
+    // the second bundle doesn't wait for all look ups of the first one
+    assertEquals(Arrays.asList("a1", "b1", "a2", "a3", "a4"), this.order);
+    assertEquals(0, this.executor.getQueueDepth());
+    // the counter is updated after the future completes
+    assertTrue(this.executor.getCompletedLookUps() >= 5L);
+  }
+
+  @Test
+  public void priority() throws InterruptedException, ExecutionException {
+    this.block();
+    this.executor.queueFor("other").submit(new Record("o1"));
+    Future<?> priority = this.executor.queueFor("priority").submit(new Record("p1"));
+
+    this.blocked.countDown();
+    priority.get();
+    assertEquals("p1", this.order.get(0));
+  }
+
+  @Test
+  public void schedule() throws InterruptedException, ExecutionException {
+    long start = System.nanoTime();
+    this.executor.queueFor("bundle").schedule(new Record("s1"), 20L, TimeUnit.MILLISECONDS).get();
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20L));
+    assertEquals(Arrays.asList("s1"), this.order);
+  }
+
+  @Test
+  public void drainedQueuesAreRemoved() throws InterruptedException, ExecutionException {
+    LookUpExecutor.BundleQueue queue = this.executor.queueFor("bundle");
+    queue.submit(new Record("r1")).get();
+    assertEquals(0, this.executor.getBundleQueueCount());
+
+    // a queue handed out before still works
+    queue.submit(new Record("r2")).get();
+    assertEquals(Arrays.asList("r1", "r2"), this.order);
+    assertEquals(0, this.executor.getBundleQueueCount());
+  }
+
+  /**
+   * Keeps the only thread busy until {@link #blocked} is released.
+   */
+  private void block() throws InterruptedException {
+    final CountDownLatch running = new CountDownLatch(1);
+    this.executor.queueFor("blocking").submit(new Runnable() {
+
+      @Override
+      public void run() {
+        running.countDown();
+        try {
+          blocked.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    running.await();
+  }
+
+  final class Record implements Runnable {
+
+    private final String name;
+
+    Record(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public void run() {
+      order.add(this.name);
+    }
+
+  }
+
+}
@@ -0,0 +1,47 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+
+import org.junit.Test;
+
+public class NamingContextHolderTest {
+
+  @Test
+  public void closed() throws NamingException {
+    Context namingContext = createMock(Context.class);
+    namingContext.close();
+    replay(namingContext);
+    NamingContextHolder holder = new NamingContextHolder(null, namingContext);
+    assertSame(namingContext, holder.get());
+    assertTrue(holder.getCreated() > 0L);
+
+    holder.close();
+    verify(namingContext);
+    assertEquals(0L, holder.getCreated());
+    // eg. a look up that was still queued when the bundle stopped
+    try {
+      holder.get();
+      fail("holder should be closed");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    try {
+      holder.recreate();
+      fail("holder should be closed");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    // closing again does nothing
+    holder.close();
+  }
+
+}
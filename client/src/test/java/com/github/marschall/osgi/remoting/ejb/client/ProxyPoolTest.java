@@ -0,0 +1,65 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.github.marschall.osgi.remoting.ejb.client.ProxyPool.Strategy;
+
+public class ProxyPoolTest {
+
+  @Test
+  public void parseStrategy() {
+    assertEquals(Strategy.ROUND_ROBIN, Strategy.parse(null));
+    assertEquals(Strategy.ROUND_ROBIN, Strategy.parse("roundRobin"));
+    assertEquals(Strategy.LEAST_IN_FLIGHT, Strategy.parse("leastInFlight"));
+    assertEquals(Strategy.THREAD_AFFINITY, Strategy.parse("thread-affinity"));
+    assertEquals(Strategy.ROUND_ROBIN, Strategy.parse("unknown"));
+  }
+
+  @Test
+  public void roundRobin() {
+    ProxyPool pool = newPool(Strategy.ROUND_ROBIN);
+    assertEquals(0, pool.acquire());
+    assertEquals(1, pool.acquire());
+    assertEquals(2, pool.acquire());
+    assertEquals(0, pool.acquire());
+    assertArrayEquals(new int[] {2, 1, 1}, pool.getInFlight());
+  }
+
+  @Test
+  public void leastInFlight() {
+    ProxyPool pool = newPool(Strategy.LEAST_IN_FLIGHT);
+    int first = pool.acquire();
+    int second = pool.acquire();
+    int third = pool.acquire();
+    assertArrayEquals(new int[] {1, 1, 1}, pool.getInFlight());
+
+    pool.release(second);
+    assertEquals(second, pool.acquire());
+    pool.release(first);
+    pool.release(third);
+    assertArrayEquals(new int[] {0, 0, 0}, withInFlight(pool, second, -1));
+  }
+
+  @Test
+  public void threadAffinity() {
+    ProxyPool pool = newPool(Strategy.THREAD_AFFINITY);
+    int index = pool.acquire();
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(index, pool.acquire());
+    }
+  }
+
+  private static int[] withInFlight(ProxyPool pool, int index, int delta) {
+    int[] inFlight = pool.getInFlight();
+    inFlight[index] += delta;
+    return inFlight;
+  }
+
+  private static ProxyPool newPool(Strategy strategy) {
+    return new ProxyPool(new Object[] {"first", "second", "third"}, strategy);
+  }
+
+}
@@ -0,0 +1,59 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+  @Test
+  public void unlimited() {
+    RateLimiter rateLimiter = new RateLimiter("bean", 0.0d, 1, 0L, TimeUnit.MILLISECONDS);
+    for (int i = 0; i < 1000; ++i) {
+      rateLimiter.acquire();
+    }
+    assertEquals(0L, rateLimiter.getRejectionCount());
+  }
+
+  @Test
+  public void burst() {
+    // one call per second, so no new slot during the test
+    RateLimiter rateLimiter = new RateLimiter("bean", 1.0d, 3, 0L, TimeUnit.MILLISECONDS);
+    rateLimiter.acquire();
+    rateLimiter.acquire();
+    rateLimiter.acquire();
+    try {
+      rateLimiter.acquire();
+      fail("rate limit should be exceeded");
+    } catch (CallRejectedException e) {
+      // expected
+    }
+    assertEquals(1L, rateLimiter.getRejectionCount());
+  }
+
+  @Test
+  public void reserve() {
+    RateLimiter rateLimiter = new RateLimiter("bean", 1.0d, 1, 2L, TimeUnit.SECONDS);
+    RateLimiter.Limits limits = new RateLimiter.Limits(1.0d, 1);
+    long now = System.nanoTime();
+    assertEquals(0L, rateLimiter.reserve(limits, now));
+    long wait = rateLimiter.reserve(limits, now);
+    assertTrue(wait > 0L && wait <= TimeUnit.SECONDS.toNanos(1L));
+    // would have to wait two seconds
+    assertEquals(-1L, rateLimiter.reserve(limits, now - 1L));
+  }
+
+  @Test
+  public void changeAtRuntime() {
+    RateLimiter rateLimiter = new RateLimiter("bean", 1.0d, 1, 0L, TimeUnit.MILLISECONDS);
+    rateLimiter.acquire();
+    rateLimiter.setLimits(0.0d, 1);
+    rateLimiter.acquire();
+    assertEquals(0L, rateLimiter.getRejectionCount());
+  }
+
+}
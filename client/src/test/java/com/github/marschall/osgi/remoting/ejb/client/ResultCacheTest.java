@@ -0,0 +1,78 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ResultCacheTest {
+
+  @Test
+  public void arguments() {
+    ResultCache cache = new ResultCache(10, 0L, 0L, TimeUnit.MILLISECONDS);
+    cache.put(new Object[] {"a", new int[] {1, 2}}, "result", cache.getGeneration());
+    cache.put(null, null, cache.getGeneration());
+
+    // compared by value
+    assertEquals("result", cache.get(new Object[] {"a", new int[] {1, 2}}));
+    assertSame(ResultCache.MISS, cache.get(new Object[] {"a", new int[] {1, 3}}));
+    assertNull(cache.get(null));
+    assertEquals(2L, cache.getHitCount());
+    assertEquals(1L, cache.getMissCount());
+  }
+
+  @Test
+  public void leastRecentlyUsed() {
+    ResultCache cache = new ResultCache(2, 0L, 0L, TimeUnit.MILLISECONDS);
+    cache.put(new Object[] {1}, "one", cache.getGeneration());
+    cache.put(new Object[] {2}, "two", cache.getGeneration());
+    cache.get(new Object[] {1});
+    cache.put(new Object[] {3}, "three", cache.getGeneration());
+
+    assertEquals(2, cache.size());
+    assertEquals("one", cache.get(new Object[] {1}));
+    assertSame(ResultCache.MISS, cache.get(new Object[] {2}));
+    assertEquals(1L, cache.getEvictionCount());
+  }
+
+  @Test
+  public void weight() {
+    ResultCache cache = new ResultCache(10, 6L, 0L, TimeUnit.MILLISECONDS);
+    cache.put(new Object[] {1}, "one", cache.getGeneration());
+    cache.put(new Object[] {2}, Arrays.asList("a", "b"), cache.getGeneration());
+    assertEquals(4L, cache.getWeight());
+
+    cache.put(new Object[] {3}, new String[] {"c", "d"}, cache.getGeneration());
+    assertEquals(2, cache.size());
+    assertEquals(6L, cache.getWeight());
+    assertSame(ResultCache.MISS, cache.get(new Object[] {1}));
+  }
+
+  @Test
+  public void timeToLive() throws InterruptedException {
+    ResultCache cache = new ResultCache(10, 0L, 10L, TimeUnit.MILLISECONDS);
+    cache.put(new Object[] {1}, "one", cache.getGeneration());
+    Thread.sleep(20L);
+
+    assertSame(ResultCache.MISS, cache.get(new Object[] {1}));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void clear() {
+    ResultCache cache = new ResultCache(10, 0L, 0L, TimeUnit.MILLISECONDS);
+    int generation = cache.getGeneration();
+    cache.put(new Object[] {1}, "one", generation);
+    cache.clear();
+    assertEquals(0, cache.size());
+
+    // started before the cache was cleared
+    cache.put(new Object[] {2}, "two", generation);
+    assertSame(ResultCache.MISS, cache.get(new Object[] {2}));
+  }
+
+}
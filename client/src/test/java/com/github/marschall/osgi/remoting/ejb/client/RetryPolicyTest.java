@@ -0,0 +1,67 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.ConnectException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.CommunicationException;
+
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+  @Test
+  public void connectionLoss() {
+    RetryPolicy policy = new RetryPolicy(2, 0L, 0L, 20, RetryPolicy.DEFAULT_RETRY_ON, TimeUnit.MILLISECONDS);
+    assertTrue(policy.isConnectionLoss(new InvocationTargetException(new RuntimeException(new ConnectException()))));
+    assertTrue(policy.isConnectionLoss(new ExecutionException(new CommunicationException())));
+    assertFalse(policy.isConnectionLoss(new InvocationTargetException(new IOException())));
+    assertFalse(policy.isConnectionLoss(new CallRejectedException("rejected", new ConnectException())));
+    assertFalse(policy.isConnectionLoss(new ExecutionException(null)));
+  }
+
+  @Test
+  public void maxRetries() {
+    RetryPolicy policy = new RetryPolicy(2, 0L, 0L, 20, RetryPolicy.DEFAULT_RETRY_ON, TimeUnit.MILLISECONDS);
+    ConnectException failure = new ConnectException();
+    assertTrue(policy.retry(0, failure));
+    assertTrue(policy.retry(1, failure));
+    assertFalse(policy.retry(2, failure));
+    assertEquals(2L, policy.getRetryCount());
+  }
+
+  @Test
+  public void budget() {
+    RetryPolicy policy = new RetryPolicy(1, 0L, 0L, 50, RetryPolicy.DEFAULT_RETRY_ON, TimeUnit.MILLISECONDS);
+    ConnectException failure = new ConnectException();
+    // the initial balance
+    for (int i = 0; i < 10; ++i) {
+      assertTrue(policy.retry(0, failure));
+    }
+    assertFalse(policy.retry(0, failure));
+    assertEquals(1L, policy.getExhaustedCount());
+
+    // two calls earn a retry
+    policy.called();
+    assertFalse(policy.retry(0, failure));
+    policy.called();
+    assertTrue(policy.retry(0, failure));
+  }
+
+  @Test
+  public void backoff() {
+    RetryPolicy policy = new RetryPolicy(10, 10L, 50L, 20, RetryPolicy.DEFAULT_RETRY_ON, TimeUnit.MILLISECONDS);
+    for (int retries = 0; retries < 10; ++retries) {
+      long backoff = policy.backoff(retries);
+      assertTrue(backoff >= 0L);
+      assertTrue(backoff < TimeUnit.MILLISECONDS.toNanos(Math.min(10L << retries, 50L)));
+    }
+  }
+
+}
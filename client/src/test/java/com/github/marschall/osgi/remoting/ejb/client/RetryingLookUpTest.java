@@ -0,0 +1,150 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.CommunicationException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+
+public class RetryingLookUpTest {
+
+  private LookUpExecutor executor;
+
+  private CallWatchdog watchdog;
+
+  private LoggerBridge logger;
+
+  @Before
+  public void setUp() {
+    this.watchdog = new CallWatchdog();
+    this.executor = new LookUpExecutor(1, Executors.defaultThreadFactory(), Collections.<String>emptySet(),
+        this.watchdog);
+    BundleContext bundleContext = createNiceMock(BundleContext.class);
+    replay(bundleContext);
+    this.logger = new LoggerBridge(bundleContext);
+  }
+
+  @After
+  public void tearDown() {
+    this.executor.shutdownNow();
+    this.watchdog.stop();
+  }
+
+  @Test
+  public void recover() throws InterruptedException, ExecutionException {
+    RetryingLookUp lookUp = this.newLookUp(new FailingLookUp(2), 0L, 1L, 5000L);
+    lookUp.start();
+
+    assertEquals("proxy", lookUp.get());
+    assertTrue(lookUp.isDone());
+    assertFalse(lookUp.isRetrying());
+  }
+
+  @Test
+  public void failFast() throws InterruptedException {
+    RetryingLookUp lookUp = this.newLookUp(new FailingLookUp(Integer.MAX_VALUE), 0L, 60000L, 0L);
+    lookUp.start();
+
+    try {
+      lookUp.get();
+      fail("look up should fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CommunicationException);
+    }
+    assertTrue(lookUp.isRetrying());
+    assertFalse(lookUp.isDone());
+
+    assertTrue(lookUp.cancel(false));
+    assertFalse(lookUp.isRetrying());
+    try {
+      lookUp.get();
+      fail("look up should be cancelled");
+    } catch (CancellationException e) {
+      // expected
+    } catch (ExecutionException e) {
+      fail("look up should be cancelled");
+    }
+  }
+
+  @Test
+  public void lazy() throws InterruptedException, ExecutionException {
+    FailingLookUp proxyLookUp = new FailingLookUp(0);
+    RetryingLookUp lookUp = this.newLookUp(proxyLookUp, 0L, 0L, 0L);
+    assertFalse(lookUp.isStarted());
+    assertFalse(lookUp.isDone());
+    assertEquals(0, this.executor.getCompletedLookUps());
+
+    // the first caller starts the look up
+    assertEquals("proxy", lookUp.get());
+    assertTrue(lookUp.isStarted());
+    assertEquals(-1, proxyLookUp.failures.get());
+
+    // starting again doesn't look up again
+    lookUp.start();
+    assertEquals("proxy", lookUp.get());
+    assertEquals(-1, proxyLookUp.failures.get());
+  }
+
+  @Test
+  public void timeout() throws InterruptedException {
+    RetryingLookUp lookUp = this.newLookUp(new Callable<Object>() {
+
+      @Override
+      public Object call() throws InterruptedException {
+        Thread.sleep(10000L);
+        return "proxy";
+      }
+    }, 20L, 0L, 0L);
+    lookUp.start();
+
+    try {
+      lookUp.get();
+      fail("look up should time out");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof TimeoutException);
+    }
+    // not repeated without backoff
+    assertTrue(lookUp.isDone());
+  }
+
+  private RetryingLookUp newLookUp(Callable<Object> lookUp, long timeout, long backoff, long maxWait) {
+    return new RetryingLookUp("bean", lookUp, this.executor.queueFor("bundle"), this.watchdog, this.logger, timeout, backoff,
+        backoff * 4L, maxWait, TimeUnit.MILLISECONDS);
+  }
+
+  static final class FailingLookUp implements Callable<Object> {
+
+    private final AtomicInteger failures;
+
+    FailingLookUp(int failures) {
+      this.failures = new AtomicInteger(failures);
+    }
+
+    @Override
+    public Object call() throws CommunicationException {
+      if (this.failures.getAndDecrement() > 0) {
+        throw new CommunicationException("server not started");
+      }
+      return "proxy";
+    }
+
+  }
+
+}
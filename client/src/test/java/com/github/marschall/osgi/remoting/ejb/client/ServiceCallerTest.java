@@ -0,0 +1,715 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceException;
+import org.osgi.framework.ServiceRegistration;
+
+import com.github.marschall.osgi.remoting.ejb.api.Deadline;
+import com.github.marschall.osgi.remoting.ejb.client.ServiceCaller.CompletedFuture;
+
+public class ServiceCallerTest {
+
+  private ClassLoader classLoader;
+
+  private InvocationListenerTracker listeners;
+
+  private SlowCallRecorder slowCalls;
+
+  private ExceptionTranslator exceptions;
+
+  private Map<String, String> properties;
+
+  private CallWatchdog watchdog;
+
+  private ExecutorService asyncExecutor;
+
+  @Before
+  public void setUp() {
+    this.watchdog = new CallWatchdog();
+    this.listeners = new InvocationListenerTracker(createNiceMock(BundleContext.class));
+    this.slowCalls = new SlowCallRecorder(10, -1L, 0);
+    this.exceptions = new ExceptionTranslator(false, true);
+    this.properties = new HashMap<String, String>();
+    this.classLoader = new ClassLoader(this.getClass().getClassLoader()) {
+      // just needs to be a different instance
+    };
+  }
+
+  @After
+  public void tearDown() {
+    this.watchdog.stop();
+    if (this.asyncExecutor != null) {
+      this.asyncExecutor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void contextClassLoader() {
+    Remote target = new RemoteBean();
+    Remote service = this.newService(this.newCaller(new CompletedFuture<Object>(target)));
+
+    ClassLoader oldContextClassLoader = Thread.currentThread().getContextClassLoader();
+    assertSame(this.classLoader, service.contextClassLoader());
+    assertSame(oldContextClassLoader, Thread.currentThread().getContextClassLoader());
+  }
+
+  @Test
+  public void contextClassLoaderAlreadySet() {
+    Remote target = new RemoteBean();
+    Remote service = this.newService(this.newCaller(new CompletedFuture<Object>(target)));
+
+    Thread currentThread = Thread.currentThread();
+    ClassLoader oldContextClassLoader = currentThread.getContextClassLoader();
+    currentThread.setContextClassLoader(this.classLoader);
+    try {
+      assertSame(this.classLoader, service.contextClassLoader());
+      assertSame(this.classLoader, currentThread.getContextClassLoader());
+    } finally {
+      currentThread.setContextClassLoader(oldContextClassLoader);
+    }
+  }
+
+  @Test
+  public void objectMethods() {
+    Remote target = new RemoteBean();
+    Remote service = this.newService(this.newCaller(new CompletedFuture<Object>(target)));
+    Remote other = this.newService(this.newCaller(new CompletedFuture<Object>(target)));
+
+    assertEquals(target.hashCode(), service.hashCode());
+    assertEquals(target.toString(), service.toString());
+    assertTrue(service.equals(other));
+    assertFalse(service.equals(new RemoteBean()));
+  }
+
+  @Test
+  public void toStringBeforeLookUp() {
+    FutureTask<Object> lookUp = new FutureTask<Object>(new Runnable() {
+
+      @Override
+      public void run() {
+        // never run
+      }
+    }, null);
+    Remote service = this.newService(this.newCaller(lookUp));
+
+    assertEquals("proxy for bean", service.toString());
+  }
+
+  @Test
+  public void stubCall() throws Throwable {
+    RemoteBean target = new RemoteBean();
+    ServiceCaller caller = this.newCaller(new CompletedFuture<Object>(target));
+    Method find = Remote.class.getMethod("find", Integer.class);
+
+    // the first call creates the invoker and resolves the look up
+    assertNull(caller.startCall(find));
+    assertEquals("item 1", caller.invoke(null, find, new Object[] {1}));
+
+    assertSame(target, caller.startCall(find));
+    assertEquals(1, caller.getInFlight());
+    assertNull(caller.finishCall(find, System.nanoTime(), null));
+    assertSame(target, caller.startCall(find));
+    Throwable failure = caller.finishCall(find, System.nanoTime(), new IllegalStateException());
+    assertTrue(failure instanceof ServiceException);
+
+    assertEquals(0, caller.getInFlight());
+    assertEquals(3L, caller.getInvocationCount());
+    assertEquals(1L, caller.getErrorCount());
+  }
+
+  @Test
+  public void stubCallWithPolicy() throws Throwable {
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.maxConcurrentCalls", "1");
+    ServiceCaller caller = this.newCaller(new CompletedFuture<Object>(new RemoteBean()));
+    Method find = Remote.class.getMethod("find", Integer.class);
+    caller.invoke(null, find, new Object[] {1});
+
+    // the bulkhead has to be applied by the caller
+    assertNull(caller.startCall(find));
+  }
+
+  @Test
+  public void applicationException() {
+    this.exceptions = new ExceptionTranslator(true, false);
+    Remote service = this.newService(this.newCaller(new CompletedFuture<Object>(new RemoteBean())));
+
+    try {
+      service.checked();
+      fail("application exception expected");
+    } catch (ApplicationException e) {
+      // declared exceptions are thrown unchanged
+    }
+  }
+
+  @Test
+  public void asynchronous() throws InterruptedException, ExecutionException {
+    Remote service = this.newService(this.newCaller(new CompletedFuture<Object>(new RemoteBean())));
+
+    Future<ClassLoader> future = service.asynchronous();
+    assertTrue(future instanceof RemoteFuture);
+    // the result is retrieved with the bundle class loader as TCCL
+    assertSame(this.classLoader, future.get());
+  }
+
+  @Test
+  public void bulkhead() {
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.maxConcurrentCalls", "1");
+    final ServiceCaller caller = this.newCaller(new CompletedFuture<Object>(new RemoteBean()));
+    Remote service = this.newService(caller);
+
+    assertSame(this.classLoader, service.reentrant(new Callable<Object>() {
+
+      @Override
+      public Object call() {
+        Remote nested = newService(caller);
+        try {
+          nested.contextClassLoader();
+          fail("bulkhead should be full");
+        } catch (CallRejectedException e) {
+          // expected
+        }
+        return null;
+      }
+    }));
+    assertEquals(1L, caller.getRejectionCount());
+    // only the outer call reached the server
+    assertEquals(0L, caller.getErrorCount());
+    assertEquals(1L, caller.getInvocationCount());
+    // permit was released
+    service.contextClassLoader();
+  }
+
+  @Test
+  public void noGuardsByDefault() throws NoSuchMethodException {
+    ServiceCaller caller = this.newCaller(new CompletedFuture<Object>(new RemoteBean()));
+    MethodInvoker invoker = new MethodInvoker(Remote.class.getMethod("find", Integer.class), this.newPolicy());
+
+    // calls without any limit don't acquire guards
+    assertEquals(0, invoker.guards.length);
+    assertEquals(0.0d, caller.getRateLimit(), 0.0d);
+    try {
+      caller.setRateLimit(10.0d);
+      fail("no rate limit configured");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void callTimeout() {
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.callTimeout#sleep", "20");
+    Remote service = this.newService(this.newCaller(new CompletedFuture<Object>(new RemoteBean())));
+
+    try {
+      service.sleep(10000L);
+      fail("call should time out");
+    } catch (CallTimeoutException e) {
+      assertTrue(e.getCause().getCause() instanceof InterruptedException);
+    }
+    assertFalse(Thread.currentThread().isInterrupted());
+    assertEquals(0, this.watchdog.getWatchCount());
+    // the watchdog doesn't interrupt later calls
+    assertSame(this.classLoader, service.contextClassLoader());
+    assertFalse(Thread.currentThread().isInterrupted());
+  }
+
+  @Test
+  public void deadline() {
+    Remote service = this.newService(this.newCaller(new CompletedFuture<Object>(new RemoteBean())));
+
+    Deadline.Scope scope = Deadline.after(20L, TimeUnit.MILLISECONDS).enter();
+    try {
+      // a nested scope can't extend the deadline
+      Deadline.Scope nested = Deadline.after(1L, TimeUnit.MINUTES).enter();
+      try {
+        service.sleep(10000L);
+        fail("call should time out");
+      } catch (CallTimeoutException e) {
+        // expected
+      } finally {
+        nested.exit();
+      }
+      try {
+        service.contextClassLoader();
+        fail("deadline should be expired");
+      } catch (CallTimeoutException e) {
+        // expected
+      }
+    } finally {
+      scope.exit();
+    }
+    assertNull(Deadline.current());
+    assertSame(this.classLoader, service.contextClassLoader());
+  }
+
+  @Test
+  public void lookUpTimeout() {
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.callTimeout", "10");
+    FutureTask<Object> lookUp = new FutureTask<Object>(new Runnable() {
+
+      @Override
+      public void run() {
+        // never run
+      }
+    }, null);
+    Remote service = this.newService(this.newCaller(lookUp));
+
+    try {
+      service.contextClassLoader();
+      fail("look up should time out");
+    } catch (CallTimeoutException e) {
+      assertTrue(e.getCause() instanceof TimeoutException);
+    }
+  }
+
+  @Test
+  public void retryAfterLookUp() throws NamingException {
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.idempotent#contextClassLoader", "true");
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.retryBackoff", "0");
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.maxConcurrentCalls", "1");
+    final ServiceCaller caller = this.newCaller(new CompletedFuture<Object>(new StaleBean()));
+    Context namingContext = createMock(Context.class);
+    expect(namingContext.lookup("bean")).andAnswer(new IAnswer<Object>() {
+
+      @Override
+      public Object answer() {
+        // the failed attempt released its permit before the look up
+        assertEquals(0, caller.getInFlight());
+        return new RemoteBean();
+      }
+    });
+    replay(namingContext);
+    caller.setProxyContext(new BundleProxyContext(new NamingContextHolder(null, namingContext), Collections.singleton(caller),
+        Collections.<ServiceRegistration<?>>emptySet(), this.classLoader, null, this.listeners));
+    Remote service = this.newService(caller);
+
+    assertSame(this.classLoader, service.contextClassLoader());
+    assertEquals(1L, caller.getRetryCount());
+    // every attempt is recorded
+    assertEquals(2L, caller.getInvocationCount());
+    assertEquals(1L, caller.getErrorCount());
+    verify(namingContext);
+
+    // not idempotent
+    ServiceCaller notIdempotent = this.newCaller(new CompletedFuture<Object>(new StaleBean()));
+    service = this.newService(notIdempotent);
+    try {
+      service.reentrant(null);
+      fail("call should fail");
+    } catch (ServiceException e) {
+      // expected
+    }
+    assertEquals(0L, notIdempotent.getRetryCount());
+  }
+
+  @Test
+  public void proxyPool() {
+    RemoteBean primary = new RemoteBean();
+    ProxyPool pool = new ProxyPool(new Object[] {primary, new RemoteBean()}, ProxyPool.Strategy.ROUND_ROBIN);
+    final ServiceCaller caller = this.newCaller(new CompletedFuture<Object>(pool));
+    Remote service = this.newService(caller);
+
+    service.reentrant(new Callable<Object>() {
+
+      @Override
+      public Object call() {
+        assertArrayEquals(new int[] {1, 0}, caller.getProxyPoolInFlight());
+        return null;
+      }
+    });
+    service.reentrant(new Callable<Object>() {
+
+      @Override
+      public Object call() {
+        assertArrayEquals(new int[] {0, 1}, caller.getProxyPoolInFlight());
+        return null;
+      }
+    });
+    assertArrayEquals(new int[] {0, 0}, caller.getProxyPoolInFlight());
+    assertEquals(2, caller.getProxyPoolSize());
+    // Object methods use the primary proxy
+    assertEquals(primary.toString(), service.toString());
+  }
+
+  @Test
+  public void coalesce() throws InterruptedException, ExecutionException {
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.idempotent#reentrant", "true");
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.coalesce#reentrant", "true");
+    ServiceCaller caller = this.newCaller(new CompletedFuture<Object>(new RemoteBean()));
+    final Remote service = this.newService(caller);
+
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger remoteCalls = new AtomicInteger();
+    final Callable<Object> callback = new Callable<Object>() {
+
+      @Override
+      public Object call() throws InterruptedException {
+        remoteCalls.incrementAndGet();
+        release.await();
+        return null;
+      }
+    };
+    Callable<ClassLoader> call = new Callable<ClassLoader>() {
+
+      @Override
+      public ClassLoader call() {
+        return service.reentrant(callback);
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<ClassLoader> leader = executor.submit(call);
+      while (remoteCalls.get() == 0) {
+        Thread.sleep(1L);
+      }
+      Future<ClassLoader> follower = executor.submit(call);
+      while (caller.getCoalescedCallCount() == 0L) {
+        Thread.sleep(1L);
+      }
+      release.countDown();
+
+      assertSame(this.classLoader, leader.get());
+      assertSame(this.classLoader, follower.get());
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, remoteCalls.get());
+    assertEquals(1L, caller.getCoalescedCallCount());
+
+    // the next call isn't coalesced
+    service.reentrant(callback);
+    assertEquals(2, remoteCalls.get());
+  }
+
+  @Test
+  public void batch() throws InterruptedException, ExecutionException {
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.batch#find", "findAll");
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.batchSize#find", "3");
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.batchWindow#find", "60000");
+    RemoteBean bean = new RemoteBean();
+    ServiceCaller caller = this.newCaller(new CompletedFuture<Object>(bean));
+    final Remote service = this.newService(caller);
+
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      List<Future<String>> items = new ArrayList<Future<String>>(3);
+      for (int i = 0; i < 3; ++i) {
+        final Integer id = i;
+        items.add(executor.submit(new Callable<String>() {
+
+          @Override
+          public String call() {
+            return service.find(id);
+          }
+        }));
+      }
+      // the batch is sent once it is full
+      for (int i = 0; i < 3; ++i) {
+        assertEquals("item " + i, items.get(i).get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, bean.batchCalls.get());
+    assertEquals(1L, caller.getBatchCount());
+    assertEquals(3L, caller.getBatchedCallCount());
+    // the single item calls and the batch call
+    assertEquals(4L, caller.getInvocationCount());
+  }
+
+  @Test
+  public void hedge() {
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.idempotent#contextClassLoader", "true");
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.hedge#contextClassLoader", "true");
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.hedgeDelay", "20");
+    this.asyncExecutor = Executors.newSingleThreadExecutor();
+    Remote slow = new RemoteBean() {
+
+      @Override
+      public ClassLoader contextClassLoader() {
+        this.sleep(10000L);
+        return null;
+      }
+    };
+    ProxyPool pool = new ProxyPool(new Object[] {slow, new RemoteBean()}, ProxyPool.Strategy.ROUND_ROBIN);
+    ServiceCaller caller = this.newCaller(new CompletedFuture<Object>(pool));
+    Remote service = this.newService(caller);
+
+    long start = System.nanoTime();
+    // the hedged call on the second proxy wins
+    assertSame(this.classLoader, service.contextClassLoader());
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5L));
+    assertFalse(Thread.currentThread().isInterrupted());
+    assertEquals(1L, caller.getHedgeCount());
+    assertEquals(1L, caller.getHedgeWinCount());
+  }
+
+  @Test
+  public void hedgeTakesPermits() {
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.idempotent#contextClassLoader", "true");
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.hedge#contextClassLoader", "true");
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.hedgeDelay", "20");
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.maxConcurrentCalls", "1");
+    this.asyncExecutor = Executors.newSingleThreadExecutor();
+    Remote slow = new RemoteBean() {
+
+      @Override
+      public ClassLoader contextClassLoader() {
+        this.sleep(200L);
+        return null;
+      }
+    };
+    ProxyPool pool = new ProxyPool(new Object[] {slow, new RemoteBean()}, ProxyPool.Strategy.ROUND_ROBIN);
+    ServiceCaller caller = this.newCaller(new CompletedFuture<Object>(pool));
+    Remote service = this.newService(caller);
+
+    // the bulkhead rejects the hedged call, the first call wins
+    assertNull(service.contextClassLoader());
+    assertEquals(1L, caller.getHedgeCount());
+    assertEquals(0L, caller.getHedgeWinCount());
+  }
+
+  @Test
+  public void hedgeNotRunByWatchdog() {
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.idempotent#contextClassLoader", "true");
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.hedge#contextClassLoader", "true");
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.hedgeDelay", "20");
+    this.asyncExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>(),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    final CountDownLatch busy = new CountDownLatch(1);
+    this.asyncExecutor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          busy.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    Remote slow = new RemoteBean() {
+
+      @Override
+      public ClassLoader contextClassLoader() {
+        this.sleep(200L);
+        return null;
+      }
+    };
+    ProxyPool pool = new ProxyPool(new Object[] {slow, new RemoteBean()}, ProxyPool.Strategy.ROUND_ROBIN);
+    ServiceCaller caller = this.newCaller(new CompletedFuture<Object>(pool));
+    Remote service = this.newService(caller);
+
+    try {
+      // no thread for the hedged call, a caller runs policy is a rejection
+      assertNull(service.contextClassLoader());
+      assertEquals(0L, caller.getHedgeCount());
+    } finally {
+      busy.countDown();
+    }
+  }
+
+  @Test
+  public void hedgeAfterFailure() {
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.idempotent#contextClassLoader", "true");
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.hedge#contextClassLoader", "true");
+    this.properties.put("com.github.marschall.osgi.remoting.ejb.hedgeDelay", "20");
+    this.asyncExecutor = Executors.newSingleThreadExecutor();
+    Remote failing = new RemoteBean() {
+
+      @Override
+      public ClassLoader contextClassLoader() {
+        this.sleep(100L);
+        throw new IllegalStateException("failed");
+      }
+    };
+    Remote slow = new RemoteBean() {
+
+      @Override
+      public ClassLoader contextClassLoader() {
+        this.sleep(300L);
+        return super.contextClassLoader();
+      }
+    };
+    ProxyPool pool = new ProxyPool(new Object[] {failing, slow}, ProxyPool.Strategy.ROUND_ROBIN);
+    ServiceCaller caller = this.newCaller(new CompletedFuture<Object>(pool));
+    Remote service = this.newService(caller);
+
+    // the first successful result wins even if the first call failed before
+    assertSame(this.classLoader, service.contextClassLoader());
+    assertFalse(Thread.currentThread().isInterrupted());
+    assertEquals(1L, caller.getHedgeWinCount());
+  }
+
+  private ServiceCaller newCaller(Future<?> lookUp) {
+    BundleContext bundleContext = createNiceMock(BundleContext.class);
+    replay(bundleContext);
+    CallerSupport support = new CallerSupport(new LoggerBridge(bundleContext), this.listeners, this.slowCalls,
+        this.exceptions, this.asyncExecutor, 0L, this.watchdog);
+    return new ServiceCaller(lookUp, this.classLoader, support, this.newPolicy(), "bean");
+  }
+
+  private CallPolicy newPolicy() {
+    BundleContext bundleContext = createNiceMock(BundleContext.class);
+    replay(bundleContext);
+    ClientConfiguration configuration = new ClientConfiguration(bundleContext, null);
+    return new CallPolicy("bean", new ServiceConfiguration(configuration, this.properties));
+  }
+
+  private Remote newService(ServiceCaller caller) {
+    return (Remote) Proxy.newProxyInstance(this.getClass().getClassLoader(), new Class[]{Remote.class}, caller);
+  }
+
+  public interface Remote {
+
+    ClassLoader contextClassLoader();
+
+    void checked() throws ApplicationException;
+
+    Future<ClassLoader> asynchronous();
+
+    ClassLoader reentrant(Callable<Object> callback);
+
+    void sleep(long millis);
+
+    String find(Integer id);
+
+    List<String> findAll(List<Integer> ids);
+
+  }
+
+  public static final class ApplicationException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+  }
+
+  /**
+   * Behaves like an EJB client proxy whose connection was lost.
+   */
+  static final class StaleBean extends RemoteBean {
+
+    @Override
+    public ClassLoader contextClassLoader() {
+      throw new IllegalStateException(new ConnectException());
+    }
+
+    @Override
+    public ClassLoader reentrant(Callable<Object> callback) {
+      throw new IllegalStateException(new ConnectException());
+    }
+
+  }
+
+  static class RemoteBean implements Remote {
+
+    final AtomicInteger batchCalls = new AtomicInteger();
+
+    @Override
+    public ClassLoader contextClassLoader() {
+      return Thread.currentThread().getContextClassLoader();
+    }
+
+    @Override
+    public Future<ClassLoader> asynchronous() {
+      // like the EJB client the result is only retrieved on #get()
+      return new FutureTask<ClassLoader>(new Callable<ClassLoader>() {
+
+        @Override
+        public ClassLoader call() {
+          return Thread.currentThread().getContextClassLoader();
+        }
+      }) {
+
+        @Override
+        public ClassLoader get() throws InterruptedException, ExecutionException {
+          this.run();
+          return super.get();
+        }
+      };
+    }
+
+    @Override
+    public ClassLoader reentrant(Callable<Object> callback) {
+      try {
+        callback.call();
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      return Thread.currentThread().getContextClassLoader();
+    }
+
+    @Override
+    public void sleep(long millis) {
+      try {
+        Thread.sleep(millis);
+      } catch (InterruptedException e) {
+        // like an EJB client library that reacts to interrupts
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public String find(Integer id) {
+      return "item " + id;
+    }
+
+    @Override
+    public List<String> findAll(List<Integer> ids) {
+      this.batchCalls.incrementAndGet();
+      List<String> items = new ArrayList<String>(ids.size());
+      for (Integer id : ids) {
+        items.add(this.find(id));
+      }
+      return items;
+    }
+
+    @Override
+    public void checked() throws ApplicationException {
+      throw new ApplicationException();
+    }
+
+  }
+
+}
@@ -3,6 +3,7 @@ package com.github.marschall.osgi.remoting.ejb.client;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 
 import static org.hamcrest.Matchers.hasSize;
@@ -42,6 +43,7 @@ public class ServiceXmlParserTest {
     ServiceInfo service = result.services.get(0);
     assertEquals("com.github.marschall.jboss.osgi.remoting.StatelessRemote1", service.interfaceName);
     assertEquals("ejb:jboss-osgi-remoting-sample-ear/osgi-remoting-ejb-sample-ejb//StatelessBean!com.github.marschall.jboss.osgi.remoting.StatelessRemote1", service.jndiName);
+    assertNull(service.stubName);
     
     service = result.services.get(1);
     assertEquals("com.github.marschall.jboss.osgi.remoting.StatelessRemote2", service.interfaceName);
@@ -56,4 +58,19 @@ public class ServiceXmlParserTest {
     assertEquals("ejb:jboss-osgi-remoting-sample-ear/osgi-remoting-ejb-sample-ejb//StatefulBean!com.github.marschall.jboss.osgi.remoting.StatefulRemote2?stateful", service.jndiName);
   }
 
+  @Test
+  public void parseStub() throws IOException, XMLStreamException {
+    URL resource = this.getClass().getClassLoader().getResource("ejb-client-stub.xml");
+    assertNotNull(resource);
+    ParseResult result = this.parser.parseServiceXml(resource);
+    assertEquals(1, result.size());
+
+    ServiceInfo service = result.services.get(0);
+    assertEquals("com.github.marschall.jboss.osgi.remoting.StatelessRemote1", service.interfaceName);
+    assertEquals("com.github.marschall.jboss.osgi.remoting.StatelessRemote1_Stub", service.stubName);
+    assertEquals(2, service.properties.size());
+    assertEquals("10", service.properties.get("com.github.marschall.osgi.remoting.ejb.maxConcurrentCalls"));
+    assertEquals("2", service.properties.get("com.github.marschall.osgi.remoting.ejb.maxConcurrentCalls#getName"));
+  }
+
 }
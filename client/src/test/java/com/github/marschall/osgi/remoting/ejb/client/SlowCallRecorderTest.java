@@ -0,0 +1,65 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.github.marschall.osgi.remoting.ejb.api.SlowCall;
+
+public class SlowCallRecorderTest {
+
+  @Test
+  public void disabled() {
+    SlowCallRecorder recorder = new SlowCallRecorder(2, -1L, 0);
+    assertFalse(recorder.isSlow(Long.MAX_VALUE - 1L));
+    assertEquals(-1L, recorder.getThreshold());
+  }
+
+  @Test
+  public void threshold() {
+    SlowCallRecorder recorder = new SlowCallRecorder(2, 10L, 0);
+    assertFalse(recorder.isSlow(TimeUnit.MILLISECONDS.toNanos(10L) - 1L));
+    assertTrue(recorder.isSlow(TimeUnit.MILLISECONDS.toNanos(10L)));
+  }
+
+  @Test
+  public void ringBuffer() {
+    SlowCallRecorder recorder = new SlowCallRecorder(2, 0L, 0);
+    recorder.record("bean", "first()", 1L, null);
+    recorder.record("bean", "second()", 2L, new IllegalStateException());
+    recorder.record("bean", "third()", 3L, null);
+
+    List<SlowCall> slowCalls = recorder.getSlowCalls();
+    assertEquals(2, slowCalls.size());
+    assertEquals("second()", slowCalls.get(0).getMethodName());
+    assertEquals(IllegalStateException.class.getName(), slowCalls.get(0).getOutcome());
+    assertEquals("third()", slowCalls.get(1).getMethodName());
+    assertEquals("SUCCESS", slowCalls.get(1).getOutcome());
+    assertEquals(3L, recorder.getSlowCallCount());
+
+    recorder.clear();
+    assertTrue(recorder.getSlowCalls().isEmpty());
+  }
+
+  @Test
+  public void stackSampleRate() {
+    SlowCallRecorder recorder = new SlowCallRecorder(4, 0L, 2);
+    recorder.record("bean", "first()", 1L, null);
+    recorder.record("bean", "second()", 2L, null);
+
+    List<SlowCall> slowCalls = recorder.getSlowCalls();
+    assertNull(slowCalls.get(0).getStackTrace());
+    StackTraceElement[] stackTrace = slowCalls.get(1).getStackTrace();
+    assertNotNull(stackTrace);
+    // frames of the recorder are removed
+    assertEquals(SlowCallRecorderTest.class.getName(), stackTrace[0].getClassName());
+  }
+
+}
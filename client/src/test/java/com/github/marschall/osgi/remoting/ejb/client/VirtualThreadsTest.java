@@ -0,0 +1,36 @@
+package com.github.marschall.osgi.remoting.ejb.client;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.Test;
+
+public class VirtualThreadsTest {
+
+  @Test
+  public void newThreadFactory() {
+    ThreadFactory factory = VirtualThreads.newThreadFactory("test-");
+    boolean supported;
+    try {
+      Thread.class.getMethod("isVirtual");
+      supported = true;
+    } catch (NoSuchMethodException e) {
+      supported = false;
+    }
+    if (supported) {
+      Thread thread = factory.newThread(new Runnable() {
+
+        @Override
+        public void run() {
+          // nothing
+        }
+      });
+      assertTrue(thread.getName().startsWith("test-"));
+    } else {
+      assertNull(factory);
+    }
+  }
+
+}
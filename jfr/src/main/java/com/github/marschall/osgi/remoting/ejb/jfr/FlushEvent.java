@@ -0,0 +1,20 @@
+package com.github.marschall.osgi.remoting.ejb.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.github.marschall.osgi.remoting.ejb.Flush")
+@Label("EJB Proxy Flush")
+@Description("New JNDI look up of a single EJB client proxy or all proxies of a client bundle")
+final class FlushEvent extends RemotingEvent {
+
+  @Label("Name")
+  @Description("JNDI name when flushing a single proxy, bundle symbolic name when flushing a client bundle")
+  String name;
+
+  @Label("Scope")
+  @Description("PROXY or BUNDLE")
+  String scope;
+
+}
@@ -0,0 +1,18 @@
+package com.github.marschall.osgi.remoting.ejb.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.github.marschall.osgi.remoting.ejb.Invocation")
+@Label("Remote EJB Call")
+@Description("Method call on a remote service")
+final class InvocationEvent extends RemotingEvent {
+
+  @Label("JNDI Name")
+  String jndiName;
+
+  @Label("Method")
+  String method;
+
+}
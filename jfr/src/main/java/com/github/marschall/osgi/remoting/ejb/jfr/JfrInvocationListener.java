@@ -0,0 +1,77 @@
+package com.github.marschall.osgi.remoting.ejb.jfr;
+
+import jdk.jfr.EventType;
+
+import com.github.marschall.osgi.remoting.ejb.api.InvocationListener;
+
+/**
+ * Emits Java Flight Recorder events for look ups, calls and flushes.
+ *
+ * <p>
+ * When no recording has the events enabled no events are created.
+ * </p>
+ */
+public class JfrInvocationListener implements InvocationListener {
+
+  private static final EventType LOOK_UP_TYPE = EventType.getEventType(LookUpEvent.class);
+
+  private static final EventType INVOCATION_TYPE = EventType.getEventType(InvocationEvent.class);
+
+  private static final EventType FLUSH_TYPE = EventType.getEventType(FlushEvent.class);
+
+  @Override
+  public Object started(Operation operation, String name, String methodName) {
+    switch (operation) {
+      case LOOK_UP:
+        return this.lookUpStarted(name);
+      case INVOCATION:
+        return this.invocationStarted(name, methodName);
+      case FLUSH_PROXY:
+        return this.flushStarted(name, "PROXY");
+      case FLUSH_PROXIES:
+        return this.flushStarted(name, "BUNDLE");
+      default:
+        return null;
+    }
+  }
+
+  private Object lookUpStarted(String jndiName) {
+    if (!LOOK_UP_TYPE.isEnabled()) {
+      return null;
+    }
+    LookUpEvent event = new LookUpEvent();
+    event.jndiName = jndiName;
+    event.begin();
+    return event;
+  }
+
+  private Object invocationStarted(String jndiName, String methodName) {
+    if (!INVOCATION_TYPE.isEnabled()) {
+      return null;
+    }
+    InvocationEvent event = new InvocationEvent();
+    event.jndiName = jndiName;
+    event.method = methodName;
+    event.begin();
+    return event;
+  }
+
+  private Object flushStarted(String name, String scope) {
+    if (!FLUSH_TYPE.isEnabled()) {
+      return null;
+    }
+    FlushEvent event = new FlushEvent();
+    event.name = name;
+    event.scope = scope;
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public void finished(Object context, Throwable failure) {
+    if (context != null) {
+      ((RemotingEvent) context).finish(failure);
+    }
+  }
+
+}
@@ -0,0 +1,15 @@
+package com.github.marschall.osgi.remoting.ejb.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.github.marschall.osgi.remoting.ejb.LookUp")
+@Label("EJB Proxy Look Up")
+@Description("Initial JNDI look up of an EJB client proxy")
+final class LookUpEvent extends RemotingEvent {
+
+  @Label("JNDI Name")
+  String jndiName;
+
+}
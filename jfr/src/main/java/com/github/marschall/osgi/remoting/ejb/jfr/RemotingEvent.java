@@ -0,0 +1,26 @@
+package com.github.marschall.osgi.remoting.ejb.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Common fields of all events.
+ */
+@Category("OSGi Remoting EJB")
+abstract class RemotingEvent extends Event {
+
+  @Label("Outcome")
+  @Description("SUCCESS or the class name of the exception")
+  String outcome;
+
+  void finish(Throwable failure) {
+    this.end();
+    if (this.shouldCommit()) {
+      this.outcome = failure == null ? "SUCCESS" : failure.getClass().getName();
+      this.commit();
+    }
+  }
+
+}
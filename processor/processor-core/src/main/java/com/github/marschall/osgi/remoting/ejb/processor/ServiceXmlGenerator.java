@@ -26,12 +26,14 @@ public abstract class ServiceXmlGenerator extends AbstractProcessor {
   static final String MODULE_NAME_OPTION = "javax.ejb.module.name";
   static final String APPLICATION_NAME_OPTION = "javax.ejb.application.name";
   static final String DISTINCT_NAME_OPTION = "org.jboss.distinct.name";
+  static final String STUBS_OPTION = "com.github.marschall.osgi.remoting.ejb.stubs";
 
   private EjbCollector collector;
   private String applicationName;
   private String moduleName;
   private boolean jbossSyntax;
   private String distinctName;
+  private StubGenerator stubGenerator;
 
   public ServiceXmlGenerator() {
     super();
@@ -45,6 +47,9 @@ public abstract class ServiceXmlGenerator extends AbstractProcessor {
     this.applicationName = options.get(APPLICATION_NAME_OPTION);
     this.moduleName = options.get(MODULE_NAME_OPTION);
     this.collector = new EjbCollector(processingEnv);
+    if (Boolean.parseBoolean(options.get(STUBS_OPTION))) {
+      this.stubGenerator = new StubGenerator(processingEnv);
+    }
     
     this.jbossSyntax = options.containsKey(DISTINCT_NAME_OPTION);
     if (this.jbossSyntax) {
@@ -69,10 +74,24 @@ public abstract class ServiceXmlGenerator extends AbstractProcessor {
       return false;
     } else {
       this.collector.processRound(roundEnv);
+      if (this.stubGenerator != null) {
+        // has to happen before the last round so that the stubs get compiled
+        this.generateStubs();
+      }
       return true;
     }
   }
 
+  private void generateStubs() {
+    try {
+      this.stubGenerator.generateStubs(this.collector.beans);
+    } catch (IOException e) {
+      Messager messager = this.processingEnv.getMessager();
+      messager.printMessage(ERROR, "IOException: " + e.getMessage());
+      throw new RuntimeException("could not write stubs", e);
+    }
+  }
+
   private void writeServiceXml() {
     // TODO move to own class
     if (!this.collector.isEmpty()) {
@@ -159,6 +178,14 @@ public abstract class ServiceXmlGenerator extends AbstractProcessor {
     // <property name="com.github.marschall.ejb">foo/bar</property>
     String jndiName = jndiName(bean, remoteInterface);
     writeProperty("com.github.marschall.osgi.remoting.ejb.jndiName", jndiName, writer);
+
+    if (this.stubGenerator != null) {
+      String stubName = this.stubGenerator.getStubName(remoteInterface);
+      if (stubName != null) {
+        // <property name="com.github.marschall.osgi.remoting.ejb.stub">foo.BarStub</property>
+        writeProperty("com.github.marschall.osgi.remoting.ejb.stub", stubName, writer);
+      }
+    }
     
     writer.writeEndElement(); //service-description
   }
@@ -0,0 +1,447 @@
+package com.github.marschall.osgi.remoting.ejb.processor;
+
+import static javax.tools.Diagnostic.Kind.WARNING;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * Generates a delegating stub class for every remote interface.
+ *
+ * <p>
+ * A stub asks the {@code StubHandler} of osgi-remoting-ejb-client before
+ * every call whether it may call the EJB client proxy directly. If so it
+ * switches the TCCL and calls the EJB client proxy without reflection and
+ * boxing, otherwise it passes the call with its cached
+ * {@link java.lang.reflect.Method} to the handler like a
+ * {@link java.lang.reflect.Proxy} would. Stubs only depend on the JDK and
+ * osgi-remoting-ejb-api.
+ * </p>
+ *
+ * <p>
+ * The contract with osgi-remoting-ejb-client is a public constructor taking
+ * the {@code StubHandler} and the class loader to set as TCCL.
+ * {@code equals} passes the handler of an other stub of the same interface
+ * instead of the stub so the EJB client proxies can be compared.
+ * </p>
+ */
+final class StubGenerator {
+
+  private static final String STUB_SUFFIX = "_Stub";
+
+  private static final String STUB_HANDLER = "com.github.marschall.osgi.remoting.ejb.api.StubHandler";
+
+  private final ProcessingEnvironment processingEnv;
+
+  private final Elements elements;
+
+  private final Types types;
+
+  /**
+   * Maps the qualified interface names to the qualified stub names.
+   */
+  private final Map<String, String> stubNames;
+
+  private boolean missingStubHandlerReported;
+
+  StubGenerator(ProcessingEnvironment processingEnv) {
+    this.processingEnv = processingEnv;
+    this.elements = processingEnv.getElementUtils();
+    this.types = processingEnv.getTypeUtils();
+    this.stubNames = new HashMap<String, String>();
+  }
+
+  /**
+   * Returns the qualified name of the stub for the given interface.
+   *
+   * @param remoteInterface the qualified name of the interface
+   * @return the qualified name of the stub, {@code null} if no stub was
+   *  generated
+   */
+  String getStubName(String remoteInterface) {
+    return this.stubNames.get(remoteInterface);
+  }
+
+  void generateStubs(List<EjbInfo> beans) throws IOException {
+    if (!this.isStubHandlerAvailable()) {
+      return;
+    }
+    for (EjbInfo bean : beans) {
+      for (String remoteInterface : bean.remoteInterfaces) {
+        if (!this.stubNames.containsKey(remoteInterface)) {
+          // record even if no stub is generated so we warn only once
+          this.stubNames.put(remoteInterface, this.generateStub(remoteInterface));
+        }
+      }
+    }
+  }
+
+  private boolean isStubHandlerAvailable() {
+    if (this.elements.getTypeElement(STUB_HANDLER) == null) {
+      if (!this.missingStubHandlerReported) {
+        this.processingEnv.getMessager().printMessage(WARNING,
+            "osgi-remoting-ejb-api is not on the class path, no stubs generated");
+        this.missingStubHandlerReported = true;
+      }
+      return false;
+    }
+    return true;
+  }
+
+  private String generateStub(String remoteInterface) throws IOException {
+    Messager messager = this.processingEnv.getMessager();
+    TypeElement interfaceElement = this.elements.getTypeElement(remoteInterface);
+    if (interfaceElement == null) {
+      messager.printMessage(WARNING, "could not find remote interface: " + remoteInterface + ", no stub generated");
+      return null;
+    }
+    if (!interfaceElement.getTypeParameters().isEmpty()) {
+      messager.printMessage(WARNING, "generic remote interface, no stub generated", interfaceElement);
+      return null;
+    }
+    if (!interfaceElement.getModifiers().contains(Modifier.PUBLIC)) {
+      messager.printMessage(WARNING, "non-public remote interface, no stub generated", interfaceElement);
+      return null;
+    }
+
+    PackageElement packageElement = this.elements.getPackageOf(interfaceElement);
+    String packageName = packageElement.getQualifiedName().toString();
+    String simpleStubName = this.flatName(interfaceElement) + STUB_SUFFIX;
+    String stubName = packageName.isEmpty() ? simpleStubName : packageName + '.' + simpleStubName;
+
+    Filer filer = this.processingEnv.getFiler();
+    Writer writer = filer.createSourceFile(stubName, interfaceElement).openWriter();
+    try {
+      StringBuilder source = new StringBuilder();
+      this.writeStub(packageName, simpleStubName, interfaceElement, source);
+      writer.write(source.toString());
+    } finally {
+      writer.close();
+    }
+    return stubName;
+  }
+
+  private String flatName(TypeElement typeElement) {
+    Element enclosing = typeElement.getEnclosingElement();
+    if (enclosing.getKind() == ElementKind.PACKAGE) {
+      return typeElement.getSimpleName().toString();
+    } else {
+      // nested interface
+      return this.flatName((TypeElement) enclosing) + '_' + typeElement.getSimpleName();
+    }
+  }
+
+  private void writeStub(String packageName, String stubName, TypeElement interfaceElement, StringBuilder source) {
+    String interfaceName = interfaceElement.getQualifiedName().toString();
+    if (!packageName.isEmpty()) {
+      source.append("package ").append(packageName).append(";\n\n");
+    }
+    source.append("/**\n");
+    source.append(" * Passes the calls of {@link ").append(interfaceName).append("} to osgi-remoting-ejb-client.\n");
+    source.append(" *\n");
+    source.append(" * <p>\n");
+    source.append(" * Generated by ").append(ServiceXmlGenerator.class.getName()).append(", do not edit.\n");
+    source.append(" * </p>\n");
+    source.append(" */\n");
+    source.append("@java.lang.SuppressWarnings(\"unchecked\")\n");
+    source.append("public final class ").append(stubName).append(" implements ").append(interfaceName).append(" {\n\n");
+
+    DeclaredType interfaceType = (DeclaredType) interfaceElement.asType();
+    Set<String> signatures = new HashSet<String>();
+    List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
+    List<ExecutableType> methodTypes = new ArrayList<ExecutableType>();
+    for (ExecutableElement method : ElementFilter.methodsIn(this.elements.getAllMembers(interfaceElement))) {
+      if (!this.isStubMethod(method)) {
+        continue;
+      }
+      ExecutableType methodType = (ExecutableType) this.types.asMemberOf(interfaceType, method);
+      // the same method can be inherited from several super interfaces
+      if (signatures.add(this.signature(method, methodType))) {
+        methods.add(method);
+        methodTypes.add(methodType);
+      }
+    }
+
+    // looked up once instead of on every call
+    source.append("  private static final java.lang.reflect.Method $equals = $method(java.lang.Object.class, \"equals\", java.lang.Object.class);\n\n");
+    source.append("  private static final java.lang.reflect.Method $hashCode = $method(java.lang.Object.class, \"hashCode\");\n\n");
+    source.append("  private static final java.lang.reflect.Method $toString = $method(java.lang.Object.class, \"toString\");\n\n");
+    for (int i = 0; i < methods.size(); ++i) {
+      this.writeMethodField(interfaceName, i, methods.get(i), source);
+    }
+
+    source.append("  private final ").append(STUB_HANDLER).append(" handler;\n\n");
+    source.append("  private final java.lang.ClassLoader classLoader;\n\n");
+
+    source.append("  public ").append(stubName).append("(").append(STUB_HANDLER)
+        .append(" handler, java.lang.ClassLoader classLoader) {\n");
+    source.append("    this.handler = handler;\n");
+    source.append("    this.classLoader = classLoader;\n");
+    source.append("  }\n\n");
+
+    source.append("  private static java.lang.reflect.Method $method(java.lang.Class<?> declaringClass, java.lang.String name, java.lang.Class<?>... parameterTypes) {\n");
+    source.append("    try {\n");
+    source.append("      return declaringClass.getMethod(name, parameterTypes);\n");
+    source.append("    } catch (java.lang.NoSuchMethodException e) {\n");
+    source.append("      throw new java.lang.NoSuchMethodError(e.getMessage());\n");
+    source.append("    }\n");
+    source.append("  }\n\n");
+
+    for (int i = 0; i < methods.size(); ++i) {
+      this.writeMethod(interfaceName, i, methods.get(i), methodTypes.get(i), source);
+    }
+
+    this.writeObjectMethods(stubName, source);
+    source.append("}\n");
+  }
+
+  private void writeMethodField(String interfaceName, int index, ExecutableElement method, StringBuilder source) {
+    source.append("  private static final java.lang.reflect.Method $m").append(index).append(" = $method(")
+        .append(interfaceName).append(".class, \"").append(method.getSimpleName()).append('"');
+    // the parameter types of the declaration, a method inherited from a
+    // generic super interface is compiled with the erasure of its type variables
+    for (VariableElement parameter : method.getParameters()) {
+      source.append(", ").append(this.types.erasure(parameter.asType())).append(".class");
+    }
+    source.append(");\n\n");
+  }
+
+  private boolean isStubMethod(ExecutableElement method) {
+    Element declaringElement = method.getEnclosingElement();
+    if (declaringElement.getKind() != ElementKind.INTERFACE) {
+      // methods of java.lang.Object
+      return false;
+    }
+    // skip static and default methods
+    return method.getModifiers().contains(Modifier.ABSTRACT);
+  }
+
+  private String signature(ExecutableElement method, ExecutableType methodType) {
+    StringBuilder signature = new StringBuilder();
+    signature.append(method.getSimpleName()).append('(');
+    for (TypeMirror parameterType : methodType.getParameterTypes()) {
+      signature.append(this.types.erasure(parameterType)).append(',');
+    }
+    return signature.append(')').toString();
+  }
+
+  private void writeMethod(String interfaceName, int index, ExecutableElement method, ExecutableType methodType,
+      StringBuilder source) {
+    source.append("  public ");
+    List<? extends TypeParameterElement> typeParameters = method.getTypeParameters();
+    if (!typeParameters.isEmpty()) {
+      source.append('<');
+      for (int i = 0; i < typeParameters.size(); ++i) {
+        if (i > 0) {
+          source.append(", ");
+        }
+        this.writeTypeParameter(typeParameters.get(i), source);
+      }
+      source.append("> ");
+    }
+    TypeMirror returnType = methodType.getReturnType();
+    source.append(returnType).append(' ').append(method.getSimpleName()).append('(');
+    List<? extends TypeMirror> parameterTypes = methodType.getParameterTypes();
+    for (int i = 0; i < parameterTypes.size(); ++i) {
+      if (i > 0) {
+        source.append(", ");
+      }
+      TypeMirror parameterType = parameterTypes.get(i);
+      if (method.isVarArgs() && i == parameterTypes.size() - 1) {
+        source.append(((ArrayType) parameterType).getComponentType()).append("...");
+      } else {
+        source.append(parameterType);
+      }
+      source.append(" arg").append(i);
+    }
+    source.append(')');
+    List<? extends TypeMirror> thrownTypes = methodType.getThrownTypes();
+    if (!thrownTypes.isEmpty()) {
+      source.append(" throws ");
+      for (int i = 0; i < thrownTypes.size(); ++i) {
+        if (i > 0) {
+          source.append(", ");
+        }
+        source.append(thrownTypes.get(i));
+      }
+    }
+    source.append(" {\n");
+
+    String methodField = "$m" + index;
+    StringBuilder arguments = new StringBuilder();
+    for (int i = 0; i < parameterTypes.size(); ++i) {
+      if (i > 0) {
+        arguments.append(", ");
+      }
+      arguments.append("arg").append(i);
+    }
+
+    source.append("    java.lang.Object target = this.handler.startCall(").append(methodField).append(");\n");
+    source.append("    if (target == null) {\n");
+    String argumentArray = parameterTypes.isEmpty() ? "null" : "new java.lang.Object[] {" + arguments + "}";
+    this.writeInvoke("      ", methodField, argumentArray, returnType, thrownTypes, source);
+    source.append("    }\n");
+
+    this.writeDirectCall(interfaceName, methodField, method.getSimpleName().toString(), arguments.toString(),
+        returnType, thrownTypes, source);
+
+    source.append("  }\n\n");
+  }
+
+  /**
+   * Writes the direct call of the EJB client proxy, the handler only records
+   * the outcome.
+   */
+  private void writeDirectCall(String interfaceName, String methodField, String methodName, String arguments,
+      TypeMirror returnType, List<? extends TypeMirror> thrownTypes, StringBuilder source) {
+    boolean returnsValue = returnType.getKind() != TypeKind.VOID;
+    source.append("    java.lang.Thread currentThread = java.lang.Thread.currentThread();\n");
+    source.append("    java.lang.ClassLoader oldContextClassLoader = currentThread.getContextClassLoader();\n");
+    source.append("    boolean switchClassLoader = oldContextClassLoader != this.classLoader;\n");
+    source.append("    if (switchClassLoader) {\n");
+    source.append("      currentThread.setContextClassLoader(this.classLoader);\n");
+    source.append("    }\n");
+    if (returnsValue) {
+      source.append("    ").append(returnType).append(" result;\n");
+    }
+    source.append("    long start = java.lang.System.nanoTime();\n");
+    source.append("    try {\n");
+    source.append("      ");
+    if (returnsValue) {
+      source.append("result = ");
+    }
+    source.append("((").append(interfaceName).append(") target).").append(methodName)
+        .append('(').append(arguments).append(");\n");
+    source.append("    } catch (java.lang.Throwable t) {\n");
+    source.append("      java.lang.Throwable failure = this.handler.finishCall(").append(methodField).append(", start, t);\n");
+    this.writeRethrow("failure", "      ", thrownTypes, source);
+    source.append("    } finally {\n");
+    source.append("      if (switchClassLoader) {\n");
+    source.append("        currentThread.setContextClassLoader(oldContextClassLoader);\n");
+    source.append("      }\n");
+    source.append("    }\n");
+    source.append("    this.handler.finishCall(").append(methodField).append(", start, null);\n");
+    if (returnsValue) {
+      source.append("    return result;\n");
+    }
+  }
+
+  /**
+   * Writes the call of the invocation handler, rethrows exceptions like
+   * {@link java.lang.reflect.Proxy}.
+   */
+  private void writeInvoke(String indent, String method, String arguments, TypeMirror returnType,
+      List<? extends TypeMirror> thrownTypes, StringBuilder source) {
+    source.append(indent).append("try {\n");
+    source.append(indent).append("  ");
+    if (returnType.getKind() != TypeKind.VOID) {
+      source.append("return (").append(this.referenceType(returnType)).append(") ");
+    }
+    source.append("this.handler.invoke(this, ").append(method).append(", ").append(arguments).append(");\n");
+    if (returnType.getKind() == TypeKind.VOID) {
+      source.append(indent).append("  return;\n");
+    }
+    source.append(indent).append("} catch (java.lang.Throwable t) {\n");
+    this.writeRethrow("t", indent + "  ", thrownTypes, source);
+    source.append(indent).append("}\n");
+  }
+
+  /**
+   * Writes the code that throws an exception, undeclared checked exceptions
+   * are wrapped like {@link java.lang.reflect.Proxy} does.
+   */
+  private void writeRethrow(String exception, String indent, List<? extends TypeMirror> thrownTypes,
+      StringBuilder source) {
+    source.append(indent).append("if (").append(exception).append(" instanceof java.lang.RuntimeException) {\n");
+    source.append(indent).append("  throw (java.lang.RuntimeException) ").append(exception).append(";\n");
+    source.append(indent).append("}\n");
+    source.append(indent).append("if (").append(exception).append(" instanceof java.lang.Error) {\n");
+    source.append(indent).append("  throw (java.lang.Error) ").append(exception).append(";\n");
+    source.append(indent).append("}\n");
+    for (TypeMirror thrownType : thrownTypes) {
+      source.append(indent).append("if (").append(exception).append(" instanceof ")
+          .append(this.types.erasure(thrownType)).append(") {\n");
+      source.append(indent).append("  throw (").append(thrownType).append(") ").append(exception).append(";\n");
+      source.append(indent).append("}\n");
+    }
+    source.append(indent).append("throw new java.lang.reflect.UndeclaredThrowableException(").append(exception)
+        .append(");\n");
+  }
+
+  /**
+   * Returns the type to cast the result of the invocation handler to,
+   * primitives are unboxed from their wrapper.
+   */
+  private String referenceType(TypeMirror type) {
+    if (type.getKind().isPrimitive()) {
+      return this.types.boxedClass((PrimitiveType) type).getQualifiedName().toString();
+    }
+    return type.toString();
+  }
+
+  private void writeTypeParameter(TypeParameterElement typeParameter, StringBuilder source) {
+    source.append(typeParameter.getSimpleName());
+    List<? extends TypeMirror> bounds = typeParameter.getBounds();
+    boolean first = true;
+    for (TypeMirror bound : bounds) {
+      if (bound.toString().equals("java.lang.Object")) {
+        continue;
+      }
+      source.append(first ? " extends " : " & ").append(bound);
+      first = false;
+    }
+  }
+
+  private void writeObjectMethods(String stubName, StringBuilder source) {
+    TypeMirror booleanType = this.types.getPrimitiveType(TypeKind.BOOLEAN);
+    TypeMirror intType = this.types.getPrimitiveType(TypeKind.INT);
+    TypeMirror stringType = this.elements.getTypeElement("java.lang.String").asType();
+    List<TypeMirror> noExceptions = new ArrayList<TypeMirror>(0);
+
+    // forwarded to the EJB client proxy to preserve session object identity
+    source.append("  @java.lang.Override\n");
+    source.append("  public boolean equals(java.lang.Object obj) {\n");
+    source.append("    java.lang.Object other = obj instanceof ").append(stubName).append(" ? ((")
+        .append(stubName).append(") obj).handler : obj;\n");
+    this.writeInvoke("    ", "$equals", "new java.lang.Object[] {other}", booleanType, noExceptions, source);
+    source.append("  }\n\n");
+
+    source.append("  @java.lang.Override\n");
+    source.append("  public int hashCode() {\n");
+    this.writeInvoke("    ", "$hashCode", "null", intType, noExceptions, source);
+    source.append("  }\n\n");
+
+    source.append("  @java.lang.Override\n");
+    source.append("  public java.lang.String toString() {\n");
+    this.writeInvoke("    ", "$toString", "null", stringType, noExceptions, source);
+    source.append("  }\n\n");
+  }
+
+}
@@ -0,0 +1,231 @@
+package com.github.marschall.osgi.remoting.ejb.processor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.lang.model.SourceVersion;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.marschall.osgi.remoting.ejb.api.StubHandler;
+
+public class StubGeneratorTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private ClassLoader classLoader;
+
+  @Before
+  public void setUp() throws IOException {
+    File sources = this.folder.newFolder("sources");
+    File classes = this.folder.newFolder("classes");
+    List<File> files = new ArrayList<File>();
+    // the processor looks up all bean annotations
+    for (String annotation : Arrays.asList("Stateless", "Stateful", "Singleton")) {
+      files.add(write(sources, "javax/ejb/" + annotation + ".java",
+          "package javax.ejb;\n"
+          + "public @interface " + annotation + " {}\n"));
+    }
+    files.add(write(sources, "javax/ejb/Remote.java",
+        "package javax.ejb;\n"
+        + "public @interface Remote { Class<?>[] value() default {}; }\n"));
+    files.add(write(sources, "sample/Repository.java",
+        "package sample;\n"
+        + "public interface Repository<T> {\n"
+        + "  void save(T value);\n"
+        + "  T load(int id) throws java.io.IOException;\n"
+        + "}\n"));
+    files.add(write(sources, "sample/NameRepository.java",
+        "package sample;\n"
+        + "public interface NameRepository extends Repository<String> {\n"
+        + "  int count();\n"
+        + "}\n"));
+    files.add(write(sources, "sample/NameBean.java",
+        "package sample;\n"
+        + "@javax.ejb.Stateless\n"
+        + "@javax.ejb.Remote(NameRepository.class)\n"
+        + "public class NameBean implements NameRepository {\n"
+        + "  public void save(String value) {\n"
+        + "    if (value == null) {\n"
+        + "      throw new IllegalArgumentException(\"null\");\n"
+        + "    }\n"
+        + "  }\n"
+        + "  public String load(int id) {\n"
+        + "    return \"name\" + id;\n"
+        + "  }\n"
+        + "  public int count() {\n"
+        + "    return 42;\n"
+        + "  }\n"
+        + "}\n"));
+
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+    try {
+      Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjectsFromFiles(files);
+      List<String> options = Arrays.asList(
+          "-classpath", System.getProperty("java.class.path"),
+          "-d", classes.getAbsolutePath(),
+          "-s", classes.getAbsolutePath(),
+          "-A" + ServiceXmlGenerator.MODULE_NAME_OPTION + "=sample",
+          "-A" + ServiceXmlGenerator.STUBS_OPTION + "=true");
+      JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, null, options, null, units);
+      task.setProcessors(Collections.singletonList(new TestServiceXmlGenerator()));
+      assertTrue("compilation failed", task.call());
+    } finally {
+      fileManager.close();
+    }
+    this.classLoader = new URLClassLoader(new URL[] {classes.toURI().toURL()}, StubHandler.class.getClassLoader());
+  }
+
+  @Test
+  public void genericSuperInterface() throws Exception {
+    RecordingHandler handler = new RecordingHandler(null);
+    Object stub = this.newStub(handler);
+    Class<?> repository = this.classLoader.loadClass("sample.Repository");
+
+    Method save = repository.getMethod("save", Object.class);
+    save.invoke(stub, "name");
+    // the method of the generic declaration, same as a java.lang.reflect.Proxy gets
+    assertEquals(save, handler.invoked);
+    assertArrayEquals(new Object[] {"name"}, handler.arguments);
+    assertEquals(save, handler.started);
+  }
+
+  @Test
+  public void directCall() throws Exception {
+    Object bean = this.classLoader.loadClass("sample.NameBean").newInstance();
+    RecordingHandler handler = new RecordingHandler(bean);
+    Object stub = this.newStub(handler);
+    Class<?> nameRepository = this.classLoader.loadClass("sample.NameRepository");
+
+    assertEquals("name1", nameRepository.getMethod("load", int.class).invoke(stub, 1));
+    assertEquals(42, nameRepository.getMethod("count").invoke(stub));
+    assertNull("no call through the handler", handler.invoked);
+    assertEquals(nameRepository.getMethod("count"), handler.finished);
+    assertNull(handler.failure);
+  }
+
+  @Test
+  public void directCallFailure() throws Exception {
+    Object bean = this.classLoader.loadClass("sample.NameBean").newInstance();
+    RecordingHandler handler = new RecordingHandler(bean);
+    Object stub = this.newStub(handler);
+    Method save = this.classLoader.loadClass("sample.Repository").getMethod("save", Object.class);
+
+    try {
+      save.invoke(stub, (Object) null);
+      fail("call should fail");
+    } catch (java.lang.reflect.InvocationTargetException e) {
+      // the exception returned by the handler is thrown
+      assertSame(handler.translated, e.getCause());
+    }
+    assertTrue(handler.failure instanceof IllegalArgumentException);
+  }
+
+  private Object newStub(StubHandler handler) throws Exception {
+    Class<?> stubClass = this.classLoader.loadClass("sample.NameRepository_Stub");
+    return stubClass.getConstructor(StubHandler.class, ClassLoader.class).newInstance(handler, this.classLoader);
+  }
+
+  private static File write(File directory, String path, String content) throws IOException {
+    File file = new File(directory, path);
+    file.getParentFile().mkdirs();
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      writer.write(content);
+    } finally {
+      writer.close();
+    }
+    return file;
+  }
+
+  static final class TestServiceXmlGenerator extends ServiceXmlGenerator {
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+      return new HashSet<String>(Arrays.asList("javax.ejb.Stateless"));
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+      return new HashSet<String>(Arrays.asList(MODULE_NAME_OPTION, STUBS_OPTION));
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+      return SourceVersion.latestSupported();
+    }
+
+  }
+
+  static final class RecordingHandler implements StubHandler {
+
+    private final Object target;
+
+    final RuntimeException translated;
+
+    volatile Method started;
+
+    volatile Method invoked;
+
+    volatile Object[] arguments;
+
+    volatile Method finished;
+
+    volatile Throwable failure;
+
+    RecordingHandler(Object target) {
+      this.target = target;
+      this.translated = new RuntimeException("translated");
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      this.invoked = method;
+      this.arguments = args;
+      return null;
+    }
+
+    @Override
+    public Object startCall(Method method) {
+      this.started = method;
+      return this.target;
+    }
+
+    @Override
+    public Throwable finishCall(Method method, long start, Throwable failure) {
+      this.finished = method;
+      this.failure = failure;
+      return failure != null ? this.translated : null;
+    }
+
+  }
+
+}
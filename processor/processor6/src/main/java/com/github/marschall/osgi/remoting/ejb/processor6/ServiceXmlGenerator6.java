@@ -12,6 +12,7 @@ import com.github.marschall.osgi.remoting.ejb.processor.ServiceXmlGenerator;
   "javax.ejb.module.name",
   "javax.ejb.application.name",
   "org.jboss.distinct.name",
+  "com.github.marschall.osgi.remoting.ejb.stubs",
 })
 @SupportedAnnotationTypes({
   "javax.ejb.Stateful",